@@ -0,0 +1,96 @@
+package ch.jcsinfo.javafx.benchmarks;
+
+import ch.jcsinfo.javafx.helpers.JfxJournalBackend;
+import ch.jcsinfo.javafx.helpers.JfxMappedBackend;
+import ch.jcsinfo.javafx.helpers.JfxSettings;
+import ch.jcsinfo.javafx.helpers.JfxSettingsBackend;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Base commune des benchmarks de JfxSettings. Chaque essai ("trial") utilise son propre
+ * stockage temporaire, suivant le paramètre "backend" :<br>
+ * - "prefs-memory" : un noeud temporaire dans les préférences Java gardées en mémoire
+ *   de la JVM du benchmark (voir MemoryPreferencesFactory), sans aucune écriture sur disque ;<br>
+ * - "mapped" : un fichier temporaire projeté en mémoire (JfxMappedBackend) ;<br>
+ * - "journal" : un journal temporaire (JfxJournalBackend).<br>
+ * Les vraies préférences de l'utilisateur ne sont donc jamais touchées.
+ *
+ * @author jcstritt
+ */
+public abstract class AbstractSettingsBenchmark {
+  private static final String NODE_PREFIX = "jfxsettings-bench-";
+
+  @Param({"prefs-memory", "mapped", "journal"})
+  private String backend;
+
+  private Path tempFile;
+  private int counter;
+
+  /**
+   * Prépare le stockage temporaire, puis les valeurs lues par les benchmarks.
+   *
+   * @throws IOException si le fichier temporaire ne peut pas être créé
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    if (!MemoryPreferencesFactory.isActive()) {
+      throw new IllegalStateException("Preferences are not in memory, refusing to touch the user node");
+    }
+    if (backend.equals("mapped")) {
+      tempFile = Files.createTempFile(NODE_PREFIX, ".bin");
+      Files.delete(tempFile);
+      JfxSettings.setBackend(new JfxMappedBackend(tempFile));
+    } else if (backend.equals("journal")) {
+      tempFile = Files.createTempFile(NODE_PREFIX, ".jfxj");
+      Files.delete(tempFile);
+      JfxSettings.setBackend(new JfxJournalBackend(tempFile));
+    } else {
+      JfxSettings.setUserNodeName(NODE_PREFIX + System.nanoTime());
+    }
+    fill();
+    JfxSettings.flush();
+  }
+
+  /**
+   * Supprime le noeud ou les fichiers temporaires.
+   *
+   * @throws IOException si le fichier temporaire ne peut pas être supprimé
+   * @throws BackingStoreException si le noeud temporaire ne peut pas être supprimé
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException, BackingStoreException {
+    JfxSettingsBackend used = JfxSettings.getBackend();
+    JfxSettings.setUserNodeName(NODE_PREFIX + "done");
+    if (tempFile != null) {
+      used.close();
+      Files.deleteIfExists(tempFile);
+      Files.deleteIfExists(tempFile.resolveSibling(tempFile.getFileName() + ".ckpt"));
+    } else {
+      Preferences.userRoot().node(used.getName()).removeNode();
+    }
+  }
+
+  /**
+   * Mémorise les valeurs lues par les benchmarks.
+   */
+  protected abstract void fill();
+
+  /**
+   * Alterne entre deux valeurs, pour que chaque écriture change réellement
+   * la valeur mémorisée (une écriture identique est ignorée par JfxSettings).
+   *
+   * @return 0 ou 1
+   */
+  protected int toggle() {
+    return counter++ & 1;
+  }
+
+}
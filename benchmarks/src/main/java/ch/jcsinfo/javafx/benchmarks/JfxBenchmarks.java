@@ -0,0 +1,29 @@
+package ch.jcsinfo.javafx.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Point d'entrée des benchmarks (java -jar target/benchmarks.jar). Les options habituelles
+ * de JMH sont acceptées (ex: "JfxSettingsBenchmark.get" ou "-p backend=mapped") ;
+ * le profileur GC est toujours ajouté pour mesurer le taux d'allocation.
+ *
+ * @author jcstritt
+ */
+public class JfxBenchmarks {
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    Options opt = new OptionsBuilder()
+        .parent(cmd)
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(opt).run();
+  }
+
+}
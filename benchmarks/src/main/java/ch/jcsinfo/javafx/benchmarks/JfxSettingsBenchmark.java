@@ -0,0 +1,141 @@
+package ch.jcsinfo.javafx.benchmarks;
+
+import ch.jcsinfo.javafx.helpers.JfxLabelPosEnum;
+import ch.jcsinfo.javafx.helpers.JfxSettings;
+import java.util.concurrent.TimeUnit;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks JMH des getters et setters de JfxSettings. Chaque méthode est mesurée en
+ * débit (Throughput) et en latence échantillonnée (SampleTime, avec les percentiles) ;
+ * le profileur GC (ajouté par JfxBenchmarks) donne en plus le taux d'allocation.<br>
+ * <br>
+ * Le paramètre "backend" choisit le stockage : les préférences Java ("prefs-memory"),
+ * un fichier projeté en mémoire ("mapped") ou un journal ("journal"). Attention : les
+ * préférences Java du benchmark sont gardées en mémoire (voir MemoryPreferencesFactory),
+ * leurs chiffres ne comprennent donc aucune écriture sur disque, contrairement à ceux
+ * de "mapped" et "journal". Voir aussi JfxSettingsObjectBenchmark.
+ *
+ * @author jcstritt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+  "-Djava.util.prefs.PreferencesFactory=ch.jcsinfo.javafx.benchmarks.MemoryPreferencesFactory"
+})
+public class JfxSettingsBenchmark extends AbstractSettingsBenchmark {
+
+  @Override
+  protected void fill() {
+    JfxSettings.setValue("STRING", "benchmark");
+    JfxSettings.setBoolean("BOOLEAN", true);
+    JfxSettings.setInt("INT", 123456);
+    JfxSettings.setLong("LONG", 1234567890123L);
+    JfxSettings.setFloat("FLOAT", 3.14159f, 5);
+    JfxSettings.setDouble("DOUBLE", 2.718281828, 9);
+    JfxSettings.setRectangle("RECT", 10, 20, 800, 600);
+    JfxSettings.setValue("POSITION", JfxLabelPosEnum.BOTTOM_LEFT.name());
+    JfxSettings.setValue("FONT", "Arial-BOLD-12");
+    JfxSettings.setValue("COLOR", "#336699");
+  }
+
+  @Benchmark
+  public String getValue() {
+    return JfxSettings.getValue("STRING");
+  }
+
+  @Benchmark
+  public void setValue() {
+    JfxSettings.setValue("STRING", (toggle() == 0) ? "benchmark" : "benchmark2");
+  }
+
+  @Benchmark
+  public boolean getBoolean() {
+    return JfxSettings.getBoolean("BOOLEAN");
+  }
+
+  @Benchmark
+  public void setBoolean() {
+    JfxSettings.setBoolean("BOOLEAN", toggle() == 0);
+  }
+
+  @Benchmark
+  public int getInt() {
+    return JfxSettings.getInt("INT");
+  }
+
+  @Benchmark
+  public void setInt() {
+    JfxSettings.setInt("INT", 123456 + toggle());
+  }
+
+  @Benchmark
+  public long getLong() {
+    return JfxSettings.getLong("LONG");
+  }
+
+  @Benchmark
+  public void setLong() {
+    JfxSettings.setLong("LONG", 1234567890123L + toggle());
+  }
+
+  @Benchmark
+  public float getFloat() {
+    return JfxSettings.getFloat("FLOAT");
+  }
+
+  @Benchmark
+  public void setFloat() {
+    JfxSettings.setFloat("FLOAT", 3.14159f + toggle(), 5);
+  }
+
+  @Benchmark
+  public double getDouble() {
+    return JfxSettings.getDouble("DOUBLE");
+  }
+
+  @Benchmark
+  public void setDouble() {
+    JfxSettings.setDouble("DOUBLE", 2.718281828 + toggle(), 9);
+  }
+
+  @Benchmark
+  public Rectangle2D getRectangle() {
+    return JfxSettings.getRectangle("RECT");
+  }
+
+  @Benchmark
+  public void setRectangle() {
+    JfxSettings.setRectangle("RECT", 10 + toggle(), 20, 800, 600);
+  }
+
+  @Benchmark
+  public JfxLabelPosEnum getPosition() {
+    return JfxSettings.getPosition("POSITION");
+  }
+
+  @Benchmark
+  public Font getFont() {
+    return JfxSettings.getFont("FONT");
+  }
+
+  @Benchmark
+  public Color getColor() {
+    return JfxSettings.getColor("COLOR");
+  }
+
+}
@@ -0,0 +1,71 @@
+package ch.jcsinfo.javafx.benchmarks;
+
+import ch.jcsinfo.javafx.helpers.JfxSettings;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks JMH de getObject et setObject de JfxSettings, avec des objets de tailles
+ * réalistes : petit (quelques réglages d'une fenêtre), moyen (un historique de fichiers)
+ * ou grand (assez pour être mémorisé en blob, sur plusieurs clés).
+ *
+ * @author jcstritt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+  "-Djava.util.prefs.PreferencesFactory=ch.jcsinfo.javafx.benchmarks.MemoryPreferencesFactory"
+})
+public class JfxSettingsObjectBenchmark extends AbstractSettingsBenchmark {
+
+  @Param({"small", "medium", "large"})
+  private String payload;
+
+  private Map<String, Object> object;
+
+  @Override
+  protected void fill() {
+    object = new LinkedHashMap<>();
+    object.put("bounds", new Rectangle2D(10, 20, 800, 600));
+    object.put("color", Color.web("#336699"));
+    object.put("maximized", Boolean.TRUE);
+    object.put("columns", new int[]{120, 80, 80, 200, 60});
+    int n = payload.equals("small") ? 0 : payload.equals("medium") ? 50 : 5000;
+    List<String> history = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      history.add("C:\\Users\\benchmark\\Documents\\project-" + i + "\\file-" + (i * 7919 % 1000) + ".txt");
+    }
+    object.put("history", history);
+    JfxSettings.setObject("OBJECT", object);
+  }
+
+  @Benchmark
+  public Object getObject() {
+    return JfxSettings.getObject("OBJECT");
+  }
+
+  @Benchmark
+  public void setObject() {
+    object.put("maximized", toggle() == 0);
+    JfxSettings.setObject("OBJECT", object);
+  }
+
+}
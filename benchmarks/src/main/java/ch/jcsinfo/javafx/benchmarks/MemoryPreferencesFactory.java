@@ -0,0 +1,99 @@
+package ch.jcsinfo.javafx.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.prefs.AbstractPreferences;
+import java.util.prefs.Preferences;
+import java.util.prefs.PreferencesFactory;
+
+/**
+ * Fabrique de préférences Java entièrement en mémoire, activée dans les JVM des
+ * benchmarks avec "-Djava.util.prefs.PreferencesFactory=...". Les benchmarks ne
+ * touchent ainsi jamais les vraies préférences de l'utilisateur (base de registre,
+ * fichier plist ou XML), et ne mesurent pas le disque de la machine.
+ *
+ * @author jcstritt
+ */
+public class MemoryPreferencesFactory implements PreferencesFactory {
+  private static final Preferences USER_ROOT = new MemoryPreferences(null, "");
+  private static final Preferences SYSTEM_ROOT = new MemoryPreferences(null, "");
+
+  @Override
+  public Preferences userRoot() {
+    return USER_ROOT;
+  }
+
+  @Override
+  public Preferences systemRoot() {
+    return SYSTEM_ROOT;
+  }
+
+  /**
+   * Retourne vrai (true) si les préférences de Java de cette JVM sont bien en mémoire.
+   *
+   * @return true si cette fabrique est active
+   */
+  public static boolean isActive() {
+    return Preferences.userRoot() == USER_ROOT;
+  }
+
+
+
+  /**
+   * Noeud de préférences en mémoire.
+   */
+  private static class MemoryPreferences extends AbstractPreferences {
+    private final Map<String, String> values;
+    private final Map<String, MemoryPreferences> children;
+
+    MemoryPreferences(MemoryPreferences parent, String name) {
+      super(parent, name);
+      this.values = new HashMap<>();
+      this.children = new HashMap<>();
+    }
+
+    @Override
+    protected void putSpi(String key, String value) {
+      values.put(key, value);
+    }
+
+    @Override
+    protected String getSpi(String key) {
+      return values.get(key);
+    }
+
+    @Override
+    protected void removeSpi(String key) {
+      values.remove(key);
+    }
+
+    @Override
+    protected void removeNodeSpi() {
+      ((MemoryPreferences) parent()).children.remove(name());
+    }
+
+    @Override
+    protected String[] keysSpi() {
+      return values.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    protected String[] childrenNamesSpi() {
+      return children.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    protected AbstractPreferences childSpi(String name) {
+      return children.computeIfAbsent(name, n -> new MemoryPreferences(this, n));
+    }
+
+    @Override
+    protected void syncSpi() {
+    }
+
+    @Override
+    protected void flushSpi() {
+    }
+  }
+
+}
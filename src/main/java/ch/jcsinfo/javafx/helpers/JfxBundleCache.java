@@ -0,0 +1,198 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache commun (pour toute l'application) des paquets de resources des vues,
+ * indexé par le nom de la vue et la langue. Un paquet est lu une seule fois,
+ * puis tous ses textes sont calculés à l'avance (références "${clé}" comprises).
+ * Ouvrir à nouveau un dialogue, ou plusieurs instances d'une même vue, ne relit
+ * donc plus le fichier de propriétés (voir JfxExtLoader).<br>
+ * <br>
+ * Chaque appel à get retourne un nouvel objet JfxExtResourceBundle qui partage
+ * les textes mémorisés : un setResourceBundle sur cet objet ne modifie pas le cache.<br>
+ * <br>
+ * Les paquets de toutes les vues connues peuvent aussi être chargés à l'avance en
+ * arrière-plan, pour toutes les langues prévues (par défaut fr, de, it et en, voir
+ * preload). Un changement de langue ultérieur ne fait alors que changer de référence
+ * (voir JfxObservableResourceFactory.switchLocale).
+ *
+ * @author jcstritt
+ */
+public class JfxBundleCache {
+  private static final String BUNDLES_PATH = "resources/bundles/";
+  private static final Map<String, JfxExtResourceBundle> bundles = new ConcurrentHashMap<>();
+  private static final Set<String> views = ConcurrentHashMap.newKeySet();
+  private static volatile Locale[] locales = {Locale.FRENCH, Locale.GERMAN, Locale.ITALIAN, Locale.ENGLISH};
+  private static ExecutorService executor;
+
+  private JfxBundleCache() {
+  }
+
+  /**
+   * Méthode privée qui retourne l'exécuteur (un seul thread) des préchargements.
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "JfxBundles-preloader");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Méthode privée qui construit la clé du cache pour une vue et une langue.
+   */
+  private static String cacheKey(String viewName, Locale locale) {
+    return viewName + "_" + locale.getLanguage();
+  }
+
+  /**
+   * Retourne le paquet de resources d'une vue pour une langue donnée
+   * ("resources/bundles/[viewName]_[langue]"). Il est chargé s'il n'est pas encore dans le cache.
+   *
+   * @param viewName le nom de la vue (sans extension)
+   * @param locale la langue à utiliser
+   * @return un objet JfxExtResourceBundle (nouveau, mais avec les textes partagés)
+   * @throws java.util.MissingResourceException si le paquet de resources est introuvable
+   */
+  public static JfxExtResourceBundle get(String viewName, Locale locale) {
+    views.add(viewName);
+    JfxExtResourceBundle shared = bundles.computeIfAbsent(cacheKey(viewName, locale), name -> {
+      JfxExtResourceBundle extRB = new JfxExtResourceBundle(ResourceBundle.getBundle(BUNDLES_PATH + name));
+      extRB.preload();
+      return extRB;
+    });
+    return new JfxExtResourceBundle(shared);
+  }
+
+  /**
+   * Retourne le paquet de resources d'une vue pour la langue actuelle (Locale.getDefault()).
+   *
+   * @param viewName le nom de la vue (sans extension)
+   * @return un objet JfxExtResourceBundle
+   * @throws java.util.MissingResourceException si le paquet de resources est introuvable
+   */
+  public static JfxExtResourceBundle get(String viewName) {
+    return get(viewName, Locale.getDefault());
+  }
+
+  /**
+   * Définit les langues à charger à l'avance (par défaut : fr, de, it et en).
+   *
+   * @param locales les langues de l'application
+   */
+  public static void setLocales(Locale... locales) {
+    JfxBundleCache.locales = locales.clone();
+  }
+
+  /**
+   * Retourne les langues à charger à l'avance.
+   *
+   * @return un tableau de langues
+   */
+  public static Locale[] getLocales() {
+    return locales.clone();
+  }
+
+  /**
+   * Charge en arrière-plan les paquets de resources de toutes les langues prévues
+   * (voir setLocales), pour les vues spécifiées et pour toutes les vues déjà connues
+   * (déjà chargées une fois). Une langue sans paquet de resources est ignorée.
+   *
+   * @param viewNames des noms de vues à ajouter aux vues connues
+   * @return un CompletableFuture terminé lorsque tous les paquets sont dans le cache
+   */
+  public static CompletableFuture<Void> preload(String... viewNames) {
+    views.addAll(Arrays.asList(viewNames));
+    List<String> names = new ArrayList<>(views);
+    Locale[] locs = locales;
+    return CompletableFuture.runAsync(() -> {
+      for (String viewName : names) {
+        for (Locale locale : locs) {
+          try {
+            get(viewName, locale);
+          } catch (MissingResourceException ex) {
+          }
+        }
+      }
+    }, getExecutor());
+  }
+
+  /**
+   * Indique si le paquet de resources d'une vue pour une langue est déjà dans le cache.
+   *
+   * @param viewName le nom de la vue (sans extension)
+   * @param locale la langue
+   * @return true si le paquet est déjà chargé
+   */
+  public static boolean contains(String viewName, Locale locale) {
+    return bundles.containsKey(cacheKey(viewName, locale));
+  }
+
+  /**
+   * Relit un paquet de resources depuis son fichier (par exemple après une modification).
+   * Les objets déjà retournés gardent les anciens textes.
+   *
+   * @param viewName le nom de la vue (sans extension)
+   * @param locale la langue à relire
+   * @return le nouvel objet JfxExtResourceBundle
+   * @throws java.util.MissingResourceException si le paquet de resources est introuvable
+   */
+  public static JfxExtResourceBundle reload(String viewName, Locale locale) {
+    evict(viewName, locale);
+    ResourceBundle.clearCache(JfxBundleCache.class.getClassLoader());
+    return get(viewName, locale);
+  }
+
+  /**
+   * Retire du cache le paquet de resources d'une vue pour une langue.
+   *
+   * @param viewName le nom de la vue (sans extension)
+   * @param locale la langue à retirer
+   */
+  public static void evict(String viewName, Locale locale) {
+    bundles.remove(cacheKey(viewName, locale));
+  }
+
+  /**
+   * Retire du cache les paquets de resources d'une vue, pour toutes les langues.
+   *
+   * @param viewName le nom de la vue (sans extension)
+   */
+  public static void evict(String viewName) {
+    String prefix = viewName + "_";
+    bundles.keySet().removeIf(key -> key.startsWith(prefix) && key.indexOf('_', prefix.length()) < 0);
+  }
+
+  /**
+   * Vide entièrement le cache.
+   */
+  public static void clear() {
+    bundles.clear();
+  }
+
+  /**
+   * Retourne le nombre de paquets de resources dans le cache.
+   *
+   * @return le nombre de paquets mémorisés
+   */
+  public static int size() {
+    return bundles.size();
+  }
+
+}
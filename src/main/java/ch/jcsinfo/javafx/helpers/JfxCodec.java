@@ -0,0 +1,34 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Interface d'un encodeur/décodeur binaire compact pour un type d'objet mémorisé
+ * avec JfxSettings.setObject (voir JfxCodecRegistry.register).
+ *
+ * @author jcstritt
+ * @param <T> le type des objets encodés
+ */
+public interface JfxCodec<T> {
+
+  /**
+   * Encode un objet dans un flux binaire.
+   *
+   * @param out le flux de sortie
+   * @param value l'objet à encoder (jamais null)
+   * @throws IOException en cas de problème d'écriture
+   */
+  void write(DataOutput out, T value) throws IOException;
+
+  /**
+   * Décode un objet depuis un flux binaire.
+   *
+   * @param in le flux d'entrée
+   * @return l'objet décodé
+   * @throws IOException en cas de problème de lecture
+   */
+  T read(DataInput in) throws IOException;
+
+}
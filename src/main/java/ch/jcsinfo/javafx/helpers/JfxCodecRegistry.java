@@ -0,0 +1,630 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+
+/**
+ * Registre des encodeurs binaires compacts utilisés par JfxSettings.setObject et getObject.
+ * Chaque type connu est identifié par un numéro (tag) d'un octet écrit devant sa valeur.
+ * Les types courants sont pris en charge d'office (types primitifs et leurs tableaux, String,
+ * Rectangle2D, Color, ArrayList, HashMap et LinkedHashMap de ces types). Les autres listes
+ * et maps (immuables, triées...) ne seraient pas relues avec leur classe d'origine et passent
+ * donc par la sérialisation Java. D'autres types peuvent être ajoutés avec
+ * la méthode register. La sérialisation Java n'est utilisée qu'en dernier recours, pour les
+ * objets qu'aucun encodeur ne sait traiter.<br>
+ * <br>
+ * Format : "J", version (1 octet), puis la valeur encodée (tag + données).
+ * Un tableau d'octets issu de la sérialisation Java commence lui par 0xACED,
+ * ce qui permet de relire les valeurs mémorisées avec une ancienne version.
+ *
+ * @author jcstritt
+ */
+public class JfxCodecRegistry {
+  private static final byte MAGIC = 'J';
+  private static final byte VERSION = 1;
+
+  /** premier tag disponible pour les types ajoutés avec la méthode register */
+  public static final int FIRST_USER_TAG = 64;
+
+  private static final int MAX_LENGTH = 1 << 24;
+
+  private static final int NULL = 0;
+  private static final int BOOLEAN = 1;
+  private static final int BYTE = 2;
+  private static final int SHORT = 3;
+  private static final int CHAR = 4;
+  private static final int INT = 5;
+  private static final int LONG = 6;
+  private static final int FLOAT = 7;
+  private static final int DOUBLE = 8;
+  private static final int STRING = 9;
+  private static final int BOOLEAN_ARRAY = 10;
+  private static final int BYTE_ARRAY = 11;
+  private static final int SHORT_ARRAY = 12;
+  private static final int CHAR_ARRAY = 13;
+  private static final int INT_ARRAY = 14;
+  private static final int LONG_ARRAY = 15;
+  private static final int FLOAT_ARRAY = 16;
+  private static final int DOUBLE_ARRAY = 17;
+  private static final int STRING_ARRAY = 18;
+  private static final int RECTANGLE = 19;
+  private static final int COLOR = 20;
+  private static final int LIST = 21;
+  private static final int MAP = 22;
+
+  private static final JfxCodec<?>[] codecs = new JfxCodec<?>[256];
+  private static final Map<Class<?>, Integer> tags = new ConcurrentHashMap<>();
+
+  static {
+    add(BOOLEAN, Boolean.class, new JfxCodec<Boolean>() {
+      @Override
+      public void write(DataOutput out, Boolean value) throws IOException {
+        out.writeBoolean(value);
+      }
+
+      @Override
+      public Boolean read(DataInput in) throws IOException {
+        return in.readBoolean();
+      }
+    });
+    add(BYTE, Byte.class, new JfxCodec<Byte>() {
+      @Override
+      public void write(DataOutput out, Byte value) throws IOException {
+        out.writeByte(value);
+      }
+
+      @Override
+      public Byte read(DataInput in) throws IOException {
+        return in.readByte();
+      }
+    });
+    add(SHORT, Short.class, new JfxCodec<Short>() {
+      @Override
+      public void write(DataOutput out, Short value) throws IOException {
+        out.writeShort(value);
+      }
+
+      @Override
+      public Short read(DataInput in) throws IOException {
+        return in.readShort();
+      }
+    });
+    add(CHAR, Character.class, new JfxCodec<Character>() {
+      @Override
+      public void write(DataOutput out, Character value) throws IOException {
+        out.writeChar(value);
+      }
+
+      @Override
+      public Character read(DataInput in) throws IOException {
+        return in.readChar();
+      }
+    });
+    add(INT, Integer.class, new JfxCodec<Integer>() {
+      @Override
+      public void write(DataOutput out, Integer value) throws IOException {
+        writeVarInt(out, value);
+      }
+
+      @Override
+      public Integer read(DataInput in) throws IOException {
+        return readVarInt(in);
+      }
+    });
+    add(LONG, Long.class, new JfxCodec<Long>() {
+      @Override
+      public void write(DataOutput out, Long value) throws IOException {
+        out.writeLong(value);
+      }
+
+      @Override
+      public Long read(DataInput in) throws IOException {
+        return in.readLong();
+      }
+    });
+    add(FLOAT, Float.class, new JfxCodec<Float>() {
+      @Override
+      public void write(DataOutput out, Float value) throws IOException {
+        out.writeFloat(value);
+      }
+
+      @Override
+      public Float read(DataInput in) throws IOException {
+        return in.readFloat();
+      }
+    });
+    add(DOUBLE, Double.class, new JfxCodec<Double>() {
+      @Override
+      public void write(DataOutput out, Double value) throws IOException {
+        out.writeDouble(value);
+      }
+
+      @Override
+      public Double read(DataInput in) throws IOException {
+        return in.readDouble();
+      }
+    });
+    add(STRING, String.class, new JfxCodec<String>() {
+      @Override
+      public void write(DataOutput out, String value) throws IOException {
+        writeString(out, value);
+      }
+
+      @Override
+      public String read(DataInput in) throws IOException {
+        return readString(in);
+      }
+    });
+    add(BOOLEAN_ARRAY, boolean[].class, new JfxCodec<boolean[]>() {
+      @Override
+      public void write(DataOutput out, boolean[] value) throws IOException {
+        writeVarInt(out, value.length);
+        for (boolean v : value) {
+          out.writeBoolean(v);
+        }
+      }
+
+      @Override
+      public boolean[] read(DataInput in) throws IOException {
+        boolean[] value = new boolean[readLength(in)];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = in.readBoolean();
+        }
+        return value;
+      }
+    });
+    add(BYTE_ARRAY, byte[].class, new JfxCodec<byte[]>() {
+      @Override
+      public void write(DataOutput out, byte[] value) throws IOException {
+        writeVarInt(out, value.length);
+        out.write(value);
+      }
+
+      @Override
+      public byte[] read(DataInput in) throws IOException {
+        byte[] value = new byte[readLength(in)];
+        in.readFully(value);
+        return value;
+      }
+    });
+    add(SHORT_ARRAY, short[].class, new JfxCodec<short[]>() {
+      @Override
+      public void write(DataOutput out, short[] value) throws IOException {
+        writeVarInt(out, value.length);
+        for (short v : value) {
+          out.writeShort(v);
+        }
+      }
+
+      @Override
+      public short[] read(DataInput in) throws IOException {
+        short[] value = new short[readLength(in)];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = in.readShort();
+        }
+        return value;
+      }
+    });
+    add(CHAR_ARRAY, char[].class, new JfxCodec<char[]>() {
+      @Override
+      public void write(DataOutput out, char[] value) throws IOException {
+        writeVarInt(out, value.length);
+        for (char v : value) {
+          out.writeChar(v);
+        }
+      }
+
+      @Override
+      public char[] read(DataInput in) throws IOException {
+        char[] value = new char[readLength(in)];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = in.readChar();
+        }
+        return value;
+      }
+    });
+    add(INT_ARRAY, int[].class, new JfxCodec<int[]>() {
+      @Override
+      public void write(DataOutput out, int[] value) throws IOException {
+        writeVarInt(out, value.length);
+        for (int v : value) {
+          writeVarInt(out, v);
+        }
+      }
+
+      @Override
+      public int[] read(DataInput in) throws IOException {
+        int[] value = new int[readLength(in)];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = readVarInt(in);
+        }
+        return value;
+      }
+    });
+    add(LONG_ARRAY, long[].class, new JfxCodec<long[]>() {
+      @Override
+      public void write(DataOutput out, long[] value) throws IOException {
+        writeVarInt(out, value.length);
+        for (long v : value) {
+          out.writeLong(v);
+        }
+      }
+
+      @Override
+      public long[] read(DataInput in) throws IOException {
+        long[] value = new long[readLength(in)];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = in.readLong();
+        }
+        return value;
+      }
+    });
+    add(FLOAT_ARRAY, float[].class, new JfxCodec<float[]>() {
+      @Override
+      public void write(DataOutput out, float[] value) throws IOException {
+        writeVarInt(out, value.length);
+        for (float v : value) {
+          out.writeFloat(v);
+        }
+      }
+
+      @Override
+      public float[] read(DataInput in) throws IOException {
+        float[] value = new float[readLength(in)];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = in.readFloat();
+        }
+        return value;
+      }
+    });
+    add(DOUBLE_ARRAY, double[].class, new JfxCodec<double[]>() {
+      @Override
+      public void write(DataOutput out, double[] value) throws IOException {
+        writeVarInt(out, value.length);
+        for (double v : value) {
+          out.writeDouble(v);
+        }
+      }
+
+      @Override
+      public double[] read(DataInput in) throws IOException {
+        double[] value = new double[readLength(in)];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = in.readDouble();
+        }
+        return value;
+      }
+    });
+    add(STRING_ARRAY, String[].class, new JfxCodec<String[]>() {
+      @Override
+      public void write(DataOutput out, String[] value) throws IOException {
+        writeVarInt(out, value.length);
+        for (String v : value) {
+          writeValue(out, v);
+        }
+      }
+
+      @Override
+      public String[] read(DataInput in) throws IOException {
+        String[] value = new String[readLength(in)];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = (String) readValue(in);
+        }
+        return value;
+      }
+    });
+    add(RECTANGLE, Rectangle2D.class, new JfxCodec<Rectangle2D>() {
+      @Override
+      public void write(DataOutput out, Rectangle2D value) throws IOException {
+        out.writeDouble(value.getMinX());
+        out.writeDouble(value.getMinY());
+        out.writeDouble(value.getWidth());
+        out.writeDouble(value.getHeight());
+      }
+
+      @Override
+      public Rectangle2D read(DataInput in) throws IOException {
+        return new Rectangle2D(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+      }
+    });
+    add(COLOR, Color.class, new JfxCodec<Color>() {
+      @Override
+      public void write(DataOutput out, Color value) throws IOException {
+        out.writeDouble(value.getRed());
+        out.writeDouble(value.getGreen());
+        out.writeDouble(value.getBlue());
+        out.writeDouble(value.getOpacity());
+      }
+
+      @Override
+      public Color read(DataInput in) throws IOException {
+        return Color.color(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+      }
+    });
+    codecs[LIST] = new JfxCodec<List<?>>() {
+      @Override
+      public void write(DataOutput out, List<?> value) throws IOException {
+        writeVarInt(out, value.size());
+        for (Object v : value) {
+          writeValue(out, v);
+        }
+      }
+
+      @Override
+      public List<?> read(DataInput in) throws IOException {
+        int size = readLength(in);
+        List<Object> value = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          value.add(readValue(in));
+        }
+        return value;
+      }
+    };
+    codecs[MAP] = new JfxCodec<Map<?, ?>>() {
+      @Override
+      public void write(DataOutput out, Map<?, ?> value) throws IOException {
+        writeVarInt(out, value.size());
+        for (Map.Entry<?, ?> e : value.entrySet()) {
+          writeValue(out, e.getKey());
+          writeValue(out, e.getValue());
+        }
+      }
+
+      @Override
+      public Map<?, ?> read(DataInput in) throws IOException {
+        int size = readLength(in);
+        Map<Object, Object> value = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+          value.put(readValue(in), readValue(in));
+        }
+        return value;
+      }
+    };
+    tags.put(ArrayList.class, LIST);
+    tags.put(LinkedHashMap.class, MAP);
+    tags.put(HashMap.class, MAP);
+  }
+
+  /**
+   * Méthode privée pour enregistrer un encodeur prédéfini.
+   *
+   * @param tag le numéro qui identifie le type
+   * @param type la classe des objets encodés
+   * @param codec l'encodeur
+   */
+  private static <T> void add(int tag, Class<T> type, JfxCodec<T> codec) {
+    codecs[tag] = codec;
+    tags.put(type, tag);
+  }
+
+  /**
+   * Enregistre un encodeur pour un type propre à l'application. Le numéro (tag) est
+   * mémorisé avec chaque valeur et doit donc rester le même d'une version à l'autre.
+   * Les encodeurs doivent être enregistrés au démarrage de l'application, avant toute lecture.
+   *
+   * @param <T> le type des objets encodés
+   * @param tag un numéro entre FIRST_USER_TAG (64) et 255
+   * @param type la classe exacte des objets encodés
+   * @param codec l'encodeur pour ce type
+   * @throws IllegalArgumentException si le numéro est invalide ou déjà utilisé, ou si le type est déjà enregistré
+   */
+  public static synchronized <T> void register(int tag, Class<T> type, JfxCodec<T> codec) {
+    if (tag < FIRST_USER_TAG || tag > 255) {
+      throw new IllegalArgumentException("Invalid codec tag: " + tag);
+    }
+    if (codecs[tag] != null || tags.containsKey(type)) {
+      throw new IllegalArgumentException("Codec tag " + tag + " or type " + type.getName() + " already registered");
+    }
+    add(tag, type, codec);
+  }
+
+  /**
+   * Méthode privée qui retourne le tag d'un objet ou -1 si aucun encodeur ne le connaît.
+   *
+   * @param value un objet (non null)
+   * @return le tag trouvé ou -1
+   */
+  private static int getTag(Object value) {
+    Integer tag = tags.get(value.getClass());
+    return (tag != null) ? tag : -1;
+  }
+
+  /**
+   * Encode un objet quelconque (précédé de son tag) dans un flux binaire.
+   * Permet aux encodeurs de l'application d'encoder des objets imbriqués.
+   *
+   * @param out le flux de sortie
+   * @param value l'objet à encoder (peut être null)
+   * @throws NotSerializableException si aucun encodeur ne connaît le type de cet objet
+   * @throws IOException en cas de problème d'écriture
+   */
+  @SuppressWarnings("unchecked")
+  public static void writeValue(DataOutput out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+      return;
+    }
+    int tag = getTag(value);
+    if (tag < 0) {
+      throw new NotSerializableException(value.getClass().getName());
+    }
+    out.writeByte(tag);
+    ((JfxCodec<Object>) codecs[tag]).write(out, value);
+  }
+
+  /**
+   * Décode un objet quelconque (précédé de son tag) depuis un flux binaire.
+   *
+   * @param in le flux d'entrée
+   * @return l'objet décodé (ou null)
+   * @throws StreamCorruptedException si le tag lu est inconnu
+   * @throws IOException en cas de problème de lecture
+   */
+  public static Object readValue(DataInput in) throws IOException {
+    int tag = in.readUnsignedByte();
+    if (tag == NULL) {
+      return null;
+    }
+    JfxCodec<?> codec = codecs[tag];
+    if (codec == null) {
+      throw new StreamCorruptedException("Unknown codec tag: " + tag);
+    }
+    return codec.read(in);
+  }
+
+  /**
+   * Encode un String en UTF-8, précédé de sa longueur.
+   *
+   * @param out le flux de sortie
+   * @param value le String à encoder
+   * @throws IOException en cas de problème d'écriture
+   */
+  public static void writeString(DataOutput out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Décode un String encodé avec writeString.
+   *
+   * @param in le flux d'entrée
+   * @return le String décodé
+   * @throws IOException en cas de problème de lecture
+   */
+  public static String readString(DataInput in) throws IOException {
+    byte[] bytes = new byte[readLength(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Encode un entier sur 1 à 5 octets (les petites valeurs, positives
+   * ou négatives, prennent moins de place).
+   *
+   * @param out le flux de sortie
+   * @param value l'entier à encoder
+   * @throws IOException en cas de problème d'écriture
+   */
+  public static void writeVarInt(DataOutput out, int value) throws IOException {
+    int v = (value << 1) ^ (value >> 31);
+    while ((v & ~0x7F) != 0) {
+      out.writeByte((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte(v);
+  }
+
+  /**
+   * Décode un entier encodé avec writeVarInt.
+   *
+   * @param in le flux d'entrée
+   * @return l'entier décodé
+   * @throws IOException en cas de problème de lecture
+   */
+  public static int readVarInt(DataInput in) throws IOException {
+    int v = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      v |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (v >>> 1) ^ -(v & 1);
+      }
+    }
+    throw new StreamCorruptedException("Malformed variable-length integer");
+  }
+
+  /**
+   * Méthode privée qui décode une longueur de tableau ou de liste. Chaque élément occupe
+   * au moins un octet : une longueur plus grande que le reste des octets à décoder (ou que
+   * MAX_LENGTH pour un flux dont la taille est inconnue) indique des données corrompues,
+   * qui sont refusées avant d'allouer le tableau.
+   *
+   * @param in le flux d'entrée
+   * @return la longueur (positive)
+   * @throws IOException en cas de problème de lecture ou de longueur invalide
+   */
+  private static int readLength(DataInput in) throws IOException {
+    int len = readVarInt(in);
+    if (len < 0) {
+      throw new StreamCorruptedException("Negative length: " + len);
+    }
+    int max = (in instanceof BytesInput) ? ((BytesInput) in).available() : MAX_LENGTH;
+    if (len > max) {
+      throw new StreamCorruptedException("Length too large: " + len);
+    }
+    return len;
+  }
+
+  /**
+   * Encode un objet dans un tableau d'octets. Si aucun encodeur ne connaît le type de
+   * l'objet (ou d'un objet qu'il contient), c'est la sérialisation Java qui est utilisée.
+   *
+   * @param value l'objet à encoder
+   * @return le tableau d'octets
+   * @throws IOException si l'objet ne peut pas être encodé (ni sérialisé)
+   */
+  public static byte[] encode(Object value) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(64);
+    try {
+      DataOutputStream out = new DataOutputStream(os);
+      out.writeByte(MAGIC);
+      out.writeByte(VERSION);
+      writeValue(out, value);
+      out.flush();
+    } catch (NotSerializableException ex) {
+      os.reset();
+      try (ObjectOutputStream out = new ObjectOutputStream(os)) {
+        out.writeObject(value);
+      }
+    }
+    return os.toByteArray();
+  }
+
+  /**
+   * Décode un objet depuis un tableau d'octets obtenu avec la méthode encode
+   * (ou directement avec la sérialisation Java).
+   *
+   * @param bytes le tableau d'octets
+   * @return l'objet décodé
+   * @throws IOException si les octets ne peuvent pas être décodés
+   * @throws ClassNotFoundException si la classe d'un objet sérialisé est introuvable
+   */
+  public static Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+    if (bytes.length >= 2 && bytes[0] == MAGIC && bytes[1] == VERSION) {
+      return readValue(new BytesInput(bytes));
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return in.readObject();
+    }
+  }
+
+  /**
+   * Flux de décodage d'un tableau d'octets, dont le nombre d'octets restants est connu.
+   */
+  private static class BytesInput extends DataInputStream {
+
+    BytesInput(byte[] bytes) {
+      super(new ByteArrayInputStream(bytes, 2, bytes.length - 2));
+    }
+  }
+
+}
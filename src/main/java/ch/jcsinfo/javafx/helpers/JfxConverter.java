@@ -1,30 +1,98 @@
 package ch.jcsinfo.javafx.helpers;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
-import javafx.scene.text.FontPosture;
-import javafx.scene.text.FontWeight;
 
 /**
  * Depuis des valeurs String de paramètres de l'application (AppSettings),
- * retourne les objets correspondants.
+ * retourne les objets correspondants.<br>
+ * <br>
+ * Les descriptions sont décodées en un seul passage, sans objets intermédiaires
+ * (voir JfxSpecParser). Un registre de convertisseurs indexé par le type visé
+ * permet en plus une conversion générique (voir convert et JfxSettings.get).
  *
  * @author jcstritt
  */
 public class JfxConverter {
+  private static final int CACHE_SIZE = 256;
+  private static final JfxInternCache<Font> fontCache = new JfxInternCache<>(CACHE_SIZE, JfxSpecParser::parseFont);
+  private static final JfxInternCache<Color> colorCache = new JfxInternCache<>(CACHE_SIZE, JfxSpecParser::parseColor);
+  private static final Map<Class<?>, Function<String, ?>> converters = new ConcurrentHashMap<>();
+
+  static {
+    register(String.class, s -> s);
+    register(Integer.class, JfxConverter::getInt);
+    register(int.class, JfxConverter::getInt);
+    register(Long.class, JfxConverter::getLong);
+    register(long.class, JfxConverter::getLong);
+    register(Float.class, JfxConverter::getFloat);
+    register(float.class, JfxConverter::getFloat);
+    register(Double.class, JfxConverter::getDouble);
+    register(double.class, JfxConverter::getDouble);
+    register(Boolean.class, JfxConverter::getBoolean);
+    register(boolean.class, JfxConverter::getBoolean);
+    register(JfxLabelPosEnum.class, JfxConverter::getPos);
+    register(Font.class, JfxConverter::getFont);
+    register(Color.class, JfxConverter::getColor);
+  }
 
   /**
    * Convertit une valeur String en entier.
    *
    * @param value une valeur de type String
-   * @return une valeur de type entier
+   * @return une valeur de type entier (0 si la valeur n'est pas un entier)
    */
   public static int getInt(String value) {
-    int result;
+    return JfxSpecParser.parseInt(value, 0);
+  }
+
+  /**
+   * Convertit une valeur String en entier long.
+   *
+   * @param value une valeur de type String
+   * @return une valeur de type long
+   */
+  public static long getLong(String value) {
+    long result;
+    try {
+      result = JfxNumberFormat.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      result = 0L;
+    }
+    return result;
+  }
+
+  /**
+   * Convertit une valeur String en nombre réel de type "float".
+   *
+   * @param value une valeur de type String (ex: "0.714")
+   * @return une valeur de type float
+   */
+  public static float getFloat(String value) {
+    float result;
+    try {
+      result = JfxNumberFormat.parseFloat(value.trim());
+    } catch (NumberFormatException e) {
+      result = 0f;
+    }
+    return result;
+  }
+
+  /**
+   * Convertit une valeur String en nombre réel de type "double".
+   *
+   * @param value une valeur de type String (ex: "3.1416")
+   * @return une valeur de type double
+   */
+  public static double getDouble(String value) {
+    double result;
     try {
-      result = Integer.parseInt(value.trim());
+      result = JfxNumberFormat.parseDouble(value.trim());
     } catch (NumberFormatException e) {
-      result = 0;
+      result = 0d;
     }
     return result;
   }
@@ -37,7 +105,7 @@ public class JfxConverter {
    * @return un boolean TRUE ou FALSE
    */
   public static boolean getBoolean(String value) {
-    return value.equalsIgnoreCase("true");
+    return JfxSpecParser.parseBoolean(value);
   }
 
   /**
@@ -48,58 +116,82 @@ public class JfxConverter {
    * @return un objet correspondant de type JfxLabelPosEnum
    */
   public static JfxLabelPosEnum getPos(String value) {
-    JfxLabelPosEnum pos = JfxLabelPosEnum.MIDDLE_CENTER;
-    if (!value.isEmpty()) {
-      pos = JfxLabelPosEnum.getEnum(value);
-    }
-    return pos;
+    return JfxSpecParser.parsePosition(value);
   }
 
   /**
    * Convertit une valeur de type String contenant une police
    * de caractères (font) en un objet correspondant de type "Font".
+   * Une taille invalide est remplacée par la taille par défaut (10).
+   * Pour une même valeur, c'est le même objet qui est retourné (voir getFontCache).
    *
    * @param value une valeur de police de type String (ex: "Comic Sans MS-ITALIC-20")
    * @return un objet de type Font
    */
   public static Font getFont(String value) {
-    Font font = new Font("Arial", 12);
-    if (!value.isEmpty()) {
-      int size = 10;
-      String[] t = value.split("-");
-      String name = t[0].trim();
-      FontPosture posture = FontPosture.REGULAR; // Font.PLAIN;
-      FontWeight weight = FontWeight.NORMAL; // Font.PLAIN;
-
-      if (t.length >= 2) {
-        t[1] = t[1].trim();
-        if (t[1].equalsIgnoreCase("italic")) {
-          posture = FontPosture.ITALIC; // Font.ITALIC;
-        } else if (t[1].equalsIgnoreCase("bold")) {
-          weight = FontWeight.BOLD; // Font.BOLD;
-        }
-      }
-      if (t.length >= 3) {
-        size = Integer.parseInt(t[2].trim());
-      }
-      font = Font.font(name, weight, posture, size);
-    }
-    return font;
+    return fontCache.get(value);
   }
 
   /**
    * Convertit une valeur de type String contenant une valeur 
    * de couleur en un objet correspondant de type "Color".
+   * Pour une même valeur, c'est le même objet qui est retourné (voir getColorCache).
    *
    * @param value une valeur de couleur de type String (ex: "#fafad2")
    * @return un objet de type Color
    */  
   public static Color getColor(String value) {
-    Color color = Color.AQUAMARINE;
-    if (!value.isEmpty()) {
-      color = Color.web(value); // Color.decode(s);
+    return colorCache.get(value);
+  }
+
+  /**
+   * Retourne le cache des polices de caractères (compteurs de succès et d'échecs).
+   *
+   * @return le cache des polices
+   */
+  public static JfxInternCache<Font> getFontCache() {
+    return fontCache;
+  }
+
+  /**
+   * Retourne le cache des couleurs (compteurs de succès et d'échecs).
+   *
+   * @return le cache des couleurs
+   */
+  public static JfxInternCache<Color> getColorCache() {
+    return colorCache;
+  }
+
+
+
+  /**
+   * Enregistre (ou remplace) le convertisseur d'un type de valeur.
+   *
+   * @param <T> le type des valeurs converties
+   * @param type la classe des valeurs converties (ex: Font.class)
+   * @param converter la fonction qui convertit une valeur String en un objet de ce type
+   */
+  public static <T> void register(Class<T> type, Function<String, T> converter) {
+    converters.put(type, converter);
+  }
+
+  /**
+   * Convertit une valeur String en un objet du type spécifié, avec le convertisseur
+   * enregistré pour ce type. Les polices et les couleurs proviennent des caches.
+   *
+   * @param <T> le type de l'objet retourné
+   * @param value une valeur de type String
+   * @param type la classe de l'objet retourné (ex: Font.class, int.class)
+   * @return un objet du type spécifié
+   * @throws IllegalArgumentException si aucun convertisseur n'est enregistré pour ce type
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T convert(String value, Class<T> type) {
+    Function<String, ?> converter = converters.get(type);
+    if (converter == null) {
+      throw new IllegalArgumentException("No converter for type " + type.getName());
     }
-    return color;
+    return (T) converter.apply(value);
   }
 
 }
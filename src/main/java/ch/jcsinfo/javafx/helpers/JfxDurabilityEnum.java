@@ -0,0 +1,30 @@
+package ch.jcsinfo.javafx.helpers;
+
+/**
+ * Niveaux de durabilité pour l'écriture des préférences de l'application
+ * (voir JfxSettings.setDurability) :
+ *
+ * NONE  : les écritures restent en mémoire et ne sont transmises au stockage
+ *         que lors d'un appel à flush() ou à l'arrêt de la JVM ;
+ * ASYNC : les écritures sont regroupées en mémoire puis transmises en un seul
+ *         lot par un thread d'arrière-plan après un intervalle configurable ;
+ * SYNC  : chaque écriture est transmise immédiatement au stockage (défaut).
+ *
+ * @author jcstritt
+ */
+public enum JfxDurabilityEnum {
+  NONE,
+  ASYNC,
+  SYNC;
+
+  /**
+   * Retourne vrai (true) si les écritures sont retenues en mémoire
+   * avant d'être transmises au stockage.
+   *
+   * @return true pour les modes NONE et ASYNC
+   */
+  public boolean isBuffered() {
+    return this != SYNC;
+  }
+
+}
@@ -0,0 +1,283 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Préférences de l'application identifiées par une énumération (clés typées).
+ * Toutes les préférences de l'énumération sont lues une seule fois, puis gardées
+ * en mémoire déjà converties, dans des tableaux de types primitifs indexés par
+ * ordinal(). Lire un entier ou un réel revient ainsi à lire une case de tableau,
+ * sans construire de String, ni chercher une clé, ni convertir la valeur.<br>
+ * <br>
+ * Les écritures passent par le contexte des préférences (et donc par le stockage permanent habituel).
+ * Toute modification d'une préférence de l'énumération, d'où qu'elle vienne, met
+ * à jour les tableaux.<br>
+ * <br>
+ * Exemple :<br>
+ * private static final JfxEnumSettings&lt;Pref&gt; PREFS = new JfxEnumSettings&lt;&gt;(Pref.class);<br>
+ * int width = PREFS.getInt(Pref.WIDTH);
+ *
+ * @param <E> le type de l'énumération des préférences
+ * @author jcstritt
+ */
+public class JfxEnumSettings<E extends Enum<E>> {
+  private final JfxSettingsContext context;
+  private final Class<E> enumClass;
+  private final String[] keys;
+  private final Map<String, Integer> ordinals;
+  private final Consumer<String> changeListener;
+  private volatile Slots slots;
+
+  /**
+   * Constructeur. Lit immédiatement toutes les préférences de l'énumération
+   * dans le contexte des préférences par défaut (voir JfxSettings.getDefault).
+   *
+   * @param enumClass la classe de l'énumération des préférences
+   */
+  public JfxEnumSettings(Class<E> enumClass) {
+    this(enumClass, JfxSettings.getDefault());
+  }
+
+  /**
+   * Constructeur. Lit immédiatement toutes les préférences de l'énumération
+   * dans le contexte des préférences donné.
+   *
+   * @param enumClass la classe de l'énumération des préférences
+   * @param context le contexte des préférences
+   */
+  public JfxEnumSettings(Class<E> enumClass, JfxSettingsContext context) {
+    this.context = context;
+    this.enumClass = enumClass;
+    E[] constants = enumClass.getEnumConstants();
+    int n = constants.length;
+    this.keys = new String[n];
+    this.ordinals = new HashMap<>();
+    for (E e : constants) {
+      keys[e.ordinal()] = e.toString();
+      ordinals.put(e.toString(), e.ordinal());
+    }
+    this.changeListener = this::changed;
+    context.addChangeListener(changeListener);
+    reload();
+  }
+
+  /**
+   * Retourne la classe de l'énumération des préférences.
+   *
+   * @return la classe de l'énumération
+   */
+  public Class<E> getEnumClass() {
+    return enumClass;
+  }
+
+  /**
+   * Relit toutes les préférences de l'énumération d'un seul coup (état cohérent).
+   */
+  public final synchronized void reload() {
+    String[] all = context.getValues((Object[]) keys);
+    Slots next = new Slots(all.length);
+    for (int i = 0; i < all.length; i++) {
+      next.convert(i, all[i]);
+    }
+    slots = next;
+  }
+
+  /**
+   * Détache ces préférences de leur contexte. Les valeurs ne sont alors plus mises à jour.
+   */
+  public void close() {
+    context.removeChangeListener(changeListener);
+  }
+
+  /**
+   * Méthode privée qui met à jour une préférence lorsque sa valeur a changé.
+   *
+   * @param key la clé modifiée ou null pour toutes les clés
+   */
+  private void changed(String key) {
+    if (key == null) {
+      reload();
+    } else {
+      Integer idx = ordinals.get(key);
+      if (idx != null) {
+        synchronized (this) {
+          Slots next = new Slots(slots);
+          next.convert(idx, context.getValue(key));
+          slots = next;
+        }
+      }
+    }
+  }
+
+  /**
+   * Récupère une valeur de préférence.
+   *
+   * @param pref une préférence de l'énumération
+   * @return la valeur de la préférence sous la forme d'un String
+   */
+  public String getValue(E pref) {
+    return slots.values[pref.ordinal()];
+  }
+
+  /**
+   * Mémorise une valeur de préférence.
+   *
+   * @param pref une préférence de l'énumération
+   * @param value une valeur String à mémoriser
+   */
+  public void setValue(E pref, String value) {
+    context.setValue(keys[pref.ordinal()], value);
+  }
+
+  /**
+   * Récupère une valeur de préférence de type "boolean".
+   *
+   * @param pref une préférence de l'énumération
+   * @return true si la valeur de cette préférence est "true"
+   */
+  public boolean getBoolean(E pref) {
+    return slots.booleans[pref.ordinal()];
+  }
+
+  /**
+   * Mémorise une valeur de préférence de type "boolean".
+   *
+   * @param pref une préférence de l'énumération
+   * @param value une valeur booléenne à mémoriser
+   */
+  public void setBoolean(E pref, boolean value) {
+    context.setBoolean(keys[pref.ordinal()], value);
+  }
+
+  /**
+   * Récupère une valeur de préférence de type "int" (Integer).
+   * Si la préférence ne peut être lue, 0 est retournée.
+   *
+   * @param pref une préférence de l'énumération
+   * @return la valeur de cette préférence
+   */
+  public int getInt(E pref) {
+    return slots.ints[pref.ordinal()];
+  }
+
+  /**
+   * Mémorise une valeur de type int (Integer).
+   *
+   * @param pref une préférence de l'énumération
+   * @param value une valeur de type Integer à mémoriser
+   */
+  public void setInt(E pref, int value) {
+    context.setInt(keys[pref.ordinal()], value);
+  }
+
+  /**
+   * Récupère une valeur de préférence de type "long" (Long Integer).
+   * Si la préférence ne peut être lue, 0 est retournée.
+   *
+   * @param pref une préférence de l'énumération
+   * @return la valeur de cette préférence
+   */
+  public long getLong(E pref) {
+    return slots.longs[pref.ordinal()];
+  }
+
+  /**
+   * Mémorise une valeur de type long (Long Integer).
+   *
+   * @param pref une préférence de l'énumération
+   * @param value une valeur de type Long à mémoriser
+   */
+  public void setLong(E pref, long value) {
+    context.setLong(keys[pref.ordinal()], value);
+  }
+
+  /**
+   * Récupère une valeur de préférence de type "float".
+   * Si la préférence ne peut être lue, 0 est retournée.
+   *
+   * @param pref une préférence de l'énumération
+   * @return la valeur de cette préférence
+   */
+  public float getFloat(E pref) {
+    return slots.floats[pref.ordinal()];
+  }
+
+  /**
+   * Mémorise une valeur de type "float".
+   *
+   * @param pref une préférence de l'énumération
+   * @param value une valeur de type "float" à mémoriser
+   * @param nbOfDecs nombre de decimales à mémoriser
+   */
+  public void setFloat(E pref, float value, int nbOfDecs) {
+    context.setFloat(keys[pref.ordinal()], value, nbOfDecs);
+  }
+
+  /**
+   * Récupère une valeur de préférence de type "double".
+   * Si la préférence ne peut être lue, 0 est retournée.
+   *
+   * @param pref une préférence de l'énumération
+   * @return la valeur de cette préférence
+   */
+  public double getDouble(E pref) {
+    return slots.doubles[pref.ordinal()];
+  }
+
+  /**
+   * Mémorise une valeur de type "double".
+   *
+   * @param pref une préférence de l'énumération
+   * @param value une valeur de type "double" à mémoriser
+   * @param nbOfDecs nombre de decimales à mémoriser
+   */
+  public void setDouble(E pref, double value, int nbOfDecs) {
+    context.setDouble(keys[pref.ordinal()], value, nbOfDecs);
+  }
+
+
+
+  /**
+   * Classe privée qui regroupe les valeurs déjà converties, indexées par ordinal().
+   * Les tableaux ne sont jamais modifiés une fois publiés : une mise à jour crée une
+   * copie, ce qui garantit aux lectures (sans verrou) un état toujours complet.
+   */
+  private static class Slots {
+    private final String[] values;
+    private final boolean[] booleans;
+    private final int[] ints;
+    private final long[] longs;
+    private final float[] floats;
+    private final double[] doubles;
+
+    Slots(int n) {
+      values = new String[n];
+      booleans = new boolean[n];
+      ints = new int[n];
+      longs = new long[n];
+      floats = new float[n];
+      doubles = new double[n];
+    }
+
+    Slots(Slots other) {
+      values = other.values.clone();
+      booleans = other.booleans.clone();
+      ints = other.ints.clone();
+      longs = other.longs.clone();
+      floats = other.floats.clone();
+      doubles = other.doubles.clone();
+    }
+
+    void convert(int idx, String value) {
+      values[idx] = value;
+      booleans[idx] = value.equalsIgnoreCase("true");
+      ints[idx] = JfxConverter.getInt(value);
+      longs[idx] = JfxConverter.getLong(value);
+      floats[idx] = JfxConverter.getFloat(value);
+      doubles[idx] = JfxConverter.getDouble(value);
+    }
+  }
+
+}
@@ -6,32 +6,49 @@ import java.util.Locale;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.image.Image;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.StackPane;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import javafx.stage.Window;
 
 /**
- * Chargement d'une vue (fichier fxml), de son contrôleur et du fichier de resources lié.
+ * Chargement d'une vue (fichier fxml), de son contrôleur et du fichier de resources lié.<br>
+ * <br>
+ * Une vue peut aussi être chargée en arrière-plan (voir loadAsync et displayViewAsync) :
+ * le fichier FXML est lu et le graphe de la vue est construit dans un thread séparé,
+ * et seule la fin (affichage) se passe dans le thread de JavaFX. Une vue qui ne peut être
+ * construite que dans le thread de JavaFX (WebView, contrôleur qui crée un Stage...)
+ * y est automatiquement rechargée.
  *
  * @author jcstritt
  * @param <T> le type du contrôleur
  * @see <a href="http://xebia.developpez.com/tutoriels/java/concepts-javafx-illustration-exemple/">Tutoriel</a>
  */
 public class JfxExtLoader<T> {
+  private static final String FX_THREAD_ERROR = "Not on FX application thread";
+  private static ExecutorService executor;
+
   private String exMessage;
   private String viewName;
   private Parent view;
   private T ctrl;
   private JfxExtResourceBundle extRB;
+  private Locale locale;
+  private boolean pooled;
 
   /**
    * Constructeur.
@@ -47,30 +64,146 @@ public class JfxExtLoader<T> {
   }
 
   /**
-   * Charge le fichier FXML avec son contrôleur.
+   * Constructeur privé qui ne charge pas encore la vue (voir loadAsync).
+   *
+   * @param viewName le nom de la vue (sans l'extension .fxml ou autre)
+   * @param load true pour charger la vue immédiatement
+   */
+  private JfxExtLoader(String viewName, boolean load) {
+    this.viewName = viewName;
+    this.exMessage = "";
+    if (load) {
+      loadFxml();
+    }
+  }
+
+  /**
+   * Méthode privée qui retourne l'exécuteur (un seul thread) des chargements en arrière-plan.
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "JfxExtLoader-worker");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Méthode privée qui exécute une tâche dans le thread de JavaFX
+   * (ou directement si JavaFX n'est pas démarré).
+   *
+   * @param task la tâche à exécuter
+   */
+  private static void runOnFxThread(Runnable task) {
+    try {
+      Platform.runLater(task);
+    } catch (IllegalStateException ex) {
+      task.run();
+    }
+  }
+
+  /**
+   * Charge une vue en arrière-plan : le paquet de resources, le fichier FXML et le
+   * contrôleur sont chargés dans un thread séparé. Le résultat est ensuite transmis
+   * dans le thread de JavaFX (il suffit d'y ajouter la suite avec thenAccept).
+   * En cas de problème, le chargeur retourné a une erreur (voir hasError).
+   *
+   * @param <T> le type du contrôleur
+   * @param viewName le nom de la vue (sans l'extension .fxml ou autre)
+   * @return un CompletableFuture avec le chargeur de la vue
+   */
+  public static <T> CompletableFuture<JfxExtLoader<T>> loadAsync(String viewName) {
+    return new JfxExtLoader<T>(viewName, false).loadLater();
+  }
+
+  /**
+   * Méthode privée qui charge la vue en arrière-plan, puis termine dans le thread de JavaFX.
+   * Si la vue refuse d'être construite hors du thread de JavaFX (contrôle du thread par
+   * JavaFX), elle y est rechargée. Toute autre erreur est signalée (voir hasError).
+   *
+   * @return un CompletableFuture avec ce chargeur
+   */
+  private CompletableFuture<JfxExtLoader<T>> loadLater() {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        readFxml();
+      } catch (MissingResourceException | IllegalStateException | IOException ex) {
+        if (isFxThreadRequired(ex)) {
+          return false;
+        }
+        ex.printStackTrace();
+        exMessage = String.valueOf(ex.getLocalizedMessage());
+      } catch (RuntimeException ex) {
+        ex.printStackTrace();
+        exMessage = String.valueOf(ex.getLocalizedMessage());
+      }
+      return true;
+    }, getExecutor()).thenApplyAsync(loaded -> {
+      if (!loaded) {
+        loadFxml();
+      }
+      return this;
+    }, JfxExtLoader::runOnFxThread);
+  }
+
+  /**
+   * Méthode privée qui teste si un échec de chargement vient du contrôle du thread
+   * fait par JavaFX (Toolkit.checkFxUserThread), c'est-à-dire d'un objet qui ne peut
+   * être créé que dans le thread de JavaFX. Une IllegalStateException levée par
+   * l'application (par exemple dans le initialize d'un contrôleur) n'en fait pas partie.
+   *
+   * @param ex l'exception levée lors du chargement
+   * @return true si la vue doit être rechargée dans le thread de JavaFX
+   */
+  private static boolean isFxThreadRequired(Throwable ex) {
+    for (Throwable t = ex; t != null; t = t.getCause()) {
+      if (t instanceof IllegalStateException && t.getMessage() != null
+          && t.getMessage().startsWith(FX_THREAD_ERROR)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Charge le fichier FXML avec son contrôleur. Le paquet de resources
+   * provient du cache commun des vues (voir JfxBundleCache).
    */
   private void loadFxml() {
-    String lang = Locale.getDefault().getLanguage();
-    String fxmlFullName = "app/ihm/" + viewName + ".fxml";
-    String rbName = "resources/bundles/" + viewName + "_" + lang;
     try {
-      ResourceBundle rb = ResourceBundle.getBundle(rbName);
-
-      // charge la vue et son controller
-      URL fxmlURL = getClass().getClassLoader().getResource(fxmlFullName);
-      FXMLLoader loader = new FXMLLoader(fxmlURL, rb);
-      view = loader.load();
-      ctrl = loader.getController();
-      
-      // charge et mémorise les resources textes actuelles
-      extRB = new JfxExtResourceBundle(rb);
-      exMessage = "";
+      readFxml();
     } catch (MissingResourceException | IllegalStateException | IOException ex) {
       ex.printStackTrace();
       exMessage = ex.getLocalizedMessage();
     }
   }
 
+  /**
+   * Méthode privée qui lit le fichier FXML et crée son contrôleur (voir loadFxml).
+   *
+   * @throws IOException si le fichier FXML ne peut pas être chargé
+   */
+  private void readFxml() throws IOException {
+    String fxmlFullName = "app/ihm/" + viewName + ".fxml";
+    Locale viewLocale = Locale.getDefault();
+    JfxExtResourceBundle sharedRB = JfxBundleCache.get(viewName, viewLocale);
+    ResourceBundle rb = sharedRB.getResourceBundle();
+
+    // charge la vue et son controller
+    URL fxmlURL = getClass().getClassLoader().getResource(fxmlFullName);
+    FXMLLoader loader = new FXMLLoader(fxmlURL, rb);
+    view = loader.load();
+    ctrl = loader.getController();
+
+    // charge et mémorise les resources textes actuelles
+    extRB = sharedRB;
+    locale = viewLocale;
+    exMessage = "";
+  }
+
   /**
    * Retourne le nom de la vue.
    *
@@ -125,6 +258,25 @@ public class JfxExtLoader<T> {
     this.extRB = rb;
   }
 
+  /**
+   * Retourne la langue dans laquelle la vue a été chargée.
+   *
+   * @return la langue de la vue (null si la vue n'a pas pu être chargée)
+   */
+  Locale getLocale() {
+    return locale;
+  }
+
+  /**
+   * Indique si cette vue provient de la réserve des vues (voir JfxViewCache)
+   * et doit y retourner lorsque sa fenêtre est cachée.
+   *
+   * @param pooled true si la vue doit retourner dans la réserve
+   */
+  void setPooled(boolean pooled) {
+    this.pooled = pooled;
+  }
+
   public String getErrorTitle() {
     String errTitle;
     switch (Locale.getDefault().getLanguage()) {
@@ -178,7 +330,79 @@ public class JfxExtLoader<T> {
    */
   public void displayView(Window owner, boolean center, Callable<Void> myFunc) {
 
-    // nom transformé en majuscules avec un "_" entre chaque mot
+    // teste si la vue a été chargée
+    if (hasError()) {
+      JfxPopup.displayError(owner, getErrorTitle(), null, getErrorMessage());
+    } else {
+      Stage childStage = createChildStage(owner);
+      setupChildStage(childStage, owner, center, myFunc);
+
+      // afficher cette nouvelle vue "enfant"
+      childStage.show();
+    }
+
+  }
+
+  /**
+   * Charge une sous-vue en arrière-plan et l'affiche dans un stage (fenêtre) "enfant".
+   * La fenêtre est ouverte tout de suite avec un indicateur d'attente, qui est remplacé
+   * par la vue dès qu'elle est prête (voir displayView pour les autres détails).
+   * En cas de problème, la fenêtre est refermée et l'erreur est affichée.
+   *
+   * @param <T> le type du contrôleur
+   * @param viewName le nom de la vue (sans l'extension .fxml ou autre)
+   * @param owner le propriétaire de la sous-vue.
+   * @param center true pour centrer la fenêtre enfant par rapport à la fenêtre parente
+   * @param myFunc une fonction à utiliser lorsque l'on quitte la fenêtre
+   * @return un CompletableFuture avec le chargeur de la vue (terminé dans le thread de JavaFX)
+   */
+  public static <T> CompletableFuture<JfxExtLoader<T>> displayViewAsync(String viewName, Window owner,
+      boolean center, Callable<Void> myFunc) {
+    JfxExtLoader<T> loader = new JfxExtLoader<>(viewName, false);
+
+    // fenêtre provisoire avec un indicateur d'attente
+    Stage childStage = loader.createChildStage(owner);
+    childStage.setScene(new Scene(new StackPane(new ProgressIndicator())));
+    loader.placeChildStage(childStage, owner, center);
+    childStage.show();
+
+    return loader.loadLater().whenComplete((l, ex) -> {
+      if (ex == null) {
+        loader.showLoaded(childStage, owner, center, myFunc);
+      } else {
+        // un échec inattendu n'arrive pas forcément dans le thread de JavaFX
+        ex.printStackTrace();
+        loader.exMessage = String.valueOf(ex.getLocalizedMessage());
+        runOnFxThread(() -> loader.showLoaded(childStage, owner, center, myFunc));
+      }
+    });
+  }
+
+  /**
+   * Méthode privée (thread de JavaFX) qui remplace l'indicateur d'attente par la vue
+   * chargée, ou qui referme la fenêtre et affiche l'erreur en cas de problème.
+   *
+   * @param childStage la fenêtre provisoire ouverte par displayViewAsync
+   * @param owner le propriétaire de la sous-vue.
+   * @param center true pour centrer la fenêtre enfant par rapport à la fenêtre parente
+   * @param myFunc une fonction à utiliser lorsque l'on quitte la fenêtre
+   */
+  private void showLoaded(Stage childStage, Window owner, boolean center, Callable<Void> myFunc) {
+    if (hasError()) {
+      childStage.close();
+      JfxPopup.displayError(owner, getErrorTitle(), null, getErrorMessage());
+    } else if (childStage.isShowing()) {
+      setupChildStage(childStage, owner, center, myFunc);
+    }
+  }
+
+  /**
+   * Méthode privée qui retourne le nom de la vue transformé en majuscules avec
+   * un "_" entre chaque mot (préfixe des clés de préférences de la vue).
+   *
+   * @return le nom de la vue pour les préférences (ex: "ABOUT_VIEW")
+   */
+  private String getSettingsName() {
     String uViewName = getViewName().toUpperCase();
     String[] r = getViewName().split("(?=\\p{Upper})");
     if (r.length > 0) {
@@ -190,75 +414,107 @@ public class JfxExtLoader<T> {
         uViewName += r[i].toUpperCase();
       }
     }
-//    System.out.println("uViewName: "+uViewName);
+    return uViewName;
+  }
 
-    // teste si la vue a été chargée
-    if (hasError()) {
-      JfxPopup.displayError(owner, getErrorTitle(), null, getErrorMessage());
-    } else {
-      BorderPane childRootpane = (BorderPane) getView();
-      Scene newScene = new Scene(childRootpane);
-
-      // définir une nouvelle fenêtre enfant de la première
-      Stage childStage = new Stage();
-      childStage.initOwner(owner);
-      childStage.initStyle(StageStyle.DECORATED);
-      childStage.initModality(Modality.WINDOW_MODAL);
-      childStage.setScene(newScene);
-
-      // appliquer les dimensions minimales
-      childStage.setMinWidth(JfxSettings.getDouble(uViewName+"_MIN_WIDTH"));
-      childStage.setMinHeight(JfxSettings.getDouble(uViewName+"_MIN_HEIGHT"));
-
-      // choisir un titre pour la fenêtre
-      childStage.setTitle("- " + extRB.getTextProperty("title"));
-
-      // rajouter une icône dans la barre de titre
-      String logoPath = extRB.getTextProperty("logo").trim();
-      URL url = getClass().getClassLoader().getResource(logoPath);
-      if (url != null) {
-        childStage.getIcons().add(new Image(logoPath));
+  /**
+   * Méthode privée qui crée une nouvelle fenêtre enfant (modale) d'une fenêtre.
+   *
+   * @param owner la fenêtre propriétaire
+   * @return la nouvelle fenêtre
+   */
+  private Stage createChildStage(Window owner) {
+    Stage childStage = new Stage();
+    childStage.initOwner(owner);
+    childStage.initStyle(StageStyle.DECORATED);
+    childStage.initModality(Modality.WINDOW_MODAL);
+    return childStage;
+  }
+
+  /**
+   * Méthode privée qui repositionne et redimensionne une fenêtre enfant
+   * si les données ont été mémorisées dans les préférences.
+   *
+   * @param childStage la fenêtre enfant
+   * @param owner la fenêtre propriétaire
+   * @param center true pour centrer la fenêtre enfant par rapport à la fenêtre parente
+   * @return true si des dimensions ont été mémorisées
+   */
+  private boolean placeChildStage(Stage childStage, Window owner, boolean center) {
+    Rectangle2D mainRect = new Rectangle2D(owner.getX(), owner.getY(), owner.getWidth(), owner.getHeight());
+    Rectangle2D childRect = JfxSettings.getRectangle(getSettingsName());
+    boolean found = childRect.getWidth() > 0d && childRect.getHeight() > 0d;
+    if (found) {
+      if (center) {
+        childStage.setX(mainRect.getMinX() + mainRect.getWidth() / 2 - childRect.getWidth() / 2);
+        childStage.setY(mainRect.getMinY() + mainRect.getHeight() / 2 - childRect.getHeight() / 2);
+      } else {
+        childStage.setX(childRect.getMinX());
+        childStage.setY(childRect.getMinY());
       }
+      childStage.setWidth(childRect.getWidth());
+      childStage.setHeight(childRect.getHeight());
+    }
+    return found;
+  }
 
-      // repositionne et redimentionne la fenêtre si les données ont été mémorisées
-      Rectangle2D mainRect = new Rectangle2D(owner.getX(), owner.getY(), owner.getWidth(), owner.getHeight());
-      Rectangle2D childRect = JfxSettings.getRectangle(uViewName);
-      if (childRect.getWidth() > 0d && childRect.getHeight() > 0d) {
-        if (center) {
-          childStage.setX(mainRect.getMinX() + mainRect.getWidth() / 2 - childRect.getWidth() / 2);
-          childStage.setY(mainRect.getMinY() + mainRect.getHeight() / 2 - childRect.getHeight() / 2);
-        } else {
-          childStage.setX(childRect.getMinX());
-          childStage.setY(childRect.getMinY());
-        }
-        childStage.setWidth(childRect.getWidth());
-        childStage.setHeight(childRect.getHeight());
+  /**
+   * Méthode privée qui place la vue chargée dans une fenêtre enfant, avec
+   * ses dimensions, son titre, son icône et ses écouteurs de sortie.
+   *
+   * @param childStage la fenêtre enfant
+   * @param owner la fenêtre propriétaire
+   * @param center true pour centrer la fenêtre enfant par rapport à la fenêtre parente
+   * @param myFunc une fonction à utiliser lorsque l'on quitte la fenêtre
+   */
+  private void setupChildStage(Stage childStage, Window owner, boolean center, Callable<Void> myFunc) {
+    String uViewName = getSettingsName();
+    BorderPane childRootpane = (BorderPane) getView();
+    childStage.setScene(new Scene(childRootpane));
+
+    // appliquer les dimensions minimales
+    childStage.setMinWidth(JfxSettings.getDouble(uViewName+"_MIN_WIDTH"));
+    childStage.setMinHeight(JfxSettings.getDouble(uViewName+"_MIN_HEIGHT"));
+
+    // choisir un titre pour la fenêtre
+    childStage.setTitle("- " + extRB.getTextProperty("title"));
+
+    // rajouter une icône dans la barre de titre
+    String logoPath = extRB.getTextProperty("logo").trim();
+    URL url = getClass().getClassLoader().getResource(logoPath);
+    if (url != null) {
+      childStage.getIcons().add(new Image(logoPath));
+    }
+
+    // repositionne et redimentionne la fenêtre si les données ont été mémorisées
+    if (!placeChildStage(childStage, owner, center)) {
+      childStage.sizeToScene();
+    }
+
+    // ajouter un écouteur pour contrôler la sortie
+    childStage.setOnCloseRequest(e -> {
+      e.consume();
+      try {
+        myFunc.call();
+      } catch (Exception ex) {
       }
+    });
 
-      // ajouter un écouteur pour contrôler la sortie
-      childStage.setOnCloseRequest(e -> {
+    // une vue de la réserve y retourne lorsque sa fenêtre est cachée
+    if (pooled) {
+      childStage.setOnHidden(e -> JfxViewCache.release(this));
+    }
+
+    // ajouter un autre écouteur pour une sortie avec la touche ESC
+    childStage.addEventHandler(KeyEvent.KEY_PRESSED, (KeyEvent e) -> {
+      if (e.getCode() == KeyCode.ESCAPE) {
         e.consume();
         try {
           myFunc.call();
         } catch (Exception ex) {
         }
-      });
-
-      // ajouter un autre écouteur pour une sortie avec la touche ESC
-      childStage.addEventHandler(KeyEvent.KEY_PRESSED, (KeyEvent e) -> {
-        if (e.getCode() == KeyCode.ESCAPE) {
-          e.consume();
-          try {
-            myFunc.call();
-          } catch (Exception ex) {
-          }
-        }
-      });
-
-      // afficher cette nouvelle vue "enfant"
-      childStage.show();
-    }
-
+      }
+    });
   }
 
 }
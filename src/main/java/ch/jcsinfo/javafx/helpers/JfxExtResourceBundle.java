@@ -1,14 +1,34 @@
 package ch.jcsinfo.javafx.helpers;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Permet l'extraction facilitée de propriétés dans un ResourceBundle,
+ * Permet l'extraction facilitée de propriétés dans un ResourceBundle,<br>
+ * <br>
+ * Une propriété peut référencer d'autres propriétés avec la syntaxe "${clé}".
+ * Chaque texte est compilé une seule fois en un modèle (voir JfxTextTemplate),
+ * puis le texte final est mémorisé par clé. Une référence circulaire (directe ou
+ * indirecte) est détectée et traitée comme une propriété introuvable. Le cache
+ * est abandonné lorsque le ResourceBundle est remplacé (setResourceBundle).<br>
+ * <br>
+ * Les clés du ResourceBundle sont aussi triées une seule fois dans un index. Toutes
+ * les clés d'un même préfixe (par exemple "popup.about.label01" à "label99") sont
+ * ainsi trouvées en un seul passage, sans construire chaque clé.
  *
  * @author jcstritt
  */
 public class JfxExtResourceBundle {
-  ResourceBundle rb;
+  private static final String MISSING = new String();
+
+  private volatile Texts texts;
 
 
   /**
@@ -17,7 +37,17 @@ public class JfxExtResourceBundle {
    * @param rb le resource bundle original de JavaFX
    */
   public JfxExtResourceBundle(ResourceBundle rb) {
-    this.rb = rb;
+    this.texts = new Texts(rb);
+  }
+
+  /**
+   * Constructeur qui partage les textes déjà calculés d'un autre objet (voir JfxBundleCache).
+   * Un changement de ResourceBundle (setResourceBundle) ne concerne que le nouvel objet.
+   *
+   * @param shared l'objet dont les textes sont partagés
+   */
+  JfxExtResourceBundle(JfxExtResourceBundle shared) {
+    this.texts = shared.texts;
   }
 
 
@@ -27,42 +57,35 @@ public class JfxExtResourceBundle {
    * @return l'objet ResourceBundle de base
    */
   public ResourceBundle getResourceBundle() {
-    return rb;
+    return texts.rb;
   }
 
   /**
    * Permet de remettre à jour le ResourceBundle.
+   * Les textes mémorisés de l'ancien ResourceBundle sont oubliés.
    *
    * @param rb un objet ResourceBundle
    */
   public void setResourceBundle(ResourceBundle rb) {
-    this.rb = rb;
+    this.texts = new Texts(rb);
   }
 
 
   /**
    * Grâce à sa clé, récupère une propriété de type "texte" (String).
+   * Les références "${clé}" sont remplacées par les propriétés correspondantes.
    *
    * @param key nom de la clé de recherche de la propriété
    * @param def texte par défaut si la propriété ne peut être récupérée
    * @return la propriété recherchée
    */
   public String getTextProperty(String key, String def) {
-    try {
-      String s = rb.getString(key);
-      boolean b = s.contains("${");
-      while (b) {
-        int p1 = s.indexOf("${");
-        int p2 = s.indexOf("}");
-        String key2 = s.substring(p1 + 2, p2);
-        String s2 = rb.getString(key2);
-        s = s.replace("${" + key2 + "}", s2);
-        b = s.contains("${");
-      }
-      return s.isEmpty() ? def : s;
-    } catch (Exception e) {
-      return def;
+    Texts t = texts;
+    String s = t.resolved.get(key);
+    if (s == null) {
+      s = resolve(t, key, new HashSet<>());
     }
+    return (s == MISSING || s.isEmpty()) ? def : s;
   }
 
   /**
@@ -77,6 +100,9 @@ public class JfxExtResourceBundle {
   
   /**
    * Grâce à un préfixe de clé, récupère un tableau de messages dans les propriétés.
+   * Les clés sont formées du préfixe et d'un index, avec ou sans zéros devant
+   * (ex: "popup.about.label1" ou "popup.about.label01"). Un message introuvable
+   * est retourné comme un texte vide.
    * 
    * @param prefixKey une préfixe de clé, par exemple "popup.about.label"
    * @param lowIdx l'index le plus bas à récupérer
@@ -84,14 +110,176 @@ public class JfxExtResourceBundle {
    * @return  un tableau de propriétés récupérées dans le ResourceBundle enregistré
    */
   public String[] getTextProperties(String prefixKey, int lowIdx, int highIdx) {
-    String properties[] = new String[highIdx-lowIdx+1];
-    int j = 0;
-    for (int i = lowIdx; i <= highIdx; i++) {
-      String p = (highIdx >= 10 && i < 10) ? "0"+i : ""+i;      
-      properties[j] = getTextProperty(prefixKey + p);
-      j++;
+    String properties[] = new String[Math.max(0, highIdx - lowIdx + 1)];
+    Arrays.fill(properties, "");
+    boolean exact[] = new boolean[properties.length];
+    Texts t = texts;
+    String[] keys = t.getKeys();
+    for (int i = t.findFirst(prefixKey); i < keys.length && keys[i].startsWith(prefixKey); i++) {
+      int idx = parseIndex(keys[i], prefixKey.length());
+      if (idx >= lowIdx && idx <= highIdx && !exact[idx - lowIdx]) {
+
+        // en cas de doublon (ex: "label1" et "label01"), garde la clé avec les zéros
+        // seulement si highIdx >= 10 (comme les anciennes versions de cette méthode)
+        int digits = keys[i].length() - prefixKey.length();
+        exact[idx - lowIdx] = digits == ((highIdx >= 10 && idx < 10) ? 2 : Integer.toString(idx).length());
+        properties[idx - lowIdx] = getTextProperty(keys[i]);
+      }
     }
     return properties;
   }
 
+  /**
+   * Grâce à un préfixe de clé, récupère tous les messages numérotés de ce préfixe,
+   * sans connaître les index à l'avance. Les messages sont triés d'après leur index
+   * (ex: "help.line1", "help.line2", ... "help.line10").
+   * 
+   * @param prefixKey une préfixe de clé, par exemple "help.line"
+   * @return un tableau de propriétés (vide si aucune clé numérotée n'a ce préfixe)
+   */
+  public String[] getTextProperties(String prefixKey) {
+    Texts t = texts;
+    String[] keys = t.getKeys();
+    List<long[]> found = new ArrayList<>();
+    for (int i = t.findFirst(prefixKey); i < keys.length && keys[i].startsWith(prefixKey); i++) {
+      int idx = parseIndex(keys[i], prefixKey.length());
+      if (idx >= 0) {
+        found.add(new long[]{idx, i});
+      }
+    }
+    found.sort((a, b) -> Long.compare(a[0], b[0]));
+    String properties[] = new String[found.size()];
+    for (int j = 0; j < properties.length; j++) {
+      properties[j] = getTextProperty(keys[(int) found.get(j)[1]]);
+    }
+    return properties;
+  }
+
+  /**
+   * Retourne toutes les clés du ResourceBundle qui commencent par un préfixe, triées.
+   * 
+   * @param prefixKey une préfixe de clé, par exemple "popup.about."
+   * @return une liste non modifiable de clés
+   */
+  public List<String> getKeys(String prefixKey) {
+    Texts t = texts;
+    String[] keys = t.getKeys();
+    int first = t.findFirst(prefixKey);
+    int last = first;
+    while (last < keys.length && keys[last].startsWith(prefixKey)) {
+      last++;
+    }
+    return Collections.unmodifiableList(Arrays.asList(keys).subList(first, last));
+  }
+
+
+
+  /**
+   * Calcule et mémorise à l'avance les textes finaux de toutes les propriétés
+   * (ainsi que l'index des clés).
+   */
+  public void preload() {
+    for (String key : texts.getKeys()) {
+      getTextProperty(key);
+    }
+  }
+
+
+
+  /**
+   * Méthode privée qui décode l'index numérique qui suit le préfixe d'une clé.
+   *
+   * @param key la clé
+   * @param from la position du premier chiffre (la longueur du préfixe)
+   * @return l'index ou -1 si la fin de la clé n'est pas formée que de chiffres
+   */
+  private static int parseIndex(String key, int from) {
+    int len = key.length();
+    if (from == len || len - from > 9) {
+      return -1;
+    }
+    int idx = 0;
+    for (int i = from; i < len; i++) {
+      int digit = key.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      idx = idx * 10 + digit;
+    }
+    return idx;
+  }
+
+  /**
+   * Méthode privée qui construit le texte final d'une propriété et le mémorise.
+   *
+   * @param t les textes du ResourceBundle actuel
+   * @param key la clé de la propriété
+   * @param path les clés en cours de résolution (pour détecter les références circulaires)
+   * @return le texte final ou MISSING si la propriété (ou une de ses références) est introuvable
+   */
+  private static String resolve(Texts t, String key, Set<String> path) {
+    String s = t.resolved.get(key);
+    if (s != null) {
+      return s;
+    }
+    if (!path.add(key)) {
+      return MISSING;
+    }
+    try {
+      JfxTextTemplate template = JfxTextTemplate.compile(t.rb.getString(key));
+      s = template.render(k -> {
+        String value = resolve(t, k, path);
+        return (value == MISSING) ? null : value;
+      });
+    } catch (Exception e) {
+      s = null;
+    }
+    path.remove(key);
+    if (s == null) {
+      s = MISSING;
+    }
+    t.resolved.put(key, s);
+    return s;
+  }
+
+
+
+  /**
+   * Un ResourceBundle avec ses textes finaux déjà calculés. Remplacé d'un seul coup
+   * lors d'un changement de ResourceBundle.
+   */
+  private static final class Texts {
+
+    private final ResourceBundle rb;
+    private final Map<String, String> resolved;
+    private volatile String[] keys;
+
+    private Texts(ResourceBundle rb) {
+      this.rb = rb;
+      this.resolved = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Retourne l'index des clés, trié (construit lors du premier appel).
+     */
+    private String[] getKeys() {
+      String[] k = keys;
+      if (k == null) {
+        k = rb.keySet().toArray(new String[0]);
+        Arrays.sort(k);
+        keys = k;
+      }
+      return k;
+    }
+
+    /**
+     * Retourne la position de la première clé de l'index qui commence par un préfixe.
+     */
+    private int findFirst(String prefixKey) {
+      int i = Arrays.binarySearch(getKeys(), prefixKey);
+      return (i >= 0) ? i : -(i + 1);
+    }
+
+  }
+
 }
@@ -0,0 +1,133 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache borné et concurrent d'objets immuables (par exemple Font ou Color), indexés
+ * par leur description String (voir JfxConverter). Une même description retourne
+ * ainsi toujours la même instance, sans refaire la conversion.<br>
+ * <br>
+ * Le cache est formé de deux générations. Les nouveaux objets entrent dans la jeune
+ * génération ; lorsqu'elle est pleine, elle devient l'ancienne génération (l'ancienne
+ * est oubliée) et une nouvelle jeune génération commence. Un objet trouvé dans l'ancienne
+ * génération est remonté dans la jeune. Les objets utilisés restent donc en mémoire,
+ * tandis que le cache ne dépasse jamais deux fois sa taille maximum, même si les
+ * descriptions proviennent de saisies de l'utilisateur.
+ *
+ * @param <V> le type des objets mémorisés
+ * @author jcstritt
+ */
+public class JfxInternCache<V> {
+  private final int maxSize;
+  private final Function<String, V> converter;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private volatile Map<String, V> young;
+  private volatile Map<String, V> old;
+
+  /**
+   * Constructeur.
+   *
+   * @param maxSize le nombre maximum d'objets d'une génération
+   * @param converter la fonction qui crée un objet depuis sa description
+   */
+  public JfxInternCache(int maxSize, Function<String, V> converter) {
+    this.maxSize = Math.max(1, maxSize);
+    this.converter = converter;
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.young = new ConcurrentHashMap<>();
+    this.old = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Retourne l'objet correspondant à une description. Il est créé (et mémorisé) s'il
+   * n'est pas encore dans le cache. Si la conversion lève une exception, rien n'est mémorisé.
+   *
+   * @param spec la description de l'objet
+   * @return l'objet correspondant (toujours le même tant qu'il reste dans le cache)
+   */
+  public V get(String spec) {
+    Map<String, V> y = young;
+    V value = y.get(spec);
+    if (value != null) {
+      hits.increment();
+      return value;
+    }
+    value = old.get(spec);
+    if (value != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+      value = converter.apply(spec);
+    }
+    V previous = y.putIfAbsent(spec, value);
+    if (previous != null) {
+      return previous;
+    }
+    if (y.size() > maxSize) {
+      rotate(y);
+    }
+    return value;
+  }
+
+  /**
+   * Méthode privée qui remplace l'ancienne génération par la jeune génération pleine.
+   *
+   * @param full la jeune génération qui a dépassé la taille maximum
+   */
+  private synchronized void rotate(Map<String, V> full) {
+    if (young == full) {
+      old = full;
+      young = new ConcurrentHashMap<>();
+    }
+  }
+
+  /**
+   * Vide le cache (les compteurs sont conservés).
+   */
+  public synchronized void clear() {
+    old = new ConcurrentHashMap<>();
+    young = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Retourne le nombre d'objets actuellement dans le cache (les deux générations).
+   *
+   * @return le nombre d'objets
+   */
+  public int size() {
+    return young.size() + old.size();
+  }
+
+  /**
+   * Retourne le nombre maximum d'objets d'une génération.
+   *
+   * @return la taille maximum d'une génération
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Retourne le nombre de recherches qui ont trouvé l'objet dans le cache.
+   *
+   * @return le nombre de succès
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Retourne le nombre de recherches qui ont dû créer l'objet.
+   *
+   * @return le nombre d'échecs
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+}
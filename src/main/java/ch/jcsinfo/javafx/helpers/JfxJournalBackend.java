@@ -0,0 +1,501 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Stockage des préférences dans un journal : chaque modification est simplement ajoutée
+ * à la fin d'un fichier (écriture séquentielle), sans jamais réécrire tout le stockage.
+ * Les valeurs sont gardées en mémoire et le journal n'est relu qu'à l'ouverture.<br>
+ * <br>
+ * La synchronisation sur le disque (fsync) est groupée : elle a lieu au plus une fois
+ * par intervalle (voir setSyncInterval) ou lors d'un appel à flush, pour toutes les
+ * écritures faites entre-temps. Lorsque le journal dépasse une taille donnée (voir
+ * setCompactThreshold), un thread d'arrière-plan écrit toutes les valeurs dans un point
+ * de reprise ("checkpoint", même format que JfxSettingsSnapshot), puis ne garde dans le
+ * journal que les écritures faites depuis.<br>
+ * <br>
+ * Structure du journal : entête ("JFXJ", version), puis des enregistrements formés de la
+ * longueur des données, de leur CRC32 et des données (nombre d'opérations, puis pour
+ * chacune le type, la clé et la valeur en UTF-8). Un groupe d'écritures (putAll, par
+ * exemple un setRectangle) forme un seul enregistrement. Après un arrêt brutal, le
+ * journal est relu jusqu'au dernier enregistrement complet et le reste est supprimé :
+ * un groupe d'écritures est donc retrouvé soit entièrement, soit pas du tout.
+ *
+ * @author jcstritt
+ */
+public class JfxJournalBackend implements JfxSettingsBackend {
+  private static final int MAGIC = 0x4A46584A; // "JFXJ"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final byte OP_PUT = 1;
+  private static final byte OP_REMOVE = 2;
+  private static ScheduledExecutorService executor;
+
+  /** intervalle par défaut (en millisecondes) entre deux synchronisations sur le disque */
+  public static final long DEF_SYNC_INTERVAL = 200;
+
+  /** taille par défaut (en octets) du journal au-delà de laquelle il est compacté */
+  public static final long DEF_COMPACT_THRESHOLD = 1024 * 1024;
+
+  private final Path file;
+  private final Path checkpointFile;
+  private final Map<String, String> values;
+  private final AtomicBoolean syncScheduled;
+  private final AtomicBoolean compactScheduled;
+  private FileChannel channel;
+  private boolean dirty;
+  private boolean closed;
+  private volatile long syncInterval;
+  private volatile long compactThreshold;
+
+  /**
+   * Constructeur. Ouvre le journal spécifié (ou le crée), puis restitue les valeurs
+   * à partir du point de reprise et des enregistrements complets du journal.
+   *
+   * @param file le chemin du journal (le point de reprise est écrit à côté, avec l'extension ".ckpt")
+   * @throws IOException si le journal ne peut pas être ouvert, ou si le journal ou son point de reprise n'est pas valide
+   */
+  public JfxJournalBackend(Path file) throws IOException {
+    this.file = file;
+    this.checkpointFile = file.resolveSibling(file.getFileName() + ".ckpt");
+    this.values = new HashMap<>();
+    this.syncScheduled = new AtomicBoolean(false);
+    this.compactScheduled = new AtomicBoolean(false);
+    this.syncInterval = DEF_SYNC_INTERVAL;
+    this.compactThreshold = DEF_COMPACT_THRESHOLD;
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    if (Files.exists(checkpointFile)) {
+
+      // un point de reprise illisible ferait perdre toutes les valeurs d'avant la compaction
+      Map<String, String> checkpoint = JfxSettingsSnapshot.read(checkpointFile, getName());
+      if (checkpoint == null) {
+        throw new IOException("Invalid settings checkpoint: " + checkpointFile);
+      }
+      values.putAll(checkpoint);
+    }
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      recover();
+    } catch (IOException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Méthode privée qui relit le journal jusqu'au dernier enregistrement complet et
+   * valide, puis supprime ce qui suit (enregistrement interrompu par un arrêt brutal).
+   *
+   * @throws IOException si le journal ne peut pas être lu ou n'est pas valide
+   */
+  private void recover() throws IOException {
+    long size = channel.size();
+    if (size < HEADER_SIZE) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).flip();
+      channel.truncate(0);
+      channel.write(header, 0);
+      channel.force(true);
+      channel.position(HEADER_SIZE);
+      return;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    readFully(header, 0);
+    if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+      throw new IOException("Invalid settings journal: " + file);
+    }
+    long pos = HEADER_SIZE;
+    ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    while (pos + RECORD_HEADER_SIZE <= size) {
+      recordHeader.clear();
+      readFully(recordHeader, pos);
+      int len = recordHeader.getInt(0);
+      if (len < 4 || pos + RECORD_HEADER_SIZE + len > size) {
+        break;
+      }
+      ByteBuffer data = ByteBuffer.allocate(len);
+      readFully(data, pos + RECORD_HEADER_SIZE);
+      CRC32 crc = new CRC32();
+      crc.update(data.array(), 0, len);
+      if (recordHeader.getInt(4) != (int) crc.getValue()) {
+        break;
+      }
+      apply(data);
+      pos += RECORD_HEADER_SIZE + len;
+    }
+    if (pos < size) {
+      channel.truncate(pos);
+      channel.force(true);
+    }
+    channel.position(pos);
+  }
+
+  /**
+   * Méthode privée qui lit entièrement un tampon depuis une position du journal.
+   *
+   * @param buf le tampon à remplir
+   * @param pos la position de départ dans le journal
+   * @throws IOException si le journal se termine avant que le tampon soit plein
+   */
+  private void readFully(ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      int n = channel.read(buf, pos);
+      if (n < 0) {
+        throw new IOException("Unexpected end of settings journal: " + file);
+      }
+      pos += n;
+    }
+    buf.flip();
+  }
+
+  /**
+   * Méthode privée qui applique aux valeurs en mémoire les opérations d'un enregistrement.
+   *
+   * @param data les données de l'enregistrement
+   */
+  private void apply(ByteBuffer data) {
+    int count = data.getInt();
+    for (int i = 0; i < count; i++) {
+      byte op = data.get();
+      String key = readString(data);
+      if (op == OP_PUT) {
+        values.put(key, readString(data));
+      } else {
+        values.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Méthode privée qui lit un String (longueur puis octets UTF-8).
+   *
+   * @param buf le tampon à lire
+   * @return le String lu
+   */
+  private static String readString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Méthode privée qui écrit un String (longueur puis octets UTF-8).
+   *
+   * @param out le flux d'écriture
+   * @param s le String à écrire
+   * @throws IOException si le flux ne peut pas être écrit
+   */
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Méthode privée qui ajoute un enregistrement à la fin du journal. Les clés avec
+   * une valeur null sont supprimées, les autres mémorisées. Si l'écriture échoue, le
+   * journal est ramené à sa taille d'avant l'enregistrement.
+   *
+   * @param ops une map avec les clés et les valeurs
+   */
+  private void append(Map<String, String> ops) {
+    if (closed) {
+      throw new IllegalStateException("Settings journal is closed: " + file);
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeInt(ops.size());
+      for (Map.Entry<String, String> e : ops.entrySet()) {
+        out.writeByte((e.getValue() != null) ? OP_PUT : OP_REMOVE);
+        writeString(out, e.getKey());
+        if (e.getValue() != null) {
+          writeString(out, e.getValue());
+        }
+      }
+      ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+      int len = record.limit() - RECORD_HEADER_SIZE;
+      CRC32 crc = new CRC32();
+      crc.update(record.array(), RECORD_HEADER_SIZE, len);
+      record.putInt(0, len);
+      record.putInt(4, (int) crc.getValue());
+      long start = channel.position();
+      try {
+        while (record.hasRemaining()) {
+          channel.write(record);
+        }
+      } catch (IOException ex) {
+        // un enregistrement incomplet ne doit pas rester devant les suivants
+        try {
+          channel.truncate(start);
+          channel.position(start);
+        } catch (IOException ex2) {
+          ex.addSuppressed(ex2);
+        }
+        throw ex;
+      }
+      dirty = true;
+      for (Map.Entry<String, String> e : ops.entrySet()) {
+        if (e.getValue() != null) {
+          values.put(e.getKey(), e.getValue());
+        } else {
+          values.remove(e.getKey());
+        }
+      }
+      scheduleWork();
+    } catch (IOException ex) {
+      throw new IllegalStateException("Settings journal cannot be written: " + file, ex);
+    }
+  }
+
+  /**
+   * Méthode privée qui planifie la prochaine synchronisation groupée sur le disque
+   * et, si le journal est devenu trop grand, son compactage en arrière-plan.
+   *
+   * @throws IOException si la taille du journal ne peut pas être lue
+   */
+  private void scheduleWork() throws IOException {
+    if (syncScheduled.compareAndSet(false, true)) {
+      getExecutor().schedule(() -> {
+        syncScheduled.set(false);
+        try {
+          flush();
+        } catch (IOException ex) {
+          ex.printStackTrace();
+        }
+      }, syncInterval, TimeUnit.MILLISECONDS);
+    }
+    if (channel.position() > compactThreshold && compactScheduled.compareAndSet(false, true)) {
+      getExecutor().execute(() -> {
+        try {
+          compact();
+        } catch (IOException ex) {
+          ex.printStackTrace();
+        } finally {
+          compactScheduled.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Méthode privée qui retourne l'unique thread d'arrière-plan (démon) chargé
+   * des synchronisations groupées et du compactage des journaux.
+   *
+   * @return le service d'exécution des tâches d'arrière-plan
+   */
+  private static synchronized ScheduledExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "JfxJournal-worker");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Compacte immédiatement le journal : toutes les valeurs sont écrites dans le point
+   * de reprise, puis le journal est remplacé par les seules écritures faites depuis.
+   * Les écritures ne sont bloquées que pendant le remplacement du journal.<br>
+   * Cette méthode est appelée automatiquement en arrière-plan (voir setCompactThreshold).
+   *
+   * @throws IOException si le point de reprise ou le journal ne peut pas être écrit
+   */
+  public void compact() throws IOException {
+    Map<String, String> copy;
+    long pos;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      copy = new HashMap<>(values);
+      pos = channel.position();
+    }
+
+    // un arrêt brutal avant le remplacement du journal ne pose pas de problème :
+    // rejouer tout le journal sur ce point de reprise donne le même résultat ;
+    // le point de reprise doit être sur le disque avant que le journal soit raccourci
+    JfxSettingsSnapshot.write(checkpointFile, getName(), copy, true);
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      ByteBuffer tail = ByteBuffer.allocate(HEADER_SIZE + (int) (channel.position() - pos));
+      tail.putInt(MAGIC).putInt(VERSION);
+      readFully(tail, pos);
+      tail.position(0);
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        while (tail.hasRemaining()) {
+          out.write(tail);
+        }
+        out.force(true);
+      }
+      channel.force(false);
+      channel.close();
+      try {
+        try {
+          Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+          Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) {
+          JfxSettingsSnapshot.syncDirectory(dir);
+        }
+      } finally {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        dirty = false;
+      }
+    }
+  }
+
+  /**
+   * Retourne le chemin du journal.
+   *
+   * @return le chemin du journal
+   */
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Retourne le chemin du point de reprise (voir compact).
+   *
+   * @return le chemin du point de reprise
+   */
+  public Path getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  /**
+   * Définit l'intervalle maximum entre une écriture et sa synchronisation sur le disque.
+   *
+   * @param millis l'intervalle en millisecondes (DEF_SYNC_INTERVAL par défaut)
+   */
+  public void setSyncInterval(long millis) {
+    this.syncInterval = millis;
+  }
+
+  /**
+   * Définit la taille du journal au-delà de laquelle il est compacté en arrière-plan.
+   *
+   * @param bytes la taille en octets (DEF_COMPACT_THRESHOLD par défaut)
+   */
+  public void setCompactThreshold(long bytes) {
+    this.compactThreshold = bytes;
+  }
+
+  @Override
+  public String getName() {
+    String name = file.getFileName().toString();
+    int p = name.lastIndexOf('.');
+    return (p > 0) ? name.substring(0, p) : name;
+  }
+
+  @Override
+  public synchronized String get(String key) {
+    return values.get(key);
+  }
+
+  @Override
+  public synchronized void put(String key, String value) {
+    append(Collections.singletonMap(key, value));
+  }
+
+  /**
+   * Mémorise plusieurs valeurs dans un seul enregistrement du journal : après un arrêt
+   * brutal, elles sont retrouvées soit toutes, soit aucune. Une valeur null supprime la clé.
+   *
+   * @param values une map avec les clés et les valeurs à mémoriser (null pour supprimer)
+   */
+  @Override
+  public synchronized void putAll(Map<String, String> values) {
+    if (!values.isEmpty()) {
+      append(values);
+    }
+  }
+
+  @Override
+  public synchronized void remove(String key) {
+    if (values.containsKey(key)) {
+      append(Collections.singletonMap(key, null));
+    }
+  }
+
+  @Override
+  public synchronized String[] keys() {
+    return values.keySet().toArray(new String[values.size()]);
+  }
+
+  /**
+   * Synchronise sur le disque toutes les écritures faites depuis la dernière
+   * synchronisation. Plusieurs appels rapprochés n'en font qu'une seule.
+   *
+   * @throws IOException si le journal ne peut pas être synchronisé
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    if (dirty && !closed) {
+      channel.force(false);
+      dirty = false;
+    }
+  }
+
+  /**
+   * Ce stockage n'est modifié que par cette instance, il n'y a donc aucun changement
+   * extérieur à signaler.
+   *
+   * @param listener un écouteur qui reçoit la clé modifiée
+   */
+  @Override
+  public void addChangeListener(Consumer<String> listener) {
+  }
+
+  @Override
+  public void removeChangeListener(Consumer<String> listener) {
+  }
+
+  /**
+   * Synchronise les écritures sur le disque puis ferme le journal.
+   *
+   * @throws IOException si le journal ne peut pas être fermé
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      flush();
+      closed = true;
+      channel.close();
+    }
+  }
+
+}
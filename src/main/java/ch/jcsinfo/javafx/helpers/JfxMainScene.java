@@ -2,6 +2,7 @@ package ch.jcsinfo.javafx.helpers;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -10,6 +11,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.function.Consumer;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.EventHandler;
@@ -29,7 +31,12 @@ import javafx.stage.Stage;
 
 /**
  * Classe pour créer la scène principale (première vue) avec une image de fond.
- * Si on redimensionne la vue, celle-ci s'adapte au ratio largeur/hauteur de l'image de fond.
+ * Si on redimensionne la vue, celle-ci s'adapte au ratio largeur/hauteur de l'image de fond.<br>
+ * <br>
+ * Les styles des messages de fond (clés BG_MSGx_POS, BG_MSGx_FONT et BG_MSGx_COLOR)
+ * sont décodés une seule fois dans une table de styles immuable. Cette table n'est
+ * reconstruite que si l'une de ces clés change. Changer le texte d'un message ne lit
+ * donc aucune préférence.
  *
  * @author jcstritt
  */
@@ -50,6 +57,10 @@ public class JfxMainScene extends Scene {
 
   private List<File> bgImages = new ArrayList<>();
 
+  private volatile LabelStyle styles[];
+  private int stylesVersion;
+  private LabelStyle appliedStyles[] = new LabelStyle[9];
+
 
   /**
    * Constructeur.
@@ -63,6 +74,7 @@ public class JfxMainScene extends Scene {
     // mémorise certains objets pour une utilisation tardive
     this.stage = stage;
     this.loader = loader;
+    JfxSettings.addChangeListener(new StyleListener(this));
 
     // remplit un tableau avec les images trouvées dans le dossier prévu à cet effet
     String bgImagePath = JfxSettings.getValue("BG_IMAGE_PATH");
@@ -224,43 +236,22 @@ public class JfxMainScene extends Scene {
 
   /**
    * Méthode privée pour afficher un message de label dans l'une 
-   * des 9 positions possibles.
+   * des 9 positions possibles. Le style n'est appliqué au label que s'il a changé.
    *
    * @param lblText  le texte à afficher
-   * @param lblPos   la position où afficher le texte
-   * @param lblFont  la police pour l'affichage
-   * @param lblColor la couleur pour l'affichage
+   * @param style    le style (position, police, couleur et alignements) du message
    */
-  private void setLabel(String lblText, JfxLabelPosEnum lblPos, Font lblFont, Color lblColor) {
-    int i = lblPos.getIdx();
+  private void setLabel(String lblText, LabelStyle style) {
+    int i = style.pos.getIdx();
     labels[i].setText(lblText);
-    labels[i].setFont(lblFont);
-    labels[i].setTextFill(lblColor);
-    labels[i].getStyleClass().remove("label");
-    labelSizes[i] = (int) labels[i].getFont().getSize();
-
-    // alignement par défaut pour les colonnes
-    switch (lblPos.getCol()) {
-      case 1:
-        GridPane.setHalignment(labels[i], HPos.CENTER);
-        break;
-      case 2:
-        GridPane.setHalignment(labels[i], HPos.RIGHT);
-        break;
-      default:
-        GridPane.setHalignment(labels[i], HPos.LEFT);
-    }
-
-    // alignement par défaut pour les lignes
-    switch (lblPos.getRow()) {
-      case 1:
-        GridPane.setValignment(labels[i], VPos.CENTER);
-        break;
-      case 2:
-        GridPane.setValignment(labels[i], VPos.BOTTOM);
-        break;
-      default:
-        GridPane.setValignment(labels[i], VPos.TOP);
+    if (appliedStyles[i] != style) {
+      appliedStyles[i] = style;
+      labels[i].setFont(style.font);
+      labels[i].setTextFill(style.color);
+      labels[i].getStyleClass().remove("label");
+      labelSizes[i] = (int) style.font.getSize();
+      GridPane.setHalignment(labels[i], style.hpos);
+      GridPane.setValignment(labels[i], style.vpos);
     }
   }
 
@@ -273,17 +264,130 @@ public class JfxMainScene extends Scene {
    * @param options éventuellement un boolean TRUE pour recorriger la taille du label
    */
   public void setLabel(int idx, String text, boolean... options) {
-    JfxLabelPosEnum position = JfxSettings.getPosition(idx);
-    Font font = JfxSettings.getFont(idx);
-    Color color = JfxSettings.getColor(idx);
-    setLabel(text, position, font, color);
+    LabelStyle[] table = styles;
+    if (table == null) {
+      table = loadStyles();
+    }
+    LabelStyle style = (idx >= 1 && idx <= table.length) ? table[idx - 1] : new LabelStyle(idx);
+    setLabel(text, style);
     if ((options.length > 0) && (options[0] == true)) {
       correctLabelFont();
     }
   }
   
+  /**
+   * Méthode privée qui décode les styles des 9 messages de fond dans une nouvelle table.
+   *
+   * @return la table des styles (index 0 pour le message 1)
+   */
+  private LabelStyle[] loadStyles() {
+    int version;
+    synchronized (this) {
+      version = stylesVersion;
+    }
+    LabelStyle[] table = new LabelStyle[9];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = new LabelStyle(i + 1);
+    }
+
+    // la table n'est publiée que si aucun style n'a changé pendant sa construction
+    synchronized (this) {
+      if (version == stylesVersion) {
+        styles = table;
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Méthode privée appelée lorsqu'une préférence change. La table des styles est
+   * oubliée si la clé concerne un message de fond (ou si toutes les clés ont changé) ;
+   * elle sera reconstruite au prochain changement de texte.
+   *
+   * @param key la clé de la préférence modifiée (null si toutes les clés ont changé)
+   */
+  private synchronized void settingChanged(String key) {
+    if (key == null || key.startsWith("BG_MSG")
+        && (key.endsWith("_POS") || key.endsWith("_FONT") || key.endsWith("_COLOR"))) {
+      stylesVersion++;
+      styles = null;
+    }
+  }
   
 
+
+  /**
+   * Écouteur des préférences qui ne garde qu'une référence faible sur la scène :
+   * une scène abandonnée n'est pas retenue par les préférences, et l'écouteur
+   * se retire lui-même au premier changement qui suit sa disparition.
+   */
+  private static final class StyleListener implements Consumer<String> {
+
+    private final WeakReference<JfxMainScene> sceneRef;
+
+    private StyleListener(JfxMainScene scene) {
+      this.sceneRef = new WeakReference<>(scene);
+    }
+
+    @Override
+    public void accept(String key) {
+      JfxMainScene scene = sceneRef.get();
+      if (scene == null) {
+        JfxSettings.removeChangeListener(this);
+      } else {
+        scene.settingChanged(key);
+      }
+    }
+
+  }
+
+
+
+  /**
+   * Style immuable d'un message de fond, décodé depuis les préférences.
+   */
+  private static final class LabelStyle {
+
+    private final JfxLabelPosEnum pos;
+    private final Font font;
+    private final Color color;
+    private final HPos hpos;
+    private final VPos vpos;
+
+    private LabelStyle(int idx) {
+      pos = JfxSettings.getPosition(idx);
+      font = JfxSettings.getFont(idx);
+      color = JfxSettings.getColor(idx);
+
+      // alignement par défaut pour les colonnes
+      switch (pos.getCol()) {
+        case 1:
+          hpos = HPos.CENTER;
+          break;
+        case 2:
+          hpos = HPos.RIGHT;
+          break;
+        default:
+          hpos = HPos.LEFT;
+      }
+
+      // alignement par défaut pour les lignes
+      switch (pos.getRow()) {
+        case 1:
+          vpos = VPos.CENTER;
+          break;
+        case 2:
+          vpos = VPos.BOTTOM;
+          break;
+        default:
+          vpos = VPos.TOP;
+      }
+    }
+
+  }
+
+
+
   /**
    * Classe pour écouter les changements sur une propriété de type Number.
    */
@@ -0,0 +1,391 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Stockage des préférences dans un fichier binaire à structure fixe, projeté en mémoire.
+ * Le fichier est découpé en "slots" de taille identique, chacun contenant une clé et sa
+ * valeur. Lire ou écrire une clé revient à accéder directement à son slot (l'index des
+ * clés est gardé en mémoire), sans jamais réécrire tout le fichier.<br>
+ * <br>
+ * Structure du fichier :<br>
+ * - entête : "JFXS", version, nombre de slots, capacité des clés, capacité des valeurs ;<br>
+ * - slot : état (1 octet), réserve (1 octet), longueur de la clé (2 octets),
+ *   longueur de la valeur (4 octets), génération (8 octets), CRC32 (4 octets),
+ *   clé puis valeur en UTF-8.<br>
+ * <br>
+ * Une valeur n'est jamais réécrite sur place : la nouvelle valeur est écrite dans un slot
+ * libre avec une génération plus grande et son CRC, puis l'index bascule sur ce slot.
+ * L'ancien slot n'est libéré qu'après la synchronisation suivante (flush). Après un arrêt
+ * brutal, un slot dont le CRC est faux est ignoré et, pour une même clé, c'est le slot
+ * valide de plus grande génération qui est retenu : on retrouve l'ancienne ou la nouvelle
+ * valeur, jamais un mélange des deux.<br>
+ * <br>
+ * Le nombre de slots et leur capacité sont fixés à la création du fichier. Comme une
+ * valeur est remplacée dans un slot libre, un fichier plein ne peut plus être modifié.
+ *
+ * @author jcstritt
+ */
+public class JfxMappedBackend implements JfxSettingsBackend {
+  private static final int MAGIC = 0x4A465853; // "JFXS"
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 32;
+  private static final int SLOT_HEADER_SIZE = 20;
+  private static final byte SLOT_EMPTY = 0;
+  private static final byte SLOT_USED = 1;
+
+  /** nombre de slots par défaut d'un nouveau fichier */
+  public static final int DEF_SLOTS = 1024;
+
+  /** capacité par défaut (en octets UTF-8) d'une clé */
+  public static final int DEF_KEY_CAPACITY = 120;
+
+  /** capacité par défaut (en octets UTF-8) d'une valeur */
+  public static final int DEF_VALUE_CAPACITY = 1016;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int slots;
+  private final int keyCapacity;
+  private final int valueCapacity;
+  private final int slotSize;
+  private final Map<String, Integer> index;
+  private final Deque<Integer> freeSlots;
+  private final Deque<Integer> staleSlots;
+  private long generation;
+
+  /**
+   * Constructeur. Ouvre le fichier spécifié ou le crée avec la géométrie par défaut.
+   *
+   * @param file le chemin du fichier de stockage
+   * @throws IOException si le fichier ne peut pas être ouvert ou n'est pas valide
+   */
+  public JfxMappedBackend(Path file) throws IOException {
+    this(file, DEF_SLOTS, DEF_KEY_CAPACITY, DEF_VALUE_CAPACITY);
+  }
+
+  /**
+   * Constructeur. Ouvre le fichier spécifié ou le crée avec la géométrie donnée.
+   * Si le fichier existe déjà, c'est la géométrie enregistrée dans son entête qui est utilisée.
+   *
+   * @param file le chemin du fichier de stockage
+   * @param slots le nombre maximum de clés
+   * @param keyCapacity la longueur maximum d'une clé (en octets UTF-8)
+   * @param valueCapacity la longueur maximum d'une valeur (en octets UTF-8)
+   * @throws IOException si le fichier ne peut pas être ouvert ou n'est pas valide
+   */
+  public JfxMappedBackend(Path file, int slots, int keyCapacity, int valueCapacity) throws IOException {
+    this.file = file;
+    this.index = new HashMap<>();
+    this.freeSlots = new ArrayDeque<>();
+    this.staleSlots = new ArrayDeque<>();
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    boolean exists = Files.exists(file) && Files.size(file) >= HEADER_SIZE;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      if (exists) {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+          throw new IOException("Invalid settings file: " + file);
+        }
+        slots = header.getInt(8);
+        keyCapacity = header.getInt(12);
+        valueCapacity = header.getInt(16);
+      }
+      this.slots = slots;
+      this.keyCapacity = keyCapacity;
+      this.valueCapacity = valueCapacity;
+      this.slotSize = SLOT_HEADER_SIZE + keyCapacity + valueCapacity;
+      this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * slotSize);
+      if (!exists) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, slots);
+        buffer.putInt(12, keyCapacity);
+        buffer.putInt(16, valueCapacity);
+      }
+      loadIndex();
+    } catch (IOException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Méthode privée qui construit l'index des clés en parcourant tous les slots une seule fois.
+   * Les slots dont le CRC est faux (écriture interrompue) et les anciennes générations
+   * d'une clé sont libérés.
+   */
+  private void loadIndex() {
+    Map<String, Long> generations = new HashMap<>();
+    for (int i = 0; i < slots; i++) {
+      int pos = slotPos(i);
+      byte state = buffer.get(pos);
+      if (state != SLOT_USED || !isValid(pos)) {
+        if (state != SLOT_EMPTY) {
+          buffer.put(pos, SLOT_EMPTY);
+        }
+        freeSlots.add(i);
+        continue;
+      }
+      String key = readString(pos + SLOT_HEADER_SIZE, buffer.getShort(pos + 2));
+      long gen = buffer.getLong(pos + 8);
+      generation = Math.max(generation, gen);
+      Long other = generations.get(key);
+      int stale = i;
+      if (other == null || other < gen) {
+        Integer old = index.put(key, i);
+        generations.put(key, gen);
+        if (old == null) {
+          continue;
+        }
+        stale = old;
+      }
+      buffer.put(slotPos(stale), SLOT_EMPTY);
+      freeSlots.add(stale);
+    }
+  }
+
+  /**
+   * Méthode privée qui vérifie les longueurs et le CRC d'un slot occupé.
+   *
+   * @param pos la position du slot
+   * @return true si le slot a été entièrement écrit
+   */
+  private boolean isValid(int pos) {
+    int keyLen = buffer.getShort(pos + 2);
+    int valueLen = buffer.getInt(pos + 4);
+    if (keyLen < 0 || keyLen > keyCapacity || valueLen < 0 || valueLen > valueCapacity) {
+      return false;
+    }
+    return buffer.getInt(pos + 16) == checksum(pos, keyLen, valueLen);
+  }
+
+  /**
+   * Méthode privée qui calcule le CRC32 d'un slot : entête (sans l'état), clé et valeur.
+   *
+   * @param pos la position du slot
+   * @param keyLen la longueur de la clé (en octets)
+   * @param valueLen la longueur de la valeur (en octets)
+   * @return le CRC32 du slot
+   */
+  private int checksum(int pos, int keyLen, int valueLen) {
+    CRC32 crc = new CRC32();
+    crc.update(slice(pos + 1, 15));
+    crc.update(slice(pos + SLOT_HEADER_SIZE, keyLen));
+    crc.update(slice(pos + SLOT_HEADER_SIZE + keyCapacity, valueLen));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Méthode privée qui retourne une vue sur une partie du fichier, sans copie.
+   *
+   * @param pos la position du premier octet
+   * @param len le nombre d'octets
+   * @return une vue limitée à ces octets
+   */
+  private ByteBuffer slice(int pos, int len) {
+    ByteBuffer view = buffer.duplicate();
+    view.limit(pos + len);
+    view.position(pos);
+    return view;
+  }
+
+  /**
+   * Méthode privée qui retourne la position d'un slot dans le fichier.
+   *
+   * @param slot le numéro du slot
+   * @return la position du premier octet de ce slot
+   */
+  private int slotPos(int slot) {
+    return HEADER_SIZE + slot * slotSize;
+  }
+
+  /**
+   * Méthode privée qui lit un String en UTF-8 à une position donnée.
+   *
+   * @param pos la position du premier octet
+   * @param len le nombre d'octets à lire
+   * @return le String décodé
+   */
+  private String readString(int pos, int len) {
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = buffer.get(pos + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Méthode privée qui écrit des octets à une position donnée.
+   *
+   * @param pos la position du premier octet
+   * @param bytes les octets à écrire
+   */
+  private void writeBytes(int pos, byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      buffer.put(pos + i, bytes[i]);
+    }
+  }
+
+  /**
+   * Retourne le chemin du fichier de stockage.
+   *
+   * @return le chemin du fichier
+   */
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Retourne la longueur maximum d'une valeur, soit la capacité d'un slot.
+   *
+   * @return la longueur maximum d'une valeur (en octets UTF-8)
+   */
+  @Override
+  public int getMaxValueLength() {
+    return valueCapacity;
+  }
+
+  /**
+   * Retourne la longueur maximum d'une clé, soit la place réservée aux clés dans un slot.
+   *
+   * @return la longueur maximum d'une clé (en octets UTF-8)
+   */
+  @Override
+  public int getMaxKeyLength() {
+    return keyCapacity;
+  }
+
+  @Override
+  public String getName() {
+    String name = file.getFileName().toString();
+    int p = name.lastIndexOf('.');
+    return (p > 0) ? name.substring(0, p) : name;
+  }
+
+  @Override
+  public synchronized String get(String key) {
+    Integer slot = index.get(key);
+    if (slot == null) {
+      return null;
+    }
+    int pos = slotPos(slot);
+    return readString(pos + SLOT_HEADER_SIZE + keyCapacity, buffer.getInt(pos + 4));
+  }
+
+  /**
+   * Mémorise la valeur d'une clé dans un slot libre, puis fait pointer l'index sur ce slot.
+   * L'ancien slot de la clé reste intact jusqu'à la synchronisation suivante. Une valeur
+   * refusée (voir les exceptions) est signalée puis abandonnée par JfxSettingsStore,
+   * sans bloquer les autres valeurs.
+   *
+   * @param key la clé à mettre à jour
+   * @param value la nouvelle valeur
+   * @throws IllegalArgumentException si la clé ou la valeur est trop longue
+   * @throws IllegalStateException si tous les slots du fichier sont occupés
+   */
+  @Override
+  public synchronized void put(String key, String value) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    if (keyBytes.length > keyCapacity) {
+      throw new IllegalArgumentException("Key too long: " + key);
+    }
+    byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+    if (valueBytes.length > valueCapacity) {
+      throw new IllegalArgumentException("Value too long for key " + key);
+    }
+    if (freeSlots.isEmpty() && !staleSlots.isEmpty()) {
+      flush();
+    }
+    Integer slot = freeSlots.poll();
+    if (slot == null) {
+      throw new IllegalStateException("Settings file is full: " + file);
+    }
+
+    // le slot est entièrement écrit (CRC compris) avant d'être marqué comme occupé
+    int pos = slotPos(slot);
+    writeBytes(pos + SLOT_HEADER_SIZE, keyBytes);
+    writeBytes(pos + SLOT_HEADER_SIZE + keyCapacity, valueBytes);
+    buffer.putShort(pos + 2, (short) keyBytes.length);
+    buffer.putInt(pos + 4, valueBytes.length);
+    buffer.putLong(pos + 8, ++generation);
+    buffer.putInt(pos + 16, checksum(pos, keyBytes.length, valueBytes.length));
+    buffer.put(pos, SLOT_USED);
+    Integer old = index.put(key, slot);
+    if (old != null) {
+      staleSlots.add(old);
+    }
+  }
+
+  @Override
+  public synchronized void remove(String key) {
+    Integer slot = index.remove(key);
+    if (slot != null) {
+      buffer.put(slotPos(slot), SLOT_EMPTY);
+      freeSlots.add(slot);
+    }
+  }
+
+  @Override
+  public synchronized String[] keys() {
+    return index.keySet().toArray(new String[index.size()]);
+  }
+
+  /**
+   * Force l'écriture des changements sur le disque, puis libère les anciens slots
+   * des valeurs remplacées depuis la dernière synchronisation.
+   */
+  @Override
+  public synchronized void flush() {
+    buffer.force();
+    while (!staleSlots.isEmpty()) {
+      int slot = staleSlots.poll();
+      buffer.put(slotPos(slot), SLOT_EMPTY);
+      freeSlots.add(slot);
+    }
+  }
+
+  /**
+   * Ce stockage n'est modifié que par cette instance, il n'y a donc aucun changement
+   * extérieur à signaler.
+   *
+   * @param listener un écouteur qui reçoit la clé modifiée
+   */
+  @Override
+  public void addChangeListener(Consumer<String> listener) {
+  }
+
+  @Override
+  public void removeChangeListener(Consumer<String> listener) {
+  }
+
+  /**
+   * Force l'écriture des changements puis ferme le fichier.
+   *
+   * @throws IOException si le fichier ne peut pas être fermé
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    flush();
+    buffer.force();
+    channel.close();
+  }
+
+}
@@ -0,0 +1,18 @@
+package ch.jcsinfo.javafx.helpers;
+
+/**
+ * Règles de fusion lorsque plusieurs processus modifient la même préférence en même
+ * temps (voir JfxSharedBackend.setMergePolicy). Une écriture est en conflit si la clé
+ * a été modifiée par un autre processus depuis la dernière synchronisation de ce processus :
+ *
+ * LAST_WRITER_WINS  : l'écriture remplace quand même la valeur de l'autre processus (défaut) ;
+ * FIRST_WRITER_WINS : l'écriture est abandonnée, la valeur de l'autre processus est gardée
+ *                     et relue par ce processus.
+ *
+ * @author jcstritt
+ */
+public enum JfxMergePolicyEnum {
+  LAST_WRITER_WINS,
+  FIRST_WRITER_WINS
+
+}
@@ -0,0 +1,299 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Formatage et décodage rapides des nombres mémorisés dans les préférences.
+ * Le résultat est identique, caractère pour caractère, à celui obtenu avec un
+ * DecimalFormat "0.00..." (arrondi HALF_EVEN, séparateur décimal ".") ou avec les
+ * méthodes parseXxx des classes Integer, Long, Float et Double, mais sans créer
+ * d'objets intermédiaires (seul le String du résultat est créé).<br>
+ * <br>
+ * Les cas particuliers (valeur très proche d'un arrondi à mi-chemin, très grands
+ * nombres, NaN, infini, Locale avec d'autres chiffres ou signes...) sont délégués
+ * aux classes standard de Java.
+ *
+ * @author jcstritt
+ */
+public class JfxNumberFormat {
+  private static final int MAX_DECS = 15;
+  private static final double MAX_SCALED = 1e15;
+  private static final long MAX_EXACT_DOUBLE = 1L << 53;
+  private static final long MAX_EXACT_FLOAT = 1L << 24;
+
+  private static final double[] DOUBLE_POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+    1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  private static final float[] FLOAT_POW10 = {
+    1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+  };
+
+  private static final ThreadLocal<char[]> buffers = ThreadLocal.withInitial(() -> new char[32]);
+  private static volatile LocaleSymbols localeSymbols;
+
+  /**
+   * Méthode privée qui retourne les symboles de formatage de la Locale par défaut
+   * (recalculés seulement si la Locale par défaut change).
+   *
+   * @return les symboles de la Locale par défaut
+   */
+  private static LocaleSymbols getLocaleSymbols() {
+    Locale locale = Locale.getDefault();
+    LocaleSymbols ls = localeSymbols;
+    if (ls == null || ls.locale != locale) {
+      ls = new LocaleSymbols(locale);
+      localeSymbols = ls;
+    }
+    return ls;
+  }
+
+  /**
+   * Méthode privée. Prépare un format genre "0.00" avec un certain nombre de décimales.
+   *
+   * @param nbOfDecs nombre de decimales
+   * @return le motif de formatage
+   */
+  private static String getPattern(int nbOfDecs) {
+    if (nbOfDecs <= 0) {
+      return "0";
+    }
+    char[] array = new char[nbOfDecs];
+    Arrays.fill(array, '0');
+    return "0." + new String(array);
+  }
+
+  /**
+   * Méthode privée qui formate une valeur avec un DecimalFormat (cas particuliers).
+   *
+   * @param value la valeur à formater
+   * @param nbOfDecs nombre de decimales
+   * @return la valeur formatée
+   */
+  private static String formatSlow(double value, int nbOfDecs) {
+    return new DecimalFormat(getPattern(nbOfDecs), getLocaleSymbols().symbols).format(value);
+  }
+
+  /**
+   * Formate un nombre réel avec un nombre fixe de décimales, comme le ferait un
+   * DecimalFormat "0.00..." avec le séparateur décimal ".".
+   *
+   * @param value la valeur à formater
+   * @param nbOfDecs nombre de decimales (0 pour aucune)
+   * @return la valeur formatée (ex: "3.1416")
+   */
+  public static String format(double value, int nbOfDecs) {
+    int n = Math.max(0, nbOfDecs);
+    LocaleSymbols ls = getLocaleSymbols();
+    if (!ls.fast || n > MAX_DECS) {
+      return formatSlow(value, n);
+    }
+    double abs = Math.abs(value);
+    double scaled = abs * DOUBLE_POW10[n];
+    if (!(scaled < MAX_SCALED)) {
+      return formatSlow(value, n); // très grand nombre, NaN ou infini
+    }
+
+    // arrondi au plus proche, sauf si la valeur est trop proche du mi-chemin
+    // (le produit ci-dessus n'étant pas exact, l'arrondi HALF_EVEN est alors délégué)
+    double floor = Math.floor(scaled);
+    double frac = scaled - floor;
+    if (Math.abs(frac - 0.5) <= 2 * Math.ulp(scaled)) {
+      return formatSlow(value, n);
+    }
+    long digits = (long) floor + ((frac > 0.5) ? 1 : 0);
+
+    // écriture des chiffres de droite à gauche dans un tampon réutilisé
+    boolean negative = Double.doubleToRawLongBits(value) < 0;
+    char[] buf = buffers.get();
+    int pos = buf.length;
+    if (negative) {
+      for (int i = ls.negSuffix.length() - 1; i >= 0; i--) {
+        buf[--pos] = ls.negSuffix.charAt(i);
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      buf[--pos] = (char) ('0' + digits % 10);
+      digits /= 10;
+    }
+    if (n > 0) {
+      buf[--pos] = '.';
+    }
+    do {
+      buf[--pos] = (char) ('0' + digits % 10);
+      digits /= 10;
+    } while (digits > 0);
+    if (negative) {
+      for (int i = ls.negPrefix.length() - 1; i >= 0; i--) {
+        buf[--pos] = ls.negPrefix.charAt(i);
+      }
+    }
+    return new String(buf, pos, buf.length - pos);
+  }
+
+  /**
+   * Méthode privée qui décode un nombre décimal simple ([-]chiffres[.chiffres], avec
+   * d'éventuels espaces autour) sans créer d'objets. Le résultat est compacté dans un long :
+   * mantisse (bits 6 et suivants), nombre de décimales (bits 1 à 5) et signe (bit 0).
+   *
+   * @param value une valeur de type String
+   * @return le résultat compacté ou -1 si la valeur n'est pas un nombre décimal simple
+   */
+  private static long parseDecimal(String value) {
+    int i = 0;
+    int end = value.length();
+    while (i < end && value.charAt(i) <= ' ') {
+      i++;
+    }
+    while (end > i && value.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    boolean negative = i < end && value.charAt(i) == '-';
+    if (negative) {
+      i++;
+    }
+    long m = 0;
+    int nbOfDigits = 0;
+    int nbOfDecs = 0;
+    boolean dot = false;
+    for (; i < end; i++) {
+      char c = value.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (nbOfDigits == 18) {
+          return -1;
+        }
+        m = m * 10 + (c - '0');
+        nbOfDigits++;
+        if (dot) {
+          nbOfDecs++;
+        }
+      } else if (c == '.' && !dot) {
+        dot = true;
+      } else {
+        return -1;
+      }
+    }
+    if (nbOfDigits == 0 || m > MAX_EXACT_DOUBLE || nbOfDecs >= DOUBLE_POW10.length) {
+      return -1;
+    }
+    return (m << 6) | (nbOfDecs << 1) | (negative ? 1 : 0);
+  }
+
+  /**
+   * Décode un nombre réel de type "double", comme Double.parseDouble.
+   *
+   * @param value une valeur de type String (ex: "3.1416")
+   * @return la valeur décodée
+   * @throws NumberFormatException si la valeur n'est pas un nombre
+   */
+  public static double parseDouble(String value) {
+    long bits = parseDecimal(value);
+    if (bits < 0) {
+      return Double.parseDouble(value);
+    }
+
+    // mantisse et puissance de 10 exactes : une seule division, donc correctement arrondie
+    long m = bits >>> 6;
+    int nbOfDecs = (int) (bits >>> 1) & 0x1F;
+    double result = (nbOfDecs == 0) ? m : m / DOUBLE_POW10[nbOfDecs];
+    return ((bits & 1) != 0) ? -result : result;
+  }
+
+  /**
+   * Décode un nombre réel de type "float", comme Float.parseFloat.
+   *
+   * @param value une valeur de type String (ex: "0.714")
+   * @return la valeur décodée
+   * @throws NumberFormatException si la valeur n'est pas un nombre
+   */
+  public static float parseFloat(String value) {
+    long bits = parseDecimal(value);
+    long m = bits >>> 6;
+    int nbOfDecs = (int) (bits >>> 1) & 0x1F;
+    if (bits < 0 || m > MAX_EXACT_FLOAT || nbOfDecs >= FLOAT_POW10.length) {
+      return Float.parseFloat(value);
+    }
+    float result = (nbOfDecs == 0) ? m : m / FLOAT_POW10[nbOfDecs];
+    return ((bits & 1) != 0) ? -result : result;
+  }
+
+  /**
+   * Décode un entier de type "int", comme Integer.parseInt.
+   *
+   * @param value une valeur de type String (ex: "-10")
+   * @return la valeur décodée
+   * @throws NumberFormatException si la valeur n'est pas un entier
+   */
+  public static int parseInt(String value) {
+    long result = parseInteger(value, 9);
+    return (result != Long.MIN_VALUE) ? (int) result : Integer.parseInt(value);
+  }
+
+  /**
+   * Décode un entier de type "long", comme Long.parseLong.
+   *
+   * @param value une valeur de type String (ex: "20")
+   * @return la valeur décodée
+   * @throws NumberFormatException si la valeur n'est pas un entier
+   */
+  public static long parseLong(String value) {
+    long result = parseInteger(value, 18);
+    return (result != Long.MIN_VALUE) ? result : Long.parseLong(value);
+  }
+
+  /**
+   * Méthode privée qui décode un entier simple ([-]chiffres) sans créer d'objets.
+   *
+   * @param value une valeur de type String
+   * @param maxDigits le nombre maximum de chiffres (pour éviter tout dépassement)
+   * @return l'entier décodé ou Long.MIN_VALUE si la valeur n'est pas un entier simple
+   */
+  private static long parseInteger(String value, int maxDigits) {
+    int len = value.length();
+    boolean negative = len > 0 && value.charAt(0) == '-';
+    int i = negative ? 1 : 0;
+    if (i == len || len - i > maxDigits) {
+      return Long.MIN_VALUE;
+    }
+    long result = 0;
+    for (; i < len; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        return Long.MIN_VALUE;
+      }
+      result = result * 10 + (c - '0');
+    }
+    return negative ? -result : result;
+  }
+
+
+
+  /**
+   * Classe privée qui mémorise les symboles de formatage d'une Locale.
+   */
+  private static class LocaleSymbols {
+    private final Locale locale;
+    private final DecimalFormatSymbols symbols;
+    private final boolean fast;
+    private final String negPrefix;
+    private final String negSuffix;
+
+    LocaleSymbols(Locale locale) {
+      this.locale = locale;
+      this.symbols = new DecimalFormatSymbols(locale);
+      symbols.setDecimalSeparator('.');
+
+      // le formatage rapide n'est possible qu'avec les chiffres ASCII
+      DecimalFormat df = new DecimalFormat("0.00", symbols);
+      String neg = df.format(-1234567890.25);
+      int p = neg.indexOf("1234567890.25");
+      this.fast = df.format(1234567890.25).equals("1234567890.25") && p >= 0;
+      this.negPrefix = fast ? neg.substring(0, p) : "-";
+      this.negSuffix = fast ? neg.substring(p + 13) : "";
+    }
+  }
+
+}
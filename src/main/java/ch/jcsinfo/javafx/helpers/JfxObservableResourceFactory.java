@@ -1,24 +1,68 @@
 package ch.jcsinfo.javafx.helpers;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.application.Platform;
 import javafx.beans.binding.StringBinding;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 
 /**
- * Fabrique à resources pour permettre le changement de langue des resources à la volée.
+ * Fabrique à resources pour permettre le changement de langue des resources à la volée.<br>
+ * <br>
+ * Il n'existe qu'un seul objet de liaison (StringBinding) par clé, partagé par tous
+ * les composants qui affichent cette clé. Les liaisons ne dépendent pas directement
+ * du paquet de resources : lors d'un changement de langue, les textes de toutes les
+ * clés utilisées sont d'abord recherchés dans le nouveau paquet en arrière-plan, puis
+ * publiés en une seule fois dans le thread de JavaFX (Platform.runLater). Seules les
+ * liaisons dont le texte a changé sont invalidées.<br>
+ * <br>
+ * Si JavaFX n'est pas démarré (tests), les textes sont publiés directement
+ * dans le thread d'arrière-plan.
  *
  * @author jcstritt
  * @see <a href="https://stackoverflow.com/questions/32464974/javafx-change-application-language-on-the-run">Tutoriel</a>
  */
 public class JfxObservableResourceFactory {
+  private static ExecutorService executor;
+
   private ObjectProperty<ResourceBundle> objProperty; // = new SimpleObjectProperty<>();
+  private final Map<String, KeyBinding> bindings;
+  private final AtomicLong generation;
+  private volatile CompletableFuture<Void> pending;
 
   /**
    * Constructeur.
    */
   public JfxObservableResourceFactory() {
     objProperty = new SimpleObjectProperty<>();
+    bindings = new ConcurrentHashMap<>();
+    generation = new AtomicLong();
+    pending = CompletableFuture.completedFuture(null);
+    objProperty.addListener((obs, oldRB, newRB) -> switchBundle(newRB));
+  }
+
+  /**
+   * Méthode privée qui retourne l'exécuteur (un seul thread) des changements de langue.
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "JfxResources-switcher");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return executor;
   }
 
   public ObjectProperty<ResourceBundle> resourcesProperty() {
@@ -34,7 +78,8 @@ public class JfxObservableResourceFactory {
   }
 
   /**
-   * Définit le paquet de resources à utiliser,
+   * Définit le paquet de resources à utiliser.
+   * Les liaisons sont mises à jour un peu plus tard (voir switchResourcesBundle).
    *
    * @param rb une référence sur le paquet de resources à utiliser
    */
@@ -43,21 +88,131 @@ public class JfxObservableResourceFactory {
   }
 
   /**
-   * Retourne un objet de liaison pour une clé donnée.
+   * Définit le paquet de resources à utiliser et retourne un objet qui permet
+   * de savoir quand les nouveaux textes ont été publiés dans toutes les liaisons.
+   *
+   * @param rb une référence sur le paquet de resources à utiliser
+   * @return un CompletableFuture terminé lorsque les textes ont été publiés
+   */
+  public CompletableFuture<Void> switchResourcesBundle(ResourceBundle rb) {
+    setResourcesBundle(rb);
+    return pending;
+  }
+
+  /**
+   * Change de langue avec le paquet de resources d'une vue pris dans le cache
+   * commun (voir JfxBundleCache.preload pour le charger à l'avance).
+   *
+   * @param viewName le nom de la vue (sans extension)
+   * @param locale la nouvelle langue
+   * @return un CompletableFuture terminé lorsque les textes ont été publiés
+   * @throws java.util.MissingResourceException si le paquet de resources est introuvable
+   */
+  public CompletableFuture<Void> switchLocale(String viewName, Locale locale) {
+    return switchResourcesBundle(JfxBundleCache.get(viewName, locale).getResourceBundle());
+  }
+
+  /**
+   * Retourne un objet de liaison pour une clé donnée. Pour une même clé,
+   * c'est toujours le même objet qui est retourné. Si la clé est introuvable
+   * dans le paquet de resources, le texte de la liaison est la clé elle-même.
    *
    * @param key la clé de recherche d'une resource
    * @return l'objet de liaison de type StringBinding
    */
   public StringBinding getStringBinding(String key) {
-    return new StringBinding() {
-      {
-        bind(resourcesProperty());
+    return bindings.computeIfAbsent(key, k -> new KeyBinding(k, lookup(getResourcesBundle(), k)));
+  }
+
+  /**
+   * Retourne le nombre de liaisons (clés différentes) de cette fabrique.
+   *
+   * @return le nombre de liaisons
+   */
+  public int getBindingCount() {
+    return bindings.size();
+  }
+
+
+
+  /**
+   * Méthode privée appelée lors d'un changement de paquet de resources. Les textes sont
+   * recherchés en arrière-plan, puis publiés en une seule tâche dans le thread de JavaFX.
+   * Si un autre changement arrive entre-temps, les textes de ce changement sont abandonnés.
+   *
+   * @param rb le nouveau paquet de resources
+   */
+  private void switchBundle(ResourceBundle rb) {
+    long gen = generation.incrementAndGet();
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    pending = future;
+    getExecutor().execute(() -> {
+      try {
+        List<KeyBinding> list = new ArrayList<>(bindings.values());
+        String[] texts = new String[list.size()];
+        for (int i = 0; i < texts.length; i++) {
+          texts[i] = lookup(rb, list.get(i).key);
+        }
+        Runnable publish = () -> {
+          if (generation.get() == gen) {
+            for (int i = 0; i < texts.length; i++) {
+              list.get(i).setText(texts[i]);
+            }
+          }
+          future.complete(null);
+        };
+        try {
+          Platform.runLater(publish);
+        } catch (IllegalStateException ex) {
+          publish.run();
+        }
+      } catch (RuntimeException ex) {
+        future.completeExceptionally(ex);
       }
+    });
+  }
+
+  /**
+   * Méthode privée qui recherche le texte d'une clé dans un paquet de resources.
+   *
+   * @param rb le paquet de resources (peut être null)
+   * @param key la clé de recherche
+   * @return le texte trouvé ou la clé elle-même
+   */
+  private static String lookup(ResourceBundle rb, String key) {
+    if (rb != null && rb.containsKey(key)) {
+      return rb.getString(key);
+    }
+    return key;
+  }
+
+
+
+  /**
+   * Liaison partagée d'une clé, dont le texte est publié lors des changements de langue.
+   */
+  private static final class KeyBinding extends StringBinding {
 
-      @Override
-      public String computeValue() {
-        return getResourcesBundle().getString(key);
+    private final String key;
+    private String text;
+
+    private KeyBinding(String key, String text) {
+      this.key = key;
+      this.text = text;
+    }
+
+    private void setText(String text) {
+      if (!Objects.equals(this.text, text)) {
+        this.text = text;
+        invalidate();
       }
-    };
+    }
+
+    @Override
+    protected String computeValue() {
+      return text;
+    }
+
   }
+
 }
@@ -0,0 +1,149 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.PreferenceChangeEvent;
+import java.util.prefs.PreferenceChangeListener;
+import java.util.prefs.Preferences;
+
+/**
+ * Stockage par défaut des préférences de l'application, basé sur un noeud des préférences
+ * de Java (base de registre sous Windows, fichier plist sous MacOS, XML sous Linux).<br>
+ * <br>
+ * Avec un nom de noeud, les préférences de Java ne sont accédées qu'à la première
+ * utilisation réelle du stockage (voir JfxSettings.setSnapshotFile).
+ *
+ * @author jcstritt
+ */
+public class JfxPrefsBackend implements JfxSettingsBackend, PreferenceChangeListener {
+  private final String nodePath;
+  private final String userNodeName;
+  private final List<Consumer<String>> listeners;
+  private volatile Preferences node;
+
+  /**
+   * Constructeur.
+   *
+   * @param node le noeud des préférences à utiliser
+   */
+  public JfxPrefsBackend(Preferences node) {
+    this.nodePath = node.absolutePath();
+    this.userNodeName = node.name();
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.node = node;
+  }
+
+  /**
+   * Constructeur pour un noeud de l'arbre des préférences de l'utilisateur.
+   *
+   * @param userNodeName le nom identifiant le noeud pour l'utilisateur courant
+   */
+  public JfxPrefsBackend(String userNodeName) {
+    this.nodePath = userNodeName;
+    this.userNodeName = userNodeName.substring(userNodeName.lastIndexOf('/') + 1);
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.node = null;
+  }
+
+  /**
+   * Retourne le noeud des préférences utilisé. Celui-ci est recherché
+   * (ou créé) dans les préférences de Java lors du premier appel.
+   *
+   * @return le noeud des préférences
+   */
+  public Preferences getNode() {
+    Preferences n = node;
+    if (n == null) {
+      synchronized (this) {
+        n = node;
+        if (n == null) {
+          n = Preferences.userRoot().node(nodePath);
+          node = n;
+        }
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public String getName() {
+    return userNodeName;
+  }
+
+  @Override
+  public String get(String key) {
+    return getNode().get(key, null);
+  }
+
+  @Override
+  public void put(String key, String value) {
+    getNode().put(key, value);
+  }
+
+  @Override
+  public void remove(String key) {
+    getNode().remove(key);
+  }
+
+  @Override
+  public String[] keys() throws IOException {
+    try {
+      return getNode().keys();
+    } catch (BackingStoreException | IllegalStateException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    try {
+      getNode().flush();
+    } catch (BackingStoreException | IllegalStateException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  @Override
+  public void sync() throws IOException {
+    try {
+      getNode().sync();
+    } catch (BackingStoreException | IllegalStateException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  @Override
+  public synchronized void addChangeListener(Consumer<String> listener) {
+    if (listeners.isEmpty()) {
+      getNode().addPreferenceChangeListener(this);
+    }
+    listeners.add(listener);
+  }
+
+  @Override
+  public synchronized void removeChangeListener(Consumer<String> listener) {
+    listeners.remove(listener);
+    if (listeners.isEmpty()) {
+      try {
+        getNode().removePreferenceChangeListener(this);
+      } catch (IllegalArgumentException | IllegalStateException ex) {
+      }
+    }
+  }
+
+  /**
+   * Relaie un changement du noeud des préférences aux écouteurs de ce stockage.
+   *
+   * @param evt l'événement de changement
+   */
+  @Override
+  public void preferenceChange(PreferenceChangeEvent evt) {
+    for (Consumer<String> listener : listeners) {
+      listener.accept(evt.getKey());
+    }
+  }
+
+}
@@ -0,0 +1,17 @@
+package ch.jcsinfo.javafx.helpers;
+
+/**
+ * Interface à implémenter par les contrôleurs des vues réutilisées (voir JfxViewCache).
+ * Avant qu'une vue déjà chargée soit affichée à nouveau, la méthode reset de son
+ * contrôleur est appelée pour remettre la vue dans son état initial.
+ *
+ * @author jcstritt
+ */
+public interface JfxResettable {
+
+  /**
+   * Remet la vue et son contrôleur dans leur état initial (champs vidés, sélections annulées...).
+   */
+  void reset();
+
+}
@@ -1,16 +1,16 @@
 package ch.jcsinfo.javafx.helpers;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.util.Arrays;
-import java.util.Locale;
-import java.util.prefs.Preferences;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.Consumer;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.StringProperty;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
@@ -25,49 +25,48 @@ import javafx.scene.text.Font;
  * <br>
  * Sur MacOS, cela va écrire dans un fichier :
  * - /Users/nom_user/Library/Preferences/com.apple.java.util.prefs.plist<br>
+ * <br>
+ * Par défaut, chaque écriture est transmise immédiatement aux préférences. Avec
+ * setDurability, il est possible de retenir les écritures en mémoire pour les
+ * transmettre en un seul lot (voir JfxDurabilityEnum).<br>
+ * <br>
+ * Le stockage permanent peut aussi être remplacé avec setBackend, par exemple par
+ * un fichier binaire projeté en mémoire (voir JfxMappedBackend).<br>
+ * <br>
+ * Pour un démarrage encore plus rapide, une photo instantanée de toutes les préférences
+ * peut être écrite à l'arrêt de l'application et relue au démarrage (voir setSnapshotFile).<br>
+ * <br>
+ * Une préférence absente chez l'utilisateur prend la valeur des défauts du site (voir
+ * loadSiteFile), sinon celle des défauts livrés avec l'application (voir loadDefaults).<br>
+ * <br>
+ * Toutes ces méthodes utilisent un contexte de préférences par défaut (voir getDefault).
+ * Pour servir plusieurs noeuds en même temps dans une même JVM (par exemple une fenêtre
+ * d'outil par noeud), il suffit de créer d'autres contextes (voir JfxSettingsContext).
  *
  * @author jcstritt
  */
 public class JfxSettings {
-  private static Preferences prefs = Preferences.userRoot().node("prefs");
-
-/**
-   * Prépare un string d'une certaine longueur avec un caractère spécifié.
-   * Cela permet de préparer un format genre "#.##" avec un certain nb de décimales pour
-   * les méthodes setFloat et setDouble.
-   *
-   * @param len la longueur à obtenir
-   * @param ch le caractère qui remplira la chaine
-   * @return le String avec les caractères demandés
-   */
-  private static String fillString(int len, char ch) {
-    char[] array = new char[len];
-    Arrays.fill(array, ch);
-    return new String(array);
-  }
+  private static final JfxSettingsContext context = new JfxSettingsContext();
 
   /**
-   * Force le séparateur "." et pas de séparateur de milliers pour les stockages
-   * dans les préférences de valeurs "float" ou "double".
+   * Retourne le contexte des préférences utilisé par toutes les méthodes statiques
+   * de cette classe (noeud "prefs" par défaut, voir setUserNodeName).
    *
-   * @return les symboles
+   * @return le contexte des préférences par défaut
    */
-  private static DecimalFormatSymbols getDefSymbols() {
-    DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.getDefault());
-    symbols.setDecimalSeparator('.');
-//    unusualSymbols.setGroupingSeparator('\'');
-    return symbols;
+  public static JfxSettingsContext getDefault() {
+    return context;
   }
 
-  
-  
+
+
   /**
    * Récupère le nom du noeud des préférences de l'utilisateur.
    *
    * @return le nom du noeud
    */
   public static String getUserNodeName() {
-    return prefs.name();
+    return context.getUserNodeName();
   }
 
   /**
@@ -77,19 +76,178 @@ public class JfxSettings {
    * @param userNodeName le nom identifiant le noeud pour l'utilisateur courant
    */
   public static void setUserNodeName(String userNodeName) {
-    JfxSettings.prefs = Preferences.userRoot().node(userNodeName);
+    context.setUserNodeName(userNodeName);
+  }
+
+  /**
+   * Retourne le stockage permanent actuellement utilisé.
+   *
+   * @return le stockage permanent (JfxPrefsBackend par défaut)
+   */
+  public static JfxSettingsBackend getBackend() {
+    return context.getBackend();
+  }
+
+  /**
+   * Remplace le stockage permanent des préférences. Les écritures encore en attente
+   * sont d'abord transmises à l'ancien stockage, qui n'est toutefois pas fermé.
+   *
+   * @param backend le nouveau stockage permanent
+   */
+  public static void setBackend(JfxSettingsBackend backend) {
+    context.setBackend(backend);
+  }
+
+  /**
+   * Ajoute un écouteur qui recevra la clé de chaque préférence modifiée
+   * (ou null si toutes les préférences ont pu changer, après setBackend).
+   *
+   * @param listener un écouteur qui reçoit la clé modifiée
+   */
+  static void addChangeListener(Consumer<String> listener) {
+    context.addChangeListener(listener);
+  }
+
+  /**
+   * Retire un écouteur ajouté précédemment.
+   *
+   * @param listener l'écouteur à retirer
+   */
+  static void removeChangeListener(Consumer<String> listener) {
+    context.removeChangeListener(listener);
+  }
+
+
+
+  /**
+   * Retourne le niveau de durabilité des écritures.
+   *
+   * @return le niveau de durabilité actuel (SYNC par défaut)
+   */
+  public static JfxDurabilityEnum getDurability() {
+    return context.getDurability();
+  }
+
+  /**
+   * Définit le niveau de durabilité des écritures. Dans les modes NONE et ASYNC,
+   * les écritures en attente sont de toute façon transmises à l'arrêt de la JVM.
+   *
+   * @param durability le niveau de durabilité (NONE, ASYNC ou SYNC)
+   */
+  public static void setDurability(JfxDurabilityEnum durability) {
+    context.setDurability(durability);
+  }
+
+  /**
+   * Définit l'intervalle après lequel les écritures retenues en mémoire
+   * sont transmises en un seul lot (mode ASYNC).
+   *
+   * @param millis l'intervalle en millisecondes (2000 par défaut)
+   */
+  public static void setFlushInterval(long millis) {
+    context.setFlushInterval(millis);
+  }
+
+  /**
+   * Transmet immédiatement toutes les écritures en attente et force
+   * la sauvegarde des préférences sur le stockage permanent.
+   */
+  public static void flush() {
+    context.flush();
+  }
+
+
+
+  /**
+   * Retourne le fichier de la photo instantanée des préférences.
+   *
+   * @return le fichier de la photo ou null si cette fonction n'est pas utilisée
+   */
+  public static Path getSnapshotFile() {
+    return context.getSnapshotFile();
+  }
+
+  /**
+   * Définit un fichier pour une photo instantanée de toutes les préférences. La photo est
+   * écrite à l'arrêt de la JVM, puis relue (projetée en mémoire) lorsque le stockage est créé
+   * au démarrage suivant. Les préférences sont alors disponibles immédiatement, sans lire
+   * les préférences de Java, qui sont comparées à la photo en arrière-plan. Les différences
+   * éventuelles sont corrigées (et signalées aux propriétés liées).<br>
+   * Pour en profiter, cette méthode doit être appelée avant setUserNodeName (ou setBackend)
+   * et avant toute autre méthode de cette classe.
+   *
+   * @param file le fichier de la photo (null pour ne plus l'utiliser)
+   */
+  public static void setSnapshotFile(Path file) {
+    context.setSnapshotFile(file);
+  }
+
+  /**
+   * Écrit immédiatement la photo instantanée des préférences (voir setSnapshotFile).
+   */
+  public static void writeSnapshot() {
+    context.writeSnapshot();
+  }
+
+
+
+  /**
+   * Définit les valeurs par défaut livrées avec l'application (couche la plus basse).
+   * Elles sont utilisées pour toutes les préférences absentes chez l'utilisateur
+   * et dans les défauts du site.
+   *
+   * @param values une map avec les clés et les valeurs par défaut
+   */
+  public static void setDefaults(Map<String, String> values) {
+    context.setDefaults(values);
+  }
+
+  /**
+   * Charge les valeurs par défaut livrées avec l'application depuis un fichier
+   * de propriétés (en UTF-8), par exemple une ressource du JAR de l'application.<br>
+   * Exemple : JfxSettings.loadDefaults(App.class.getResource("/defaults.properties"));
+   *
+   * @param url l'adresse du fichier de propriétés
+   * @return true si le fichier a pu être chargé
+   */
+  public static boolean loadDefaults(URL url) {
+    return context.loadDefaults(url);
+  }
+
+  /**
+   * Définit les valeurs par défaut du site (par exemple de l'entreprise). Elles
+   * remplacent les défauts livrés avec l'application, mais pas les préférences de
+   * l'utilisateur.
+   *
+   * @param values une map avec les clés et les valeurs par défaut du site
+   */
+  public static void setSiteValues(Map<String, String> values) {
+    context.setSiteValues(values);
+  }
+
+  /**
+   * Charge (ou recharge) les valeurs par défaut du site depuis un fichier de
+   * propriétés (en UTF-8), par exemple sur un partage réseau. Seules les valeurs
+   * qui ont changé depuis le dernier chargement sont signalées.
+   *
+   * @param file le chemin du fichier de propriétés
+   * @return true si le fichier a pu être chargé
+   */
+  public static boolean loadSiteFile(Path file) {
+    return context.loadSiteFile(file);
   }
 
 
 
   /**
-   * Récupère une valeur de préférence.
+   * Récupère une valeur de préférence. Si l'utilisateur ne l'a pas mémorisée,
+   * c'est la valeur par défaut du site ou de l'application qui est retournée.
    *
    * @param pref une préférence de type String ou Enum
-   * @return la valeur de la préférence sous la forme d'un String
+   * @return la valeur de la préférence sous la forme d'un String ("" si elle n'existe pas)
    */
   public static String getValue(Object pref) {
-    return prefs.get(pref.toString(), "").trim();
+    return context.getValue(pref);
   }
 
   /**
@@ -99,7 +257,101 @@ public class JfxSettings {
    * @param value une valeur String à mettre à jour pour la clé donnée
    */
   public static void setValue(Object pref, String value) {
-    prefs.put(pref.toString(), value.trim());
+    context.setValue(pref, value);
+  }
+
+  /**
+   * Récupère plusieurs valeurs de préférences d'un seul coup. Les valeurs retournées
+   * forment un état cohérent : un groupe d'écritures (voir batch) y est soit
+   * entièrement visible, soit pas du tout.
+   *
+   * @param prefs des préférences de type String ou Enum
+   * @return un tableau avec les valeurs des préférences, dans le même ordre
+   */
+  public static String[] getValues(Object... prefs) {
+    return context.getValues(prefs);
+  }
+
+  /**
+   * Applique un groupe d'écritures d'un seul coup. Les écritures sont collectées par
+   * la fonction reçue, puis transmises ensemble au stockage. Si la fonction lève
+   * une exception, aucune écriture n'est appliquée.<br>
+   * Exemple : JfxSettings.batch(tx -&gt; tx.setInt("A", 1).setBoolean("B", true));
+   *
+   * @param tx une fonction qui reçoit le groupe d'écritures à remplir
+   */
+  public static void batch(Consumer<JfxSettingsBatch> tx) {
+    context.batch(tx);
+  }
+
+  /**
+   * Supprime une préférence. S'il s'agit d'un blob, tous ses morceaux sont aussi supprimés.
+   *
+   * @param pref une préférence de type String ou Enum
+   */
+  public static void removeValue(Object pref) {
+    context.removeValue(pref);
+  }
+
+
+
+  /**
+   * Retourne une propriété JavaFX liée dans les deux sens à une préférence : modifier
+   * la propriété mémorise la préférence, et un changement de la préférence (depuis
+   * n'importe quel thread) met à jour la propriété. Les changements sont regroupés et
+   * transmis une seule fois par passage dans le thread de JavaFX.<br>
+   * Pour une même préférence, c'est toujours la même propriété qui est retournée.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la propriété liée à cette préférence
+   */
+  public static StringProperty property(Object pref) {
+    return context.property(pref);
+  }
+
+  /**
+   * Retourne une propriété JavaFX de type "int" liée dans les deux sens à une préférence
+   * (voir property).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la propriété liée à cette préférence
+   */
+  public static IntegerProperty intProperty(Object pref) {
+    return context.intProperty(pref);
+  }
+
+  /**
+   * Retourne une propriété JavaFX de type "long" liée dans les deux sens à une préférence
+   * (voir property).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la propriété liée à cette préférence
+   */
+  public static LongProperty longProperty(Object pref) {
+    return context.longProperty(pref);
+  }
+
+  /**
+   * Retourne une propriété JavaFX de type "double" liée dans les deux sens à une préférence
+   * (voir property). Une fois mémorisée, la valeur est relue avec le nombre de décimales donné.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param nbOfDecs nombre de decimales à mémoriser
+   * @return la propriété liée à cette préférence
+   */
+  public static DoubleProperty doubleProperty(Object pref, int nbOfDecs) {
+    return context.doubleProperty(pref, nbOfDecs);
+  }
+
+  /**
+   * Retourne une propriété JavaFX de type "boolean" liée dans les deux sens à une préférence
+   * (voir property).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la propriété liée à cette préférence
+   */
+  public static BooleanProperty booleanProperty(Object pref) {
+    return context.booleanProperty(pref);
   }
 
 
@@ -111,8 +363,7 @@ public class JfxSettings {
    * @return true si la valeur de cette clé est "true"
    */
   public static boolean getBoolean(Object pref) {
-    String s = getValue(pref.toString());
-    return s.equalsIgnoreCase("true");
+    return context.getBoolean(pref);
   }
 
   /**
@@ -122,7 +373,7 @@ public class JfxSettings {
    * @param value une valeur booléenne à mémoriser
    */
   public static void setBoolean(Object pref, boolean value) {
-    setValue(pref, value ? "true" : "false");
+    context.setBoolean(pref, value);
   }
 
 
@@ -135,7 +386,7 @@ public class JfxSettings {
    * @return la valeur de cette préférence
    */
   public static int getInt(Object pref) {
-    return prefs.getInt(pref.toString(), 0);
+    return context.getInt(pref);
   }
 
   /**
@@ -145,7 +396,7 @@ public class JfxSettings {
    * @param value une valeur de type Integer à mémoriser
    */
   public static void setInt(Object pref, int value) {
-    setValue(pref, "" + value);
+    context.setInt(pref, value);
   }
 
 
@@ -158,7 +409,7 @@ public class JfxSettings {
    * @return la valeur de cette préférence
    */
   public static long getLong(Object pref) {
-    return prefs.getLong(pref.toString(), 0);
+    return context.getLong(pref);
   }
 
   /**
@@ -168,7 +419,7 @@ public class JfxSettings {
    * @param value une valeur de type Long à mémoriser
    */
   public static void setLong(Object pref, long value) {
-    setValue(pref, "" + value);
+    context.setLong(pref, value);
   }
 
 
@@ -181,7 +432,7 @@ public class JfxSettings {
    * @return la valeur de cette clé (nombre réel de type float)
    */
   public static float getFloat(Object pref) {
-    return prefs.getFloat(pref.toString(), 0f);
+    return context.getFloat(pref);
   }
 
   /**
@@ -192,8 +443,7 @@ public class JfxSettings {
    * @param nbOfDecs nombre de decimales à mémoriser
    */
   public static void setFloat(Object pref, float value, int nbOfDecs) {
-    String fmt = (nbOfDecs > 0) ? "0." + fillString(nbOfDecs, '0') : "0";
-    setValue(pref, new DecimalFormat(fmt, getDefSymbols()).format(value));
+    context.setFloat(pref, value, nbOfDecs);
   }
 
 
@@ -206,7 +456,7 @@ public class JfxSettings {
    * @return la valeur de cette préférence
    */
   public static double getDouble(Object pref) {
-    return prefs.getDouble(pref.toString(), 0d);
+    return context.getDouble(pref);
   }
 
   /**
@@ -217,74 +467,76 @@ public class JfxSettings {
    * @param nbOfDecs nombre de decimales à mémoriser
    */
   public static void setDouble(Object pref, double value, int nbOfDecs) {
-    String fmt = (nbOfDecs > 0) ? "0." + fillString(nbOfDecs, '0') : "0";
-    setValue(pref, new DecimalFormat(fmt, getDefSymbols()).format(value));
+    context.setDouble(pref, value, nbOfDecs);
   }
 
 
 
   /**
-   * Récupère un objet sérialisé dans une préférence.
+   * Récupère un objet mémorisé dans une préférence avec setObject.
+   * Si l'objet ne peut pas être décodé, l'erreur est affichée et null est retourné.
    *
    * @param pref une préférence de type String ou Enum
-   * @return l'objet désérialisé ou null;
+   * @return l'objet décodé ou null;
    */
   public static Object getObject(Object pref) {
-    Object obj = null;
-    byte[] bytes = prefs.getByteArray(pref.toString(), new byte[0]);
-    if (bytes.length > 0) {
-      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
-        obj = in.readObject();
-      } catch (ClassNotFoundException | IOException ex) {
-      }
-    }
-    return obj;
+    return context.getObject(pref);
   }
 
   /**
    * Mémorise un objet quelconque dans un tableau d'octets stockés dans les préférences de l'application.
+   * Les types courants (types primitifs, tableaux, String, Rectangle2D, Color, listes et maps) sont
+   * encodés de manière compacte par JfxCodecRegistry, les autres avec la sérialisation Java.
+   * Si l'objet encodé dépasse la longueur maximum d'une valeur, il est mémorisé comme un blob.
+   * Si l'objet ne peut pas être encodé, l'erreur est affichée et la préférence est vidée.
    *
    * @param pref une préférence de type String ou Enum
-   * @param value un objet de type quelconque, mais qui implémente la classe Serializable
+   * @param value un objet d'un type connu de JfxCodecRegistry ou qui implémente l'interface Serializable
    */
   public static void setObject(Object pref, Object value) {
-    setValue(pref, "");
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
-    ObjectOutput out;
-    try {
-      out = new ObjectOutputStream(os);
-      out.writeObject(value);
-      out.flush();
-      byte[] bytes = os.toByteArray();
-      prefs.putByteArray(pref.toString(), bytes);
-    } catch (IOException ex) {
-    } finally {
-      try {
-        os.close();
-      } catch (IOException ex) {
-      }
-    }
+    context.setObject(pref, value);
   }
 
 
 
   /**
-   * Récupère un objet Rectangle.
+   * Ouvre un flux d'écriture vers une grande valeur binaire (blob). Les octets sont compressés
+   * et découpés en morceaux au fur et à mesure de l'écriture. L'ancienne valeur n'est remplacée
+   * qu'à la fermeture du flux.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return un flux d'écriture (à fermer après usage)
+   */
+  public static OutputStream openBlobOutput(Object pref) {
+    return context.openBlobOutput(pref);
+  }
+
+  /**
+   * Ouvre un flux de lecture depuis une grande valeur binaire (blob) mémorisée avec openBlobOutput.
+   * Les morceaux sont lus et décompressés au fur et à mesure de la lecture.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return un flux de lecture (vide si la préférence n'est pas un blob)
+   */
+  public static InputStream openBlobInput(Object pref) {
+    return context.openBlobInput(pref);
+  }
+
+
+
+  /**
+   * Récupère un objet Rectangle. Les quatre valeurs sont lues d'un seul coup,
+   * le rectangle ne peut donc pas mélanger deux écritures différentes.
    *
    * @param prefId identifie le début de la préférence
    * @return un objet Rectangle;
    */
   public static Rectangle2D getRectangle(String prefId) {
-    String s = prefId.toUpperCase();
-    double x = getDouble(s + "_X");
-    double y = getDouble(s + "_Y");
-    double w = getDouble(s + "_WIDTH");
-    double h = getDouble(s + "_HEIGHT");
-    return new Rectangle2D(x, y, w, h);
+    return context.getRectangle(prefId);
   }
 
   /**
-   * Mémoriser un objet de type Rectangle.
+   * Mémoriser un objet de type Rectangle. Les quatre valeurs sont écrites d'un seul coup.
    *
    * @param prefId identifie le début de la préférence
    * @param x la position x du rectangle
@@ -293,25 +545,17 @@ public class JfxSettings {
    * @param height la hauteur du rectangle
    */
   public static void setRectangle(String prefId, double x, double y, double width, double height) {
-    String s = prefId.toUpperCase();
-    setDouble(s + "_X", x, 2);
-    setDouble(s + "_Y", y, 2);
-    setDouble(s + "_WIDTH", width, 2);
-    setDouble(s + "_HEIGHT", height, 2);
+    context.setRectangle(prefId, x, y, width, height);
   }
 
   /**
-   * Mémoriser un objet de type Rectangle.
+   * Mémoriser un objet de type Rectangle. Les quatre valeurs sont écrites d'un seul coup.
    *
    * @param prefId identifie le début de la préférence
    * @param rect un objet Rectangle2D
    */
   public static void setRectangle(String prefId, Rectangle2D rect) {
-    String s = prefId.toUpperCase();
-    setDouble(s + "_X", rect.getMinX(), 2);
-    setDouble(s + "_Y", rect.getMinY(), 2);
-    setDouble(s + "_WIDTH", rect.getWidth(), 2);
-    setDouble(s + "_HEIGHT", rect.getHeight(), 2);
+    context.setRectangle(prefId, rect);
   }
   
   /**
@@ -322,8 +566,7 @@ public class JfxSettings {
    * @return un objet de type JfxLabelPosEnum (position de label)
    */
   public static JfxLabelPosEnum getPosition(Object pref) {
-    String value = getValue(pref);
-    return JfxConverter.getPos(value);
+    return context.getPosition(pref);
   } 
   
   /**
@@ -334,7 +577,7 @@ public class JfxSettings {
    * @return un objet de type JfxLabelPosEnum (position de label)
    */
   public static JfxLabelPosEnum getPosition(int idx) {
-    return getPosition("BG_MSG" + idx + "_POS");
+    return context.getPosition(idx);
   } 
   
   /**
@@ -344,8 +587,7 @@ public class JfxSettings {
    * @return un objet de type Font (police)
    */
   public static Font getFont(Object pref) {
-    String value = getValue(pref);
-    return JfxConverter.getFont(value);
+    return context.getFont(pref);
   }
   
     /**
@@ -355,7 +597,7 @@ public class JfxSettings {
    * @return un objet de type Font (police)
    */
   public static Font getFont(int idx) {
-    return getFont("BG_MSG" + idx + "_FONT");
+    return context.getFont(idx);
   }
   
   /**
@@ -365,8 +607,7 @@ public class JfxSettings {
    * @return un objet de type Color (couleur)
    */
   public static Color getColor(Object pref) {
-    String value = getValue(pref);
-    return JfxConverter.getColor(value);
+    return context.getColor(pref);
   }  
   
   /**
@@ -376,7 +617,20 @@ public class JfxSettings {
    * @return un objet de type Color (couleur)
    */
   public static Color getColor(int idx) {
-    return getColor("BG_MSG" + idx + "_COLOR");
+    return context.getColor(idx);
   }    
 
+  /**
+   * Retourne la valeur d'une préférence convertie dans le type spécifié
+   * (ex: Font.class, Color.class, int.class), avec le registre de JfxConverter.
+   *
+   * @param <T> le type de l'objet retourné
+   * @param pref une préférence de type String ou Enum
+   * @param type la classe de l'objet retourné
+   * @return un objet du type spécifié
+   */
+  public static <T> T get(Object pref, Class<T> type) {
+    return context.get(pref, type);
+  }
+
 }
@@ -0,0 +1,149 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.prefs.Preferences;
+
+/**
+ * Interface d'un stockage permanent pour les préférences de l'application (voir
+ * JfxSettings.setBackend). Par défaut, c'est le stockage des préférences de Java
+ * qui est utilisé (JfxPrefsBackend), mais il est possible de le remplacer par un
+ * autre, par exemple un fichier binaire projeté en mémoire (JfxMappedBackend).<br>
+ * <br>
+ * Les valeurs sont toujours des String. Les conversions (entiers, réels, objets...)
+ * sont du ressort de JfxSettings.
+ *
+ * @author jcstritt
+ */
+public interface JfxSettingsBackend {
+
+  /**
+   * Retourne le nom qui identifie ce stockage (par exemple le nom du noeud des préférences).
+   *
+   * @return le nom du stockage
+   */
+  String getName();
+
+  /**
+   * Récupère la valeur d'une clé.
+   *
+   * @param key la clé recherchée
+   * @return la valeur trouvée ou null si la clé n'existe pas
+   */
+  String get(String key);
+
+  /**
+   * Mémorise la valeur d'une clé.
+   *
+   * @param key la clé à mettre à jour
+   * @param value la nouvelle valeur
+   */
+  void put(String key, String value);
+
+  /**
+   * Retourne la longueur maximum d'une valeur. Les valeurs plus longues
+   * (objets, blobs) sont découpées en morceaux par JfxSettings.
+   * Par défaut, c'est la limite des préférences de Java qui est retournée.
+   *
+   * @return la longueur maximum d'une valeur (en caractères ASCII)
+   */
+  default int getMaxValueLength() {
+    return Preferences.MAX_VALUE_LENGTH;
+  }
+
+  /**
+   * Retourne la longueur maximum d'une clé. Les clés des morceaux d'un blob
+   * ("pref#génération.n") sont vérifiées avec cette limite avant d'être écrites.
+   * Par défaut, c'est la limite des préférences de Java qui est retournée.
+   *
+   * @return la longueur maximum d'une clé (en caractères)
+   */
+  default int getMaxKeyLength() {
+    return Preferences.MAX_KEY_LENGTH;
+  }
+
+  /**
+   * Mémorise plusieurs valeurs en une seule opération. Une valeur null supprime
+   * la clé correspondante dans la même opération.
+   * Par défaut, les valeurs sont simplement mémorisées (ou supprimées) l'une après l'autre.
+   *
+   * @param values une map avec les clés et les valeurs à mémoriser (null pour supprimer)
+   */
+  default void putAll(Map<String, String> values) {
+    for (Map.Entry<String, String> e : values.entrySet()) {
+      if (e.getValue() != null) {
+        put(e.getKey(), e.getValue());
+      } else {
+        remove(e.getKey());
+      }
+    }
+  }
+
+  /**
+   * Supprime une clé et sa valeur.
+   *
+   * @param key la clé à supprimer
+   */
+  void remove(String key);
+
+  /**
+   * Retourne toutes les clés actuellement mémorisées.
+   *
+   * @return un tableau avec les clés
+   * @throws IOException si le stockage ne peut pas être lu
+   */
+  String[] keys() throws IOException;
+
+  /**
+   * Force l'écriture des changements sur le stockage permanent.
+   *
+   * @throws IOException si le stockage ne peut pas être écrit
+   */
+  void flush() throws IOException;
+
+  /**
+   * Relit les changements faits sur le stockage permanent par d'autres processus.
+   * Par défaut, il n'y a rien à relire.
+   *
+   * @throws IOException si le stockage ne peut pas être lu
+   */
+  default void sync() throws IOException {
+  }
+
+  /**
+   * Exécute une action sans qu'un autre processus ne puisse modifier ce stockage
+   * pendant ce temps (voir JfxSharedBackend). Par défaut, l'action est simplement exécutée.
+   *
+   * @param action l'action à exécuter
+   */
+  default void runExclusive(Runnable action) {
+    action.run();
+  }
+
+  /**
+   * Ajoute un écouteur qui recevra la clé de chaque valeur modifiée par une
+   * source extérieure (autre partie de l'application, autre processus...).
+   * Un stockage peut aussi signaler ses propres changements.
+   *
+   * @param listener un écouteur qui reçoit la clé modifiée
+   */
+  void addChangeListener(Consumer<String> listener);
+
+  /**
+   * Retire un écouteur de changements ajouté précédemment.
+   *
+   * @param listener l'écouteur à retirer
+   */
+  void removeChangeListener(Consumer<String> listener);
+
+  /**
+   * Libère les ressources du stockage. Par défaut, force simplement l'écriture des changements.
+   *
+   * @throws IOException si le stockage ne peut pas être écrit
+   */
+  default void close() throws IOException {
+    flush();
+  }
+
+}
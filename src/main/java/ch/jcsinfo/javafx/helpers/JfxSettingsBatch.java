@@ -0,0 +1,142 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javafx.geometry.Rectangle2D;
+
+/**
+ * Groupe d'écritures de préférences à appliquer d'un seul coup (voir JfxSettings.batch).
+ * Les méthodes reprennent celles de JfxSettings, mais les valeurs ne sont que collectées.
+ * Elles ne deviennent visibles qu'à la fin du groupe, toutes en même temps.
+ *
+ * @author jcstritt
+ */
+public class JfxSettingsBatch {
+  private final Map<String, String> values;
+
+  /**
+   * Constructeur (voir JfxSettings.batch).
+   */
+  JfxSettingsBatch() {
+    values = new LinkedHashMap<>();
+  }
+
+  /**
+   * Retourne les valeurs collectées (null pour une clé à supprimer).
+   *
+   * @return une map avec les clés et les valeurs
+   */
+  Map<String, String> getValues() {
+    return values;
+  }
+
+  /**
+   * Mémorise une valeur de préférence.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur String à mettre à jour pour la clé donnée
+   * @return ce groupe d'écritures (pour chaîner les appels)
+   */
+  public JfxSettingsBatch setValue(Object pref, String value) {
+    values.put(pref.toString(), value.trim());
+    return this;
+  }
+
+  /**
+   * Supprime une préférence.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return ce groupe d'écritures (pour chaîner les appels)
+   */
+  public JfxSettingsBatch removeValue(Object pref) {
+    values.put(pref.toString(), null);
+    return this;
+  }
+
+  /**
+   * Mémorise une valeur de préférence de type "boolean".
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur booléenne à mémoriser
+   * @return ce groupe d'écritures (pour chaîner les appels)
+   */
+  public JfxSettingsBatch setBoolean(Object pref, boolean value) {
+    return setValue(pref, value ? "true" : "false");
+  }
+
+  /**
+   * Mémorise une valeur de type int (Integer).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur de type Integer à mémoriser
+   * @return ce groupe d'écritures (pour chaîner les appels)
+   */
+  public JfxSettingsBatch setInt(Object pref, int value) {
+    return setValue(pref, Integer.toString(value));
+  }
+
+  /**
+   * Mémorise une valeur de type long (Long Integer).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur de type Long à mémoriser
+   * @return ce groupe d'écritures (pour chaîner les appels)
+   */
+  public JfxSettingsBatch setLong(Object pref, long value) {
+    return setValue(pref, Long.toString(value));
+  }
+
+  /**
+   * Mémorise une valeur de type "float".
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur de type "float" à mémoriser
+   * @param nbOfDecs nombre de decimales à mémoriser
+   * @return ce groupe d'écritures (pour chaîner les appels)
+   */
+  public JfxSettingsBatch setFloat(Object pref, float value, int nbOfDecs) {
+    return setValue(pref, JfxNumberFormat.format(value, nbOfDecs));
+  }
+
+  /**
+   * Mémorise une valeur de type "double".
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur de type "double" à mémoriser
+   * @param nbOfDecs nombre de decimales à mémoriser
+   * @return ce groupe d'écritures (pour chaîner les appels)
+   */
+  public JfxSettingsBatch setDouble(Object pref, double value, int nbOfDecs) {
+    return setValue(pref, JfxNumberFormat.format(value, nbOfDecs));
+  }
+
+  /**
+   * Mémoriser un objet de type Rectangle.
+   *
+   * @param prefId identifie le début de la préférence
+   * @param x la position x du rectangle
+   * @param y la position y du rectangle
+   * @param width la largeur du rectangle
+   * @param height la hauteur du rectangle
+   * @return ce groupe d'écritures (pour chaîner les appels)
+   */
+  public JfxSettingsBatch setRectangle(String prefId, double x, double y, double width, double height) {
+    String s = prefId.toUpperCase();
+    setDouble(s + "_X", x, 2);
+    setDouble(s + "_Y", y, 2);
+    setDouble(s + "_WIDTH", width, 2);
+    return setDouble(s + "_HEIGHT", height, 2);
+  }
+
+  /**
+   * Mémoriser un objet de type Rectangle.
+   *
+   * @param prefId identifie le début de la préférence
+   * @param rect un objet Rectangle2D
+   * @return ce groupe d'écritures (pour chaîner les appels)
+   */
+  public JfxSettingsBatch setRectangle(String prefId, Rectangle2D rect) {
+    return setRectangle(prefId, rect.getMinX(), rect.getMinY(), rect.getWidth(), rect.getHeight());
+  }
+
+}
@@ -0,0 +1,298 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Mémorisation de grandes valeurs binaires ("blobs") dans les préférences. Les octets
+ * sont compressés (Deflater), puis découpés en morceaux qui respectent la longueur
+ * maximum d'une valeur du stockage. Chaque morceau est mémorisé en Base64 sous sa
+ * propre clé ("pref#génération.n"), et la clé de la préférence elle-même ne contient
+ * qu'un descripteur ("#BLOB:génération:nombre de morceaux").<br>
+ * <br>
+ * Les morceaux sont écrits dans une nouvelle génération et le descripteur n'est mis à
+ * jour qu'à la fermeture du flux. Une écriture interrompue laisse donc l'ancien blob
+ * intact. Les flux lisent et écrivent un morceau à la fois, sans jamais garder tout
+ * le blob en mémoire.<br>
+ * <br>
+ * Les morceaux et le descripteur sont transmis tout de suite au stockage permanent
+ * (JfxSettingsStore.putNow), quelle que soit la durabilité. Si le stockage refuse un
+ * morceau (clé trop longue, stockage plein...), le flux lève une IOException, les
+ * morceaux de la nouvelle génération sont supprimés et l'ancien blob reste intact.
+ *
+ * @author jcstritt
+ */
+class JfxSettingsBlob {
+  private static final String MARKER = "#BLOB:";
+
+  /**
+   * Retourne vrai (true) si une valeur est le descripteur d'un blob.
+   *
+   * @param value une valeur de préférence
+   * @return true si cette valeur désigne un blob
+   */
+  static boolean isBlob(String value) {
+    return value.startsWith(MARKER);
+  }
+
+  /**
+   * Méthode privée qui retourne la clé d'un morceau de blob.
+   *
+   * @param key la clé de la préférence
+   * @param gen la génération du blob (0 ou 1)
+   * @param idx le numéro du morceau
+   * @return la clé du morceau
+   */
+  private static String chunkKey(String key, int gen, int idx) {
+    return key + "#" + gen + "." + idx;
+  }
+
+  /**
+   * Méthode privée qui décode un descripteur de blob.
+   *
+   * @param value la valeur de la préférence
+   * @return un tableau {génération, nombre de morceaux} ou null si ce n'est pas un blob
+   */
+  private static int[] parseMarker(String value) {
+    if (!isBlob(value)) {
+      return null;
+    }
+    int p = value.indexOf(':', MARKER.length());
+    try {
+      int gen = Integer.parseInt(value.substring(MARKER.length(), p));
+      int count = Integer.parseInt(value.substring(p + 1));
+      return new int[]{gen, count};
+    } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Méthode privée qui supprime les morceaux d'une génération, à partir d'un numéro donné.
+   *
+   * @param store le stockage des préférences
+   * @param key la clé de la préférence
+   * @param gen la génération à nettoyer
+   * @param from le numéro du premier morceau à supprimer
+   */
+  private static void removeChunks(JfxSettingsStore store, String key, int gen, int from) {
+    for (int i = from; !store.get(chunkKey(key, gen, i)).isEmpty(); i++) {
+      store.remove(chunkKey(key, gen, i));
+    }
+  }
+
+  /**
+   * Ouvre un flux d'écriture vers un blob. Le blob n'est remplacé qu'à la fermeture du flux.
+   *
+   * @param store le stockage des préférences
+   * @param key la clé de la préférence
+   * @return un flux d'écriture avec compression
+   */
+  static OutputStream openOutput(JfxSettingsStore store, String key) {
+    return new DeflaterOutputStream(new ChunkOutputStream(store, key));
+  }
+
+  /**
+   * Ouvre un flux de lecture depuis un blob. Si la préférence n'est pas un blob,
+   * le flux est vide.
+   *
+   * @param store le stockage des préférences
+   * @param key la clé de la préférence
+   * @return un flux de lecture avec décompression
+   */
+  static InputStream openInput(JfxSettingsStore store, String key) {
+    int[] marker = parseMarker(store.get(key));
+    if (marker == null) {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+    return new InflaterInputStream(new ChunkInputStream(store, key, marker[0], marker[1]));
+  }
+
+  /**
+   * Supprime un blob avec tous ses morceaux.
+   *
+   * @param store le stockage des préférences
+   * @param key la clé de la préférence
+   */
+  static void remove(JfxSettingsStore store, String key) {
+    int[] marker = parseMarker(store.get(key));
+    store.remove(key);
+    if (marker != null) {
+      removeChunks(store, key, marker[0], 0);
+    }
+  }
+
+
+
+  /**
+   * Classe privée pour écrire un flux d'octets en morceaux de taille fixe.
+   */
+  private static class ChunkOutputStream extends OutputStream {
+    private final JfxSettingsStore store;
+    private final String key;
+    private final int gen;
+    private final byte[] chunk;
+    private int len;
+    private int count;
+    private boolean closed;
+    private boolean failed;
+
+    ChunkOutputStream(JfxSettingsStore store, String key) {
+      this.store = store;
+      this.key = key;
+      int[] marker = parseMarker(store.get(key));
+      this.gen = (marker != null) ? 1 - marker[0] : 0;
+
+      // 4 caractères Base64 pour 3 octets
+      this.chunk = new byte[Math.max(3, store.getBackend().getMaxValueLength() / 4 * 3)];
+    }
+
+    private void writeChunk() throws IOException {
+      if (len > 0) {
+        String chunkKey = chunkKey(key, gen, count);
+        try {
+          if (chunkKey.getBytes(StandardCharsets.UTF_8).length > store.getBackend().getMaxKeyLength()) {
+            throw new IOException("Blob chunk key too long: " + chunkKey);
+          }
+          store.putNow(chunkKey, Base64.getEncoder().encodeToString(
+              (len == chunk.length) ? chunk : Arrays.copyOf(chunk, len)));
+        } catch (IOException ex) {
+          fail();
+          throw ex;
+        }
+        count++;
+        len = 0;
+      }
+    }
+
+    /**
+     * Abandonne l'écriture : les morceaux de la nouvelle génération sont supprimés,
+     * l'ancien blob reste intact.
+     */
+    private void fail() {
+      failed = true;
+      closed = true;
+      removeChunks(store, key, gen, 0);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      chunk[len++] = (byte) b;
+      if (len == chunk.length) {
+        writeChunk();
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int n) throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      while (n > 0) {
+        int k = Math.min(n, chunk.length - len);
+        System.arraycopy(b, off, chunk, len, k);
+        len += k;
+        off += k;
+        n -= k;
+        if (len == chunk.length) {
+          writeChunk();
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (failed) {
+        throw new IOException("Blob not written: " + key);
+      }
+      if (!closed) {
+        writeChunk();
+        closed = true;
+
+        // morceaux restés d'une écriture interrompue de cette même génération
+        removeChunks(store, key, gen, count);
+
+        // le nouveau blob devient visible, puis l'ancienne génération est supprimée
+        try {
+          store.putNow(key, MARKER + gen + ":" + count);
+        } catch (IOException ex) {
+          fail();
+          throw ex;
+        }
+        removeChunks(store, key, 1 - gen, 0);
+      }
+    }
+  }
+
+
+
+  /**
+   * Classe privée pour relire un flux d'octets morceau par morceau.
+   */
+  private static class ChunkInputStream extends InputStream {
+    private final JfxSettingsStore store;
+    private final String key;
+    private final int gen;
+    private final int count;
+    private byte[] chunk;
+    private int pos;
+    private int idx;
+
+    ChunkInputStream(JfxSettingsStore store, String key, int gen, int count) {
+      this.store = store;
+      this.key = key;
+      this.gen = gen;
+      this.count = count;
+      this.chunk = new byte[0];
+    }
+
+    private boolean nextChunk() throws IOException {
+      while (pos >= chunk.length) {
+        if (idx >= count) {
+          return false;
+        }
+        String value = store.get(chunkKey(key, gen, idx++));
+        if (value.isEmpty()) {
+          throw new IOException("Missing blob chunk " + (idx - 1) + " for " + key);
+        }
+        try {
+          chunk = Base64.getDecoder().decode(value);
+        } catch (IllegalArgumentException ex) {
+          throw new IOException("Invalid blob chunk " + (idx - 1) + " for " + key, ex);
+        }
+        pos = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return nextChunk() ? (chunk[pos++] & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int n) throws IOException {
+      if (n == 0) {
+        return 0;
+      }
+      if (!nextChunk()) {
+        return -1;
+      }
+      int k = Math.min(n, chunk.length - pos);
+      System.arraycopy(chunk, pos, b, off, k);
+      pos += k;
+      return k;
+    }
+  }
+
+}
@@ -0,0 +1,967 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.StringProperty;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+/**
+ * Contexte de préférences de l'application : un stockage permanent (par défaut un noeud
+ * des préférences de Java), avec sa durabilité, sa photo instantanée, ses propriétés
+ * liées et ses écouteurs. Plusieurs contextes peuvent être utilisés en même temps dans
+ * une même JVM, par exemple un noeud différent pour chaque fenêtre d'outil.<br>
+ * <br>
+ * Les lectures n'utilisent aucun verrou : le stockage courant est publié par un champ
+ * "volatile" et ses valeurs sont gardées dans une map concurrente. Changer de noeud
+ * (setUserNodeName) ou de stockage (setBackend) remplace ce stockage d'un seul coup ;
+ * un autre thread voit donc soit l'ancien stockage, soit le nouveau, jamais un mélange.<br>
+ * <br>
+ * Une préférence absente chez l'utilisateur prend la valeur des défauts du site (voir
+ * loadSiteFile), sinon celle des défauts livrés avec l'application (voir loadDefaults).<br>
+ * <br>
+ * Les méthodes statiques de JfxSettings utilisent un contexte par défaut (voir
+ * JfxSettings.getDefault).<br>
+ * Exemple : JfxSettingsContext tool = new JfxSettingsContext("tool1");<br>
+ * int width = tool.getInt("WIDTH");
+ *
+ * @author jcstritt
+ */
+public class JfxSettingsContext {
+  private static final String DEF_USER_NODE_NAME = "prefs";
+  private static final int DEFAULTS_LAYER = 0;
+  private static final int SITE_LAYER = 1;
+  private final JfxSettingsBackend initialBackend;
+  private final JfxSettingsProperties properties;
+  private final List<Consumer<String>> changeListeners;
+  private final JfxSettingsLayers layers;
+  private volatile JfxSettingsStore store;
+  private volatile Path snapshotFile;
+  private Thread shutdownHook;
+
+  /**
+   * Constructeur d'un contexte sur le noeud par défaut ("prefs") des préférences de
+   * l'utilisateur. Le stockage n'est créé qu'à la première utilisation.
+   */
+  public JfxSettingsContext() {
+    this(new JfxPrefsBackend(DEF_USER_NODE_NAME));
+  }
+
+  /**
+   * Constructeur d'un contexte sur un noeud des préférences de l'utilisateur.
+   * Le stockage n'est créé qu'à la première utilisation.
+   *
+   * @param userNodeName le nom identifiant le noeud pour l'utilisateur courant
+   */
+  public JfxSettingsContext(String userNodeName) {
+    this(new JfxPrefsBackend(userNodeName));
+  }
+
+  /**
+   * Constructeur d'un contexte sur un stockage permanent quelconque.
+   * Le stockage n'est créé qu'à la première utilisation.
+   *
+   * @param backend le stockage permanent
+   */
+  public JfxSettingsContext(JfxSettingsBackend backend) {
+    this.initialBackend = backend;
+    this.properties = new JfxSettingsProperties(this);
+    this.changeListeners = new CopyOnWriteArrayList<>();
+    this.layers = new JfxSettingsLayers(2);
+  }
+
+
+
+  /**
+   * Méthode privée qui crée le stockage des préférences devant un stockage permanent
+   * et y attache la mise à jour des propriétés liées (voir property). Si une photo
+   * instantanée de ce stockage existe (voir setSnapshotFile), elle est utilisée.
+   *
+   * @param backend le stockage permanent
+   * @return le nouveau stockage des préférences
+   */
+  private JfxSettingsStore createStore(JfxSettingsBackend backend) {
+    Path file = snapshotFile;
+    Map<String, String> snapshot = (file != null) ? JfxSettingsSnapshot.read(file, backend.getName()) : null;
+    JfxSettingsStore newStore = new JfxSettingsStore(backend, snapshot);
+    newStore.addListener(this::fireChanged);
+    return newStore;
+  }
+
+  /**
+   * Méthode privée qui retourne le stockage des préférences. Le stockage initial
+   * n'est créé qu'à la première utilisation, pour ne pas lire inutilement les préférences
+   * de Java si l'application choisit d'abord son propre noeud (setUserNodeName).
+   *
+   * @return le stockage des préférences
+   */
+  private JfxSettingsStore getStore() {
+    JfxSettingsStore s = store;
+    if (s == null) {
+      synchronized (this) {
+        s = store;
+        if (s == null) {
+          s = createStore(initialBackend);
+          store = s;
+        }
+      }
+    }
+    return s;
+  }
+
+  /**
+   * Récupère le nom du noeud des préférences de l'utilisateur.
+   *
+   * @return le nom du noeud
+   */
+  public String getUserNodeName() {
+    return getStore().getBackend().getName();
+  }
+
+  /**
+   * Permet de spécifier le nom identifiant le noeud dans l'arbre des préférences de l'utilisateur.
+   * Le nom abrégé de l'application est souvent utilisé pour cela.
+   *
+   * @param userNodeName le nom identifiant le noeud pour l'utilisateur courant
+   */
+  public void setUserNodeName(String userNodeName) {
+    setBackend(new JfxPrefsBackend(userNodeName));
+  }
+
+  /**
+   * Retourne le stockage permanent actuellement utilisé.
+   *
+   * @return le stockage permanent (JfxPrefsBackend par défaut)
+   */
+  public JfxSettingsBackend getBackend() {
+    return getStore().getBackend();
+  }
+
+  /**
+   * Remplace le stockage permanent des préférences. Les écritures encore en attente
+   * sont d'abord transmises à l'ancien stockage, qui n'est toutefois pas fermé.
+   *
+   * @param backend le nouveau stockage permanent
+   */
+  public void setBackend(JfxSettingsBackend backend) {
+    JfxSettingsStore newStore = createStore(backend);
+    JfxSettingsStore oldStore;
+    synchronized (this) {
+      oldStore = store;
+      if (oldStore != null) {
+        newStore.setFlushInterval(oldStore.getFlushInterval());
+        newStore.setDurability(oldStore.getDurability());
+      }
+      store = newStore;
+    }
+    if (oldStore != null) {
+      oldStore.close();
+    }
+    fireChanged(null);
+  }
+
+  /**
+   * Ajoute un écouteur qui recevra la clé de chaque préférence modifiée
+   * (ou null si toutes les préférences ont pu changer, après setBackend).
+   *
+   * @param listener un écouteur qui reçoit la clé modifiée
+   */
+  void addChangeListener(Consumer<String> listener) {
+    changeListeners.add(listener);
+  }
+
+  /**
+   * Retire un écouteur ajouté précédemment.
+   *
+   * @param listener l'écouteur à retirer
+   */
+  void removeChangeListener(Consumer<String> listener) {
+    changeListeners.remove(listener);
+  }
+
+  /**
+   * Méthode privée qui signale le changement d'une préférence aux propriétés
+   * liées (voir property) et aux autres écouteurs.
+   *
+   * @param key la clé modifiée ou null pour toutes les clés
+   */
+  private void fireChanged(String key) {
+    if (key != null) {
+      properties.changed(key);
+    } else {
+      properties.changedAll();
+    }
+    for (Consumer<String> listener : changeListeners) {
+      listener.accept(key);
+    }
+  }
+
+
+
+  /**
+   * Retourne le niveau de durabilité des écritures.
+   *
+   * @return le niveau de durabilité actuel (SYNC par défaut)
+   */
+  public JfxDurabilityEnum getDurability() {
+    return getStore().getDurability();
+  }
+
+  /**
+   * Définit le niveau de durabilité des écritures. Dans les modes NONE et ASYNC,
+   * les écritures en attente sont de toute façon transmises à l'arrêt de la JVM.
+   *
+   * @param durability le niveau de durabilité (NONE, ASYNC ou SYNC)
+   */
+  public void setDurability(JfxDurabilityEnum durability) {
+    if (durability.isBuffered()) {
+      installShutdownHook();
+    }
+    getStore().setDurability(durability);
+  }
+
+  /**
+   * Définit l'intervalle après lequel les écritures retenues en mémoire
+   * sont transmises en un seul lot (mode ASYNC).
+   *
+   * @param millis l'intervalle en millisecondes (2000 par défaut)
+   */
+  public void setFlushInterval(long millis) {
+    getStore().setFlushInterval(millis);
+  }
+
+  /**
+   * Transmet immédiatement toutes les écritures en attente et force
+   * la sauvegarde des préférences sur le stockage permanent.
+   */
+  public void flush() {
+    getStore().flush();
+  }
+
+  /**
+   * Méthode privée qui installe (une seule fois) un écouteur d'arrêt de la JVM
+   * pour transmettre les écritures encore en attente et écrire la photo instantanée.
+   */
+  private synchronized void installShutdownHook() {
+    if (shutdownHook == null) {
+      shutdownHook = new Thread(this::shutdown, "JfxSettingsContext-shutdown");
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+  }
+
+  /**
+   * Méthode privée appelée à l'arrêt de la JVM (si le stockage a été utilisé).
+   */
+  private void shutdown() {
+    if (store != null) {
+      flush();
+      if (snapshotFile != null) {
+        writeSnapshot();
+      }
+    }
+  }
+
+
+
+  /**
+   * Retourne le fichier de la photo instantanée des préférences.
+   *
+   * @return le fichier de la photo ou null si cette fonction n'est pas utilisée
+   */
+  public Path getSnapshotFile() {
+    return snapshotFile;
+  }
+
+  /**
+   * Définit un fichier pour une photo instantanée de toutes les préférences. La photo est
+   * écrite à l'arrêt de la JVM, puis relue (projetée en mémoire) lorsque le stockage est créé
+   * au démarrage suivant. Les préférences sont alors disponibles immédiatement, sans lire
+   * les préférences de Java, qui sont comparées à la photo en arrière-plan. Les différences
+   * éventuelles sont corrigées (et signalées aux propriétés liées).<br>
+   * Pour en profiter, cette méthode doit être appelée avant setUserNodeName (ou setBackend)
+   * et avant toute autre méthode de ce contexte.
+   *
+   * @param file le fichier de la photo (null pour ne plus l'utiliser)
+   */
+  public void setSnapshotFile(Path file) {
+    snapshotFile = file;
+    if (file != null) {
+      installShutdownHook();
+    }
+  }
+
+  /**
+   * Écrit immédiatement la photo instantanée des préférences (voir setSnapshotFile).
+   */
+  public void writeSnapshot() {
+    Path file = snapshotFile;
+    if (file != null) {
+      JfxSettingsStore s = getStore();
+      try {
+        JfxSettingsSnapshot.write(file, s.getBackend().getName(), s.getSnapshot());
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Ferme ce contexte : les écritures en attente sont transmises, la photo instantanée
+   * est écrite (si elle est utilisée) et le stockage est détaché de ce contexte.
+   * Le stockage permanent lui-même n'est pas fermé.
+   */
+  public void close() {
+    Thread hook;
+    synchronized (this) {
+      hook = shutdownHook;
+      shutdownHook = null;
+    }
+    if (hook != null) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(hook);
+      } catch (IllegalStateException ex) {
+        // arrêt de la JVM déjà en cours
+      }
+    }
+    shutdown();
+    JfxSettingsStore s = store;
+    if (s != null) {
+      s.close();
+    }
+    changeListeners.clear();
+  }
+
+
+
+  /**
+   * Définit les valeurs par défaut livrées avec l'application (couche la plus basse).
+   * Elles sont utilisées pour toutes les préférences absentes chez l'utilisateur
+   * et dans les défauts du site.
+   *
+   * @param values une map avec les clés et les valeurs par défaut
+   */
+  public void setDefaults(Map<String, String> values) {
+    setLayer(DEFAULTS_LAYER, values);
+  }
+
+  /**
+   * Charge les valeurs par défaut livrées avec l'application depuis un fichier
+   * de propriétés (en UTF-8), par exemple une ressource du JAR de l'application.<br>
+   * Exemple : context.loadDefaults(App.class.getResource("/defaults.properties"));
+   *
+   * @param url l'adresse du fichier de propriétés
+   * @return true si le fichier a pu être chargé
+   */
+  public boolean loadDefaults(URL url) {
+    boolean ok = false;
+    if (url != null) {
+      try (InputStream in = url.openStream()) {
+        setDefaults(readProperties(in));
+        ok = true;
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+    return ok;
+  }
+
+  /**
+   * Définit les valeurs par défaut du site (par exemple de l'entreprise). Elles
+   * remplacent les défauts livrés avec l'application, mais pas les préférences de
+   * l'utilisateur.
+   *
+   * @param values une map avec les clés et les valeurs par défaut du site
+   */
+  public void setSiteValues(Map<String, String> values) {
+    setLayer(SITE_LAYER, values);
+  }
+
+  /**
+   * Charge (ou recharge) les valeurs par défaut du site depuis un fichier de
+   * propriétés (en UTF-8), par exemple sur un partage réseau. Seules les valeurs
+   * qui ont changé depuis le dernier chargement sont signalées.
+   *
+   * @param file le chemin du fichier de propriétés
+   * @return true si le fichier a pu être chargé
+   */
+  public boolean loadSiteFile(Path file) {
+    boolean ok = false;
+    if (Files.isReadable(file)) {
+      try (InputStream in = Files.newInputStream(file)) {
+        setSiteValues(readProperties(in));
+        ok = true;
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }
+    return ok;
+  }
+
+  /**
+   * Méthode privée qui remplace une couche de valeurs par défaut, puis signale les
+   * préférences dont la valeur a changé (celles que l'utilisateur n'a pas modifiées).
+   * Si le stockage n'est pas encore créé, rien n'est lu et il n'y a rien à signaler.
+   *
+   * @param level le numéro de la couche
+   * @param values une map avec les clés et les valeurs de cette couche
+   */
+  private void setLayer(int level, Map<String, String> values) {
+    Set<String> changed = layers.setLayer(level, values);
+    JfxSettingsStore s = store;
+    if (s != null) {
+      for (String key : changed) {
+        if (s.lookup(key) == null) {
+          fireChanged(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Méthode privée qui lit un fichier de propriétés en UTF-8.
+   *
+   * @param in le flux à lire
+   * @return une map avec les clés et les valeurs
+   * @throws IOException en cas de problème de lecture
+   */
+  private static Map<String, String> readProperties(InputStream in) throws IOException {
+    Properties props = new Properties();
+    try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+      props.load(reader);
+    }
+    Map<String, String> values = new HashMap<>();
+    for (String key : props.stringPropertyNames()) {
+      values.put(key, props.getProperty(key));
+    }
+    return values;
+  }
+
+  /**
+   * Méthode privée qui retourne la valeur d'une clé : celle de l'utilisateur
+   * si elle existe, sinon la valeur par défaut (site, puis application).
+   *
+   * @param value la valeur de l'utilisateur ou null
+   * @param key la clé de la préférence
+   * @return la valeur trouvée ou "" si la clé n'existe dans aucune couche
+   */
+  private String resolve(String value, String key) {
+    if (value == null) {
+      value = layers.get(key);
+    }
+    return (value != null) ? value.trim() : "";
+  }
+
+
+
+  /**
+   * Récupère une valeur de préférence. Si l'utilisateur ne l'a pas mémorisée,
+   * c'est la valeur par défaut du site ou de l'application qui est retournée.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la valeur de la préférence sous la forme d'un String ("" si elle n'existe pas)
+   */
+  public String getValue(Object pref) {
+    String key = pref.toString();
+    return resolve(getStore().lookup(key), key);
+  }
+
+  /**
+   * Mémorise une valeur de préférence.
+   *
+   * @param pref  une préférence de type String ou Enum
+   * @param value une valeur String à mettre à jour pour la clé donnée
+   */
+  public void setValue(Object pref, String value) {
+    getStore().put(pref.toString(), value.trim());
+  }
+
+  /**
+   * Récupère plusieurs valeurs de préférences d'un seul coup. Les valeurs retournées
+   * forment un état cohérent : un groupe d'écritures (voir batch) y est soit
+   * entièrement visible, soit pas du tout.
+   *
+   * @param prefs des préférences de type String ou Enum
+   * @return un tableau avec les valeurs des préférences, dans le même ordre
+   */
+  public String[] getValues(Object... prefs) {
+    String[] keys = new String[prefs.length];
+    for (int i = 0; i < prefs.length; i++) {
+      keys[i] = prefs[i].toString();
+    }
+    String[] values = getStore().getAll(keys);
+    for (int i = 0; i < values.length; i++) {
+      values[i] = resolve(values[i], keys[i]);
+    }
+    return values;
+  }
+
+  /**
+   * Applique un groupe d'écritures d'un seul coup. Les écritures sont collectées par
+   * la fonction reçue, puis transmises ensemble au stockage. Si la fonction lève
+   * une exception, aucune écriture n'est appliquée.<br>
+   * Exemple : context.batch(tx -&gt; tx.setInt("A", 1).setBoolean("B", true));
+   *
+   * @param tx une fonction qui reçoit le groupe d'écritures à remplir
+   */
+  public void batch(Consumer<JfxSettingsBatch> tx) {
+    JfxSettingsBatch batch = new JfxSettingsBatch();
+    tx.accept(batch);
+    getStore().putAll(batch.getValues());
+  }
+
+  /**
+   * Supprime une préférence. S'il s'agit d'un blob, tous ses morceaux sont aussi supprimés.
+   *
+   * @param pref une préférence de type String ou Enum
+   */
+  public void removeValue(Object pref) {
+    JfxSettingsBlob.remove(getStore(), pref.toString());
+  }
+
+
+
+  /**
+   * Retourne une propriété JavaFX liée dans les deux sens à une préférence : modifier
+   * la propriété mémorise la préférence, et un changement de la préférence (depuis
+   * n'importe quel thread) met à jour la propriété. Les changements sont regroupés et
+   * transmis une seule fois par passage dans le thread de JavaFX.<br>
+   * Pour une même préférence, c'est toujours la même propriété qui est retournée.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la propriété liée à cette préférence
+   */
+  public StringProperty property(Object pref) {
+    return properties.stringProperty(pref.toString());
+  }
+
+  /**
+   * Retourne une propriété JavaFX de type "int" liée dans les deux sens à une préférence
+   * (voir property).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la propriété liée à cette préférence
+   */
+  public IntegerProperty intProperty(Object pref) {
+    return properties.intProperty(pref.toString());
+  }
+
+  /**
+   * Retourne une propriété JavaFX de type "long" liée dans les deux sens à une préférence
+   * (voir property).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la propriété liée à cette préférence
+   */
+  public LongProperty longProperty(Object pref) {
+    return properties.longProperty(pref.toString());
+  }
+
+  /**
+   * Retourne une propriété JavaFX de type "double" liée dans les deux sens à une préférence
+   * (voir property). Une fois mémorisée, la valeur est relue avec le nombre de décimales donné.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param nbOfDecs nombre de decimales à mémoriser
+   * @return la propriété liée à cette préférence
+   */
+  public DoubleProperty doubleProperty(Object pref, int nbOfDecs) {
+    return properties.doubleProperty(pref.toString(), nbOfDecs);
+  }
+
+  /**
+   * Retourne une propriété JavaFX de type "boolean" liée dans les deux sens à une préférence
+   * (voir property).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la propriété liée à cette préférence
+   */
+  public BooleanProperty booleanProperty(Object pref) {
+    return properties.booleanProperty(pref.toString());
+  }
+
+
+
+  /**
+   * Récupère une valeur de préférence de type "boolean".
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return true si la valeur de cette clé est "true"
+   */
+  public boolean getBoolean(Object pref) {
+    String s = getValue(pref.toString());
+    return s.equalsIgnoreCase("true");
+  }
+
+  /**
+   * Mémorise une valeur de préférence de type "boolean".
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur booléenne à mémoriser
+   */
+  public void setBoolean(Object pref, boolean value) {
+    setValue(pref, value ? "true" : "false");
+  }
+
+
+
+  /**
+   * Récupère une valeur de préférence de type "int" (Integer).
+   * Si la préférence ne peut être lue, 0 est retournée.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la valeur de cette préférence
+   */
+  public int getInt(Object pref) {
+    return JfxConverter.getInt(getValue(pref));
+  }
+
+  /**
+   * Mémorise une valeur de type int (Integer).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur de type Integer à mémoriser
+   */
+  public void setInt(Object pref, int value) {
+    setValue(pref, Integer.toString(value));
+  }
+
+
+
+  /**
+   * Récupère une valeur de préférence de type "long" (Long Integer).
+   * Si la préférence ne peut être lue, 0 est retournée.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la valeur de cette préférence
+   */
+  public long getLong(Object pref) {
+    return JfxConverter.getLong(getValue(pref));
+  }
+
+  /**
+   * Mémorise une valeur de type long (Long Integer).
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur de type Long à mémoriser
+   */
+  public void setLong(Object pref, long value) {
+    setValue(pref, Long.toString(value));
+  }
+
+
+
+  /**
+   * Récupère une valeur de préférence de type "float".
+   * Si la préférence ne peut être lue, 0f est retourné.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la valeur de cette clé (nombre réel de type float)
+   */
+  public float getFloat(Object pref) {
+    return JfxConverter.getFloat(getValue(pref));
+  }
+
+  /**
+   * Mémorise une valeur de type "float".
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur de type "float" à mémoriser
+   * @param nbOfDecs nombre de decimales à mémoriser
+   */
+  public void setFloat(Object pref, float value, int nbOfDecs) {
+    setValue(pref, JfxNumberFormat.format(value, nbOfDecs));
+  }
+
+
+
+  /**
+   * Récupère une valeur de préférence de type "double".
+   * Si la préférence ne peut être lue, 0d est retourné.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return la valeur de cette préférence
+   */
+  public double getDouble(Object pref) {
+    return JfxConverter.getDouble(getValue(pref));
+  }
+
+  /**
+   * Mémorise une valeur de type "double".
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value une valeur de type "double" à mémoriser
+   * @param nbOfDecs nombre de decimales à mémoriser
+   */
+  public void setDouble(Object pref, double value, int nbOfDecs) {
+    setValue(pref, JfxNumberFormat.format(value, nbOfDecs));
+  }
+
+
+
+  /**
+   * Récupère un objet mémorisé dans une préférence avec setObject.
+   * Si l'objet ne peut pas être décodé, l'erreur est affichée et null est retourné.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return l'objet décodé ou null;
+   */
+  public Object getObject(Object pref) {
+    Object obj = null;
+    String value = getValue(pref);
+    if (!value.isEmpty()) {
+      try {
+        byte[] bytes;
+        if (JfxSettingsBlob.isBlob(value)) {
+          bytes = readAll(openBlobInput(pref));
+        } else {
+          bytes = Base64.getDecoder().decode(value);
+        }
+        obj = JfxCodecRegistry.decode(bytes);
+      } catch (ClassNotFoundException | IOException | IllegalArgumentException ex) {
+        ex.printStackTrace();
+      }
+    }
+    return obj;
+  }
+
+  /**
+   * Mémorise un objet quelconque dans un tableau d'octets stockés dans les préférences de l'application.
+   * Les types courants (types primitifs, tableaux, String, Rectangle2D, Color, listes et maps) sont
+   * encodés de manière compacte par JfxCodecRegistry, les autres avec la sérialisation Java.
+   * Si l'objet encodé dépasse la longueur maximum d'une valeur, il est mémorisé comme un blob.
+   * Si l'objet ne peut pas être encodé, l'erreur est affichée et la préférence est vidée.
+   * Si le stockage refuse le blob (clé trop longue, stockage plein...), l'erreur est affichée
+   * et l'ancienne valeur est gardée.
+   * Avec un stockage partagé par plusieurs processus (JfxSharedBackend), aucun autre
+   * processus ne peut écrire dans le stockage pendant l'écriture de l'objet.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @param value un objet d'un type connu de JfxCodecRegistry ou qui implémente l'interface Serializable
+   */
+  public void setObject(Object pref, Object value) {
+    byte[] bytes;
+    try {
+      bytes = JfxCodecRegistry.encode(value);
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      bytes = null;
+    }
+    byte[] encoded = bytes;
+    getStore().runExclusive(() -> {
+      try {
+        if (encoded == null) {
+          removeBlobChunks(pref);
+          setValue(pref, "");
+        } else if ((encoded.length + 2) / 3 * 4 > getStore().getBackend().getMaxValueLength()) {
+          try (OutputStream out = openBlobOutput(pref)) {
+            out.write(encoded);
+          }
+        } else {
+          removeBlobChunks(pref);
+          setValue(pref, Base64.getEncoder().encodeToString(encoded));
+        }
+      } catch (IOException ex) {
+        // le blob refusé a déjà été nettoyé, l'ancienne valeur reste intacte
+        ex.printStackTrace();
+      }
+    });
+  }
+
+
+
+  /**
+   * Ouvre un flux d'écriture vers une grande valeur binaire (blob). Les octets sont compressés
+   * et découpés en morceaux au fur et à mesure de l'écriture. L'ancienne valeur n'est remplacée
+   * qu'à la fermeture du flux.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return un flux d'écriture (à fermer après usage)
+   */
+  public OutputStream openBlobOutput(Object pref) {
+    return JfxSettingsBlob.openOutput(getStore(), pref.toString());
+  }
+
+  /**
+   * Ouvre un flux de lecture depuis une grande valeur binaire (blob) mémorisée avec openBlobOutput.
+   * Les morceaux sont lus et décompressés au fur et à mesure de la lecture.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return un flux de lecture (vide si la préférence n'est pas un blob)
+   */
+  public InputStream openBlobInput(Object pref) {
+    return JfxSettingsBlob.openInput(getStore(), pref.toString());
+  }
+
+  /**
+   * Méthode privée qui supprime les morceaux d'un ancien blob avant
+   * que la préférence ne reçoive une valeur simple.
+   *
+   * @param pref une préférence de type String ou Enum
+   */
+  private void removeBlobChunks(Object pref) {
+    if (JfxSettingsBlob.isBlob(getValue(pref))) {
+      removeValue(pref);
+    }
+  }
+
+  /**
+   * Méthode privée qui lit entièrement un flux puis le ferme.
+   *
+   * @param in le flux à lire
+   * @return les octets lus
+   * @throws IOException en cas de problème de lecture
+   */
+  private byte[] readAll(InputStream in) throws IOException {
+    try (InputStream is = in) {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = is.read(buf)) > 0) {
+        os.write(buf, 0, n);
+      }
+      return os.toByteArray();
+    }
+  }
+
+
+
+  /**
+   * Récupère un objet Rectangle. Les quatre valeurs sont lues d'un seul coup,
+   * le rectangle ne peut donc pas mélanger deux écritures différentes.
+   *
+   * @param prefId identifie le début de la préférence
+   * @return un objet Rectangle;
+   */
+  public Rectangle2D getRectangle(String prefId) {
+    String s = prefId.toUpperCase();
+    String[] v = getValues(s + "_X", s + "_Y", s + "_WIDTH", s + "_HEIGHT");
+    double x = JfxConverter.getDouble(v[0]);
+    double y = JfxConverter.getDouble(v[1]);
+    double w = JfxConverter.getDouble(v[2]);
+    double h = JfxConverter.getDouble(v[3]);
+    return new Rectangle2D(x, y, w, h);
+  }
+
+  /**
+   * Mémoriser un objet de type Rectangle. Les quatre valeurs sont écrites d'un seul coup.
+   *
+   * @param prefId identifie le début de la préférence
+   * @param x la position x du rectangle
+   * @param y la position y du rectangle
+   * @param width la largeur du rectangle
+   * @param height la hauteur du rectangle
+   */
+  public void setRectangle(String prefId, double x, double y, double width, double height) {
+    batch(tx -> tx.setRectangle(prefId, x, y, width, height));
+  }
+
+  /**
+   * Mémoriser un objet de type Rectangle. Les quatre valeurs sont écrites d'un seul coup.
+   *
+   * @param prefId identifie le début de la préférence
+   * @param rect un objet Rectangle2D
+   */
+  public void setRectangle(String prefId, Rectangle2D rect) {
+    batch(tx -> tx.setRectangle(prefId, rect));
+  }
+  
+  /**
+   * Retourne une position de label (pour la fenêtre principale)
+   * d'après une préférence spécifiée.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return un objet de type JfxLabelPosEnum (position de label)
+   */
+  public JfxLabelPosEnum getPosition(Object pref) {
+    String value = getValue(pref);
+    return JfxConverter.getPos(value);
+  } 
+  
+  /**
+   * Retourne une position de label (pour la fenêtre principale)
+   * d'après un index spécifié.
+   *
+   * @param idx l'index (1..9) d'un Label à positionner
+   * @return un objet de type JfxLabelPosEnum (position de label)
+   */
+  public JfxLabelPosEnum getPosition(int idx) {
+    return getPosition("BG_MSG" + idx + "_POS");
+  } 
+  
+  /**
+   * Retourne une police d'après la préférence spécifiée.
+   *
+   * @param pref une préférence de type String ou Enum
+   * @return un objet de type Font (police)
+   */
+  public Font getFont(Object pref) {
+    String value = getValue(pref);
+    return JfxConverter.getFont(value);
+  }
+  
+    /**
+   * Retourne une police de message de fond d'après un index spécifié.
+   *
+   * @param idx l'index (1..9) du message de fond à designer
+   * @return un objet de type Font (police)
+   */
+  public Font getFont(int idx) {
+    return getFont("BG_MSG" + idx + "_FONT");
+  }
+  
+  /**
+   * Retourne une couleur d'après la préférence spécifiée.
+   * 
+   * @param pref une préférence de type String ou Enum
+   * @return un objet de type Color (couleur)
+   */
+  public Color getColor(Object pref) {
+    String value = getValue(pref);
+    return JfxConverter.getColor(value);
+  }  
+  
+  /**
+   * Retourne une couleur de message de fond d'après un index spécifié.
+   * 
+   * @param idx l'index (1..9) du message de fond à colorer
+   * @return un objet de type Color (couleur)
+   */
+  public Color getColor(int idx) {
+    return getColor("BG_MSG" + idx + "_COLOR");
+  }    
+
+  /**
+   * Retourne la valeur d'une préférence convertie dans le type spécifié
+   * (ex: Font.class, Color.class, int.class), avec le registre de JfxConverter.
+   *
+   * @param <T> le type de l'objet retourné
+   * @param pref une préférence de type String ou Enum
+   * @param type la classe de l'objet retourné
+   * @return un objet du type spécifié
+   */
+  public <T> T get(Object pref, Class<T> type) {
+    return JfxConverter.convert(getValue(pref), type);
+  }
+
+}
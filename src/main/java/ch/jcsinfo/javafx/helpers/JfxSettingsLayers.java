@@ -0,0 +1,98 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Couches de valeurs par défaut des préférences, sous les préférences de l'utilisateur
+ * (voir JfxSettingsContext.setDefaults et setSiteValues). Une couche plus haute remplace
+ * les valeurs des couches plus basses (par exemple : défauts livrés, puis défauts du site).<br>
+ * <br>
+ * Toutes les couches sont aplaties dans une seule map non modifiable : trouver la valeur
+ * par défaut d'une clé ne demande donc qu'une seule recherche, quel que soit le nombre
+ * de couches. Lorsqu'une couche change, seules les clés de l'ancienne et de la nouvelle
+ * version de cette couche sont recalculées, puis la nouvelle map est publiée d'un seul coup.
+ *
+ * @author jcstritt
+ */
+class JfxSettingsLayers {
+  private final List<Map<String, String>> layers;
+  private volatile Map<String, String> flat;
+
+  /**
+   * Constructeur.
+   *
+   * @param count le nombre de couches (la couche 0 est la plus basse)
+   */
+  JfxSettingsLayers(int count) {
+    this.layers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      layers.add(Collections.emptyMap());
+    }
+    this.flat = Collections.emptyMap();
+  }
+
+  /**
+   * Retourne la valeur par défaut d'une clé (celle de la plus haute couche qui la contient).
+   *
+   * @param key la clé de la préférence
+   * @return la valeur par défaut ou null si aucune couche ne contient cette clé
+   */
+  String get(String key) {
+    return flat.get(key);
+  }
+
+  /**
+   * Remplace toutes les valeurs d'une couche.
+   *
+   * @param level le numéro de la couche
+   * @param values une map avec les clés et les valeurs de cette couche
+   * @return les clés dont la valeur par défaut a changé
+   */
+  synchronized Set<String> setLayer(int level, Map<String, String> values) {
+    Map<String, String> old = layers.set(level, Collections.unmodifiableMap(new HashMap<>(values)));
+
+    Set<String> keys = new HashSet<>(old.keySet());
+    keys.addAll(values.keySet());
+    Map<String, String> next = new HashMap<>(flat);
+    Set<String> changed = new HashSet<>();
+    for (String key : keys) {
+      String value = resolve(key);
+      if (!Objects.equals(value, next.get(key))) {
+        if (value != null) {
+          next.put(key, value);
+        } else {
+          next.remove(key);
+        }
+        changed.add(key);
+      }
+    }
+    if (!changed.isEmpty()) {
+      flat = Collections.unmodifiableMap(next);
+    }
+    return changed;
+  }
+
+  /**
+   * Méthode privée qui cherche la valeur d'une clé de la plus haute couche à la plus basse.
+   *
+   * @param key la clé de la préférence
+   * @return la valeur trouvée ou null
+   */
+  private String resolve(String key) {
+    for (int i = layers.size() - 1; i >= 0; i--) {
+      String value = layers.get(i).get(key);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,323 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleLongProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+
+/**
+ * Propriétés JavaFX liées dans les deux sens aux préférences (voir JfxSettingsContext.property).
+ * Une modification d'une propriété est mémorisée dans les préférences et une modification
+ * d'une préférence (depuis n'importe quel thread) met à jour ses propriétés.<br>
+ * <br>
+ * Les changements des préférences ne sont pas transmis un par un : les clés modifiées
+ * sont seulement notées, puis une seule tâche est planifiée dans le thread de JavaFX
+ * (Platform.runLater). Cette tâche relit alors la dernière valeur de chaque clé notée.
+ * Une rafale d'écritures (import, synchronisation...) ne provoque ainsi qu'une seule
+ * mise à jour par propriété et par passage du thread JavaFX.<br>
+ * <br>
+ * Si JavaFX n'est pas démarré (tests, traitements en arrière-plan), les propriétés
+ * sont mises à jour directement dans le thread qui a modifié la préférence. L'état de
+ * JavaFX n'est testé qu'une fois : ensuite, aucune tâche n'est plus planifiée.
+ *
+ * @author jcstritt
+ */
+class JfxSettingsProperties {
+  private static final int FX_UNKNOWN = 0;
+  private static final int FX_RUNNING = 1;
+  private static final int FX_STOPPED = 2;
+  private static volatile int fxState = FX_UNKNOWN;
+
+  private final JfxSettingsContext context;
+  private final Map<String, BoundKey> boundKeys;
+  private final Set<String> dirtyKeys;
+  private final AtomicBoolean scheduled;
+
+  /**
+   * Constructeur.
+   *
+   * @param context le contexte des préférences auquel les propriétés sont liées
+   */
+  JfxSettingsProperties(JfxSettingsContext context) {
+    this.context = context;
+    this.boundKeys = new ConcurrentHashMap<>();
+    this.dirtyKeys = ConcurrentHashMap.newKeySet();
+    this.scheduled = new AtomicBoolean(false);
+  }
+
+  /**
+   * Méthode privée qui retourne (ou crée) les propriétés liées à une clé.
+   *
+   * @param key la clé de la préférence
+   * @return l'objet qui regroupe les propriétés de cette clé
+   */
+  private BoundKey getBoundKey(String key) {
+    return boundKeys.computeIfAbsent(key, k -> new BoundKey(context, k));
+  }
+
+  /**
+   * Retourne la propriété de type String liée à une clé.
+   *
+   * @param key la clé de la préférence
+   * @return la propriété (toujours la même pour une clé donnée)
+   */
+  StringProperty stringProperty(String key) {
+    return getBoundKey(key).stringProperty();
+  }
+
+  /**
+   * Retourne la propriété de type "int" liée à une clé.
+   *
+   * @param key la clé de la préférence
+   * @return la propriété (toujours la même pour une clé donnée)
+   */
+  IntegerProperty intProperty(String key) {
+    return getBoundKey(key).intProperty();
+  }
+
+  /**
+   * Retourne la propriété de type "long" liée à une clé.
+   *
+   * @param key la clé de la préférence
+   * @return la propriété (toujours la même pour une clé donnée)
+   */
+  LongProperty longProperty(String key) {
+    return getBoundKey(key).longProperty();
+  }
+
+  /**
+   * Retourne la propriété de type "double" liée à une clé.
+   *
+   * @param key la clé de la préférence
+   * @param nbOfDecs nombre de decimales à mémoriser
+   * @return la propriété (toujours la même pour une clé donnée)
+   */
+  DoubleProperty doubleProperty(String key, int nbOfDecs) {
+    return getBoundKey(key).doubleProperty(nbOfDecs);
+  }
+
+  /**
+   * Retourne la propriété de type "boolean" liée à une clé.
+   *
+   * @param key la clé de la préférence
+   * @return la propriété (toujours la même pour une clé donnée)
+   */
+  BooleanProperty booleanProperty(String key) {
+    return getBoundKey(key).booleanProperty();
+  }
+
+  /**
+   * Note le changement d'une clé. Si des propriétés sont liées à cette clé,
+   * une mise à jour est planifiée dans le thread de JavaFX.
+   *
+   * @param key la clé modifiée
+   */
+  void changed(String key) {
+    BoundKey boundKey = boundKeys.get(key);
+    if (boundKey != null) {
+      if (isFxStopped()) {
+        boundKey.update();
+        update();
+      } else {
+        dirtyKeys.add(key);
+        if (!scheduleUpdate()) {
+          boundKey.update();
+          update();
+        }
+      }
+    }
+  }
+
+  /**
+   * Note le changement de toutes les clés liées (par exemple après un changement de stockage).
+   */
+  void changedAll() {
+    if (!boundKeys.isEmpty()) {
+      dirtyKeys.addAll(boundKeys.keySet());
+      if (isFxStopped() || !scheduleUpdate()) {
+        update();
+      }
+    }
+  }
+
+  /**
+   * Méthode privée qui teste (une seule fois, sous verrou) si JavaFX est démarré.
+   * Tous les threads attendent la réponse : aucun ne peut compter sur une mise à jour
+   * planifiée par un autre thread alors que JavaFX n'est pas démarré.
+   *
+   * @return true si JavaFX n'est pas démarré (ou a été arrêté)
+   */
+  private static boolean isFxStopped() {
+    if (fxState == FX_UNKNOWN) {
+      synchronized (JfxSettingsProperties.class) {
+        if (fxState == FX_UNKNOWN) {
+          try {
+            Platform.runLater(() -> {
+            });
+            fxState = FX_RUNNING;
+          } catch (IllegalStateException ex) {
+            fxState = FX_STOPPED;
+          }
+        }
+      }
+    }
+    return fxState == FX_STOPPED;
+  }
+
+  /**
+   * Méthode privée qui planifie une seule mise à jour à la fois dans le thread de JavaFX.
+   * Si JavaFX a été arrêté entre-temps, il est noté comme tel et c'est à l'appelant
+   * de faire la mise à jour (directement dans son thread).
+   *
+   * @return false si JavaFX n'est plus démarré
+   */
+  private boolean scheduleUpdate() {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        Platform.runLater(this::update);
+      } catch (IllegalStateException ex) {
+        fxState = FX_STOPPED;
+        scheduled.set(false);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Méthode privée qui met à jour les propriétés de toutes les clés modifiées
+   * avec leur valeur actuelle.
+   */
+  private void update() {
+    scheduled.set(false);
+    for (Iterator<String> it = dirtyKeys.iterator(); it.hasNext();) {
+      String key = it.next();
+      it.remove();
+      boundKeys.get(key).update();
+    }
+  }
+
+
+
+  /**
+   * Classe privée qui regroupe les propriétés liées à une même clé.
+   */
+  private static class BoundKey {
+    private final JfxSettingsContext context;
+    private final String key;
+    private StringProperty stringProperty;
+    private IntegerProperty intProperty;
+    private LongProperty longProperty;
+    private DoubleProperty doubleProperty;
+    private BooleanProperty booleanProperty;
+    private volatile int nbOfDecs;
+    private boolean updating;
+
+    BoundKey(JfxSettingsContext context, String key) {
+      this.context = context;
+      this.key = key;
+    }
+
+    synchronized StringProperty stringProperty() {
+      if (stringProperty == null) {
+        stringProperty = new SimpleStringProperty(null, key, context.getValue(key));
+        stringProperty.addListener((obs, oldValue, newValue) -> {
+          if (!updating) {
+            context.setValue(key, (newValue != null) ? newValue : "");
+          }
+        });
+      }
+      return stringProperty;
+    }
+
+    synchronized IntegerProperty intProperty() {
+      if (intProperty == null) {
+        intProperty = new SimpleIntegerProperty(null, key, context.getInt(key));
+        intProperty.addListener((obs, oldValue, newValue) -> {
+          if (!updating) {
+            context.setInt(key, newValue.intValue());
+          }
+        });
+      }
+      return intProperty;
+    }
+
+    synchronized LongProperty longProperty() {
+      if (longProperty == null) {
+        longProperty = new SimpleLongProperty(null, key, context.getLong(key));
+        longProperty.addListener((obs, oldValue, newValue) -> {
+          if (!updating) {
+            context.setLong(key, newValue.longValue());
+          }
+        });
+      }
+      return longProperty;
+    }
+
+    synchronized DoubleProperty doubleProperty(int nbOfDecs) {
+      this.nbOfDecs = nbOfDecs;
+      if (doubleProperty == null) {
+        doubleProperty = new SimpleDoubleProperty(null, key, context.getDouble(key));
+        doubleProperty.addListener((obs, oldValue, newValue) -> {
+          if (!updating) {
+            context.setDouble(key, newValue.doubleValue(), this.nbOfDecs);
+          }
+        });
+      }
+      return doubleProperty;
+    }
+
+    synchronized BooleanProperty booleanProperty() {
+      if (booleanProperty == null) {
+        booleanProperty = new SimpleBooleanProperty(null, key, context.getBoolean(key));
+        booleanProperty.addListener((obs, oldValue, newValue) -> {
+          if (!updating) {
+            context.setBoolean(key, newValue);
+          }
+        });
+      }
+      return booleanProperty;
+    }
+
+    /**
+     * Relit la valeur de la clé et met à jour les propriétés existantes
+     * (sans écrire à nouveau dans les préférences).
+     */
+    synchronized void update() {
+      String value = context.getValue(key);
+      updating = true;
+      try {
+        if (stringProperty != null) {
+          stringProperty.set(value);
+        }
+        if (intProperty != null) {
+          intProperty.set(JfxConverter.getInt(value));
+        }
+        if (longProperty != null) {
+          longProperty.set(JfxConverter.getLong(value));
+        }
+        if (doubleProperty != null) {
+          doubleProperty.set(JfxConverter.getDouble(value));
+        }
+        if (booleanProperty != null) {
+          booleanProperty.set(value.equalsIgnoreCase("true"));
+        }
+      } finally {
+        updating = false;
+      }
+    }
+  }
+
+}
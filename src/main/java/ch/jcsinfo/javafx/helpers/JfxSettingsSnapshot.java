@@ -0,0 +1,179 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Photo instantanée ("snapshot") de toutes les préférences, mémorisée dans un seul
+ * fichier binaire compact. Le fichier est écrit à l'arrêt de l'application, puis projeté
+ * en mémoire au démarrage suivant pour restituer les préférences sans accéder aux
+ * préférences de Java (voir JfxSettings.setSnapshotFile).<br>
+ * <br>
+ * Format : en-tête (MAGIC, VERSION, nom du stockage, nombre de clés), puis pour chaque
+ * clé sa longueur, ses octets UTF-8, la longueur et les octets UTF-8 de la valeur.
+ * Le fichier se termine par un CRC32 de tout ce qui précède. Un fichier incomplet
+ * ou endommagé est simplement ignoré.
+ *
+ * @author jcstritt
+ */
+class JfxSettingsSnapshot {
+  private static final int MAGIC = 0x4A46534E; // "JFSN"
+  private static final int VERSION = 1;
+
+  /**
+   * Lit une photo instantanée des préférences.
+   *
+   * @param file le fichier de la photo
+   * @param name le nom du stockage attendu (voir JfxSettingsBackend.getName)
+   * @return une map avec les clés et les valeurs, ou null si le fichier n'existe pas,
+   * est endommagé ou provient d'un autre stockage
+   */
+  static Map<String, String> read(Path file, String name) {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < 16 || size > Integer.MAX_VALUE) {
+        return null;
+      }
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+      // contrôle du CRC32 avant toute lecture
+      ByteBuffer data = buf.duplicate();
+      data.limit((int) size - 4);
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      if (buf.getInt((int) size - 4) != (int) crc.getValue()) {
+        return null;
+      }
+      buf.limit((int) size - 4);
+      if (buf.getInt() != MAGIC || buf.getInt() != VERSION || !name.equals(readString(buf))) {
+        return null;
+      }
+      int count = buf.getInt();
+      Map<String, String> values = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+      for (int i = 0; i < count; i++) {
+        String key = readString(buf);
+        values.put(key, readString(buf));
+      }
+      return values;
+    } catch (IOException | RuntimeException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Méthode privée qui lit un String (longueur puis octets UTF-8).
+   *
+   * @param buf le tampon à lire
+   * @return le String lu
+   */
+  private static String readString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Écrit une photo instantanée des préférences. Le fichier est d'abord écrit sous un
+   * nom temporaire, puis renommé : une photo précédente n'est jamais laissée à moitié écrite.
+   *
+   * @param file le fichier de la photo
+   * @param name le nom du stockage (voir JfxSettingsBackend.getName)
+   * @param values une map avec les clés et les valeurs
+   * @throws IOException si le fichier ne peut pas être écrit
+   */
+  static void write(Path file, String name, Map<String, String> values) throws IOException {
+    write(file, name, values, false);
+  }
+
+  /**
+   * Écrit une photo instantanée des préférences (voir write). Si elle doit être durable,
+   * le fichier est forcé sur le disque avant d'être renommé, puis le dossier est lui aussi
+   * synchronisé : après un arrêt brutal, la photo est soit l'ancienne, soit la nouvelle complète.
+   *
+   * @param file le fichier de la photo
+   * @param name le nom du stockage (voir JfxSettingsBackend.getName)
+   * @param values une map avec les clés et les valeurs
+   * @param durable true pour forcer l'écriture sur le disque avant de retourner
+   * @throws IOException si le fichier ne peut pas être écrit
+   */
+  static void write(Path file, String name, Map<String, String> values, boolean durable) throws IOException {
+    Path dir = file.toAbsolutePath().getParent();
+    if (dir != null) {
+      Files.createDirectories(dir);
+    }
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    CRC32 crc = new CRC32();
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+      DataOutputStream body = new DataOutputStream(new CheckedOutputStream(out, crc));
+      body.writeInt(MAGIC);
+      body.writeInt(VERSION);
+      writeString(body, name);
+      body.writeInt(values.size());
+      for (Map.Entry<String, String> e : values.entrySet()) {
+        writeString(body, e.getKey());
+        writeString(body, e.getValue());
+      }
+      body.flush();
+      out.writeInt((int) crc.getValue());
+      out.flush();
+      if (durable) {
+        channel.force(true);
+      }
+    }
+    try {
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+    if (durable && dir != null) {
+      syncDirectory(dir);
+    }
+  }
+
+  /**
+   * Force sur le disque le contenu d'un dossier (création ou renommage de fichiers).
+   * Sur les systèmes qui ne le permettent pas (Windows), rien n'est fait.
+   *
+   * @param dir le dossier à synchroniser
+   */
+  static void syncDirectory(Path dir) {
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException ex) {
+    }
+  }
+
+  /**
+   * Méthode privée qui écrit un String (longueur puis octets UTF-8).
+   *
+   * @param out le flux d'écriture
+   * @param s le String à écrire
+   * @throws IOException si le flux ne peut pas être écrit
+   */
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+}
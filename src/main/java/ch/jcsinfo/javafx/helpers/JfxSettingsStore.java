@@ -0,0 +1,611 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Stockage des préférences avec un mode d'écriture différée ("write-behind"), placé
+ * devant un stockage permanent (JfxSettingsBackend). Suivant le niveau de durabilité
+ * choisi, les écritures sont soit transmises directement au stockage permanent, soit
+ * retenues en mémoire pour être ensuite écrites en un seul lot.<br>
+ * <br>
+ * Dans les modes avec tampon, plusieurs écritures d'une même clé sont fusionnées
+ * et une écriture dont la valeur ne change pas est simplement ignorée.<br>
+ * <br>
+ * Toutes les valeurs du stockage sont aussi gardées dans un cache en mémoire, rempli
+ * en une seule passe au démarrage, puis tenu à jour par un écouteur de changements
+ * du stockage. Ainsi, une lecture n'accède jamais au stockage permanent.<br>
+ * <br>
+ * Le cache peut aussi être rempli depuis une photo instantanée des préférences
+ * (JfxSettingsSnapshot). Le stockage permanent n'est alors lu qu'en arrière-plan,
+ * pour corriger les valeurs de la photo qui ne seraient plus à jour.<br>
+ * <br>
+ * Un groupe d'écritures (putAll) devient visible d'un seul coup pour les lectures
+ * groupées (getAll), qui lisent ainsi toujours un état cohérent de plusieurs clés.<br>
+ * <br>
+ * Des écouteurs (addListener) reçoivent la clé de chaque valeur modifiée, que le
+ * changement provienne de ce stockage ou du stockage permanent.<br>
+ * <br>
+ * Une valeur refusée par le stockage permanent (valeur trop longue, stockage plein...)
+ * est signalée puis abandonnée : elle ne bloque jamais les autres valeurs d'un lot.
+ *
+ * @author jcstritt
+ */
+class JfxSettingsStore {
+  private static final long DEF_FLUSH_INTERVAL = 2000;
+
+  // marque une suppression en attente (comparée par référence, vaut "" pour les lectures)
+  @SuppressWarnings("RedundantStringConstructorCall")
+  private static final String REMOVED = new String("");
+  private static ScheduledExecutorService executor;
+
+  private final JfxSettingsBackend backend;
+  private final Map<String, String> cache;
+  private final Map<String, String> pending;
+  private final Consumer<String> changeListener;
+  private final List<Consumer<String>> listeners;
+  private volatile boolean cacheComplete;
+  private volatile boolean closed;
+  private final AtomicBoolean flushScheduled;
+  private final StampedLock lock;
+  private final Object flushLock;
+  private volatile JfxDurabilityEnum durability;
+  private volatile long flushInterval;
+
+  /**
+   * Constructeur.
+   *
+   * @param backend le stockage permanent à utiliser
+   */
+  JfxSettingsStore(JfxSettingsBackend backend) {
+    this(backend, null);
+  }
+
+  /**
+   * Constructeur avec une photo instantanée des préférences. Les lectures sont
+   * immédiatement servies par la photo, tandis que le stockage permanent est
+   * comparé avec celle-ci en arrière-plan (voir validate).
+   *
+   * @param backend le stockage permanent à utiliser
+   * @param snapshot les valeurs de la photo ou null pour lire le stockage permanent
+   */
+  JfxSettingsStore(JfxSettingsBackend backend, Map<String, String> snapshot) {
+    this.backend = backend;
+    this.cache = new ConcurrentHashMap<>();
+    this.pending = new ConcurrentHashMap<>();
+    this.changeListener = this::refresh;
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.flushScheduled = new AtomicBoolean(false);
+    this.lock = new StampedLock();
+    this.flushLock = new Object();
+    this.durability = JfxDurabilityEnum.SYNC;
+    this.flushInterval = DEF_FLUSH_INTERVAL;
+
+    if (snapshot != null) {
+      cache.putAll(snapshot);
+      this.cacheComplete = true;
+      getExecutor().execute(this::validate);
+    } else {
+      // l'écouteur est ajouté avant le remplissage pour ne manquer aucun changement
+      backend.addChangeListener(changeListener);
+      this.cacheComplete = loadCache();
+    }
+  }
+
+  /**
+   * Méthode privée qui remplit le cache avec toutes les valeurs du stockage.
+   *
+   * @return true si toutes les clés du stockage ont pu être lues
+   */
+  private boolean loadCache() {
+    try {
+      for (String key : backend.keys()) {
+        String value = backend.get(key);
+        if (value != null) {
+          cache.put(key, value);
+        }
+      }
+      return true;
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Méthode privée (en arrière-plan) qui compare les valeurs d'une photo instantanée
+   * avec le stockage permanent et corrige celles qui diffèrent. Une valeur n'est
+   * corrigée que si elle n'a pas été modifiée entre-temps par une écriture.
+   */
+  private synchronized void validate() {
+    if (closed) {
+      return;
+    }
+    backend.addChangeListener(changeListener);
+    Set<String> keys = new HashSet<>(cache.keySet());
+    try {
+      keys.addAll(Arrays.asList(backend.keys()));
+    } catch (IOException ex) {
+      cacheComplete = false;
+    }
+    for (String key : keys) {
+      String cached = cache.get(key);
+      String live = backend.get(key);
+      boolean repaired;
+      if (live == null) {
+        repaired = cached != null && cache.remove(key, cached);
+      } else if (cached == null) {
+        repaired = cache.putIfAbsent(key, live) == null;
+      } else {
+        repaired = !cached.equals(live) && cache.replace(key, cached, live);
+      }
+      if (repaired) {
+        fireChanged(key);
+      }
+    }
+  }
+
+  /**
+   * Retourne toutes les valeurs actuelles (y compris les écritures encore en attente),
+   * par exemple pour écrire une photo instantanée des préférences.
+   *
+   * @return une map avec les clés et les valeurs
+   */
+  Map<String, String> getSnapshot() {
+    long stamp = lock.readLock();
+    try {
+      Map<String, String> values = new HashMap<>(cache);
+      for (Map.Entry<String, String> e : pending.entrySet()) {
+        if (e.getValue() == REMOVED) {
+          values.remove(e.getKey());
+        } else {
+          values.put(e.getKey(), e.getValue());
+        }
+      }
+      return values;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Méthode privée qui tient le cache à jour lors d'un changement dans le stockage,
+   * que celui-ci provienne de cette application ou d'une autre source.<br>
+   * La valeur est relue dans le stockage plutôt que transmise par l'écouteur, car
+   * les changements peuvent être signalés en différé et donc être dépassés. La lecture
+   * et la mise à jour du cache se font sous le même verrou que les écritures, pour qu'une
+   * valeur relue juste avant une écriture ne puisse pas remplacer la nouvelle valeur.
+   *
+   * @param key la clé modifiée
+   */
+  private void refresh(String key) {
+    synchronized (backend) {
+      String value = backend.get(key);
+      if (value != null) {
+        cache.put(key, value);
+      } else {
+        cache.remove(key);
+      }
+    }
+    fireChanged(key);
+  }
+
+  /**
+   * Ajoute un écouteur qui recevra la clé de chaque valeur modifiée.
+   * L'écouteur est appelé dans le thread qui a fait le changement.
+   *
+   * @param listener un écouteur qui reçoit la clé modifiée
+   */
+  void addListener(Consumer<String> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Retire un écouteur ajouté précédemment.
+   *
+   * @param listener l'écouteur à retirer
+   */
+  void removeListener(Consumer<String> listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Méthode privée qui signale le changement d'une clé aux écouteurs.
+   *
+   * @param key la clé modifiée
+   */
+  private void fireChanged(String key) {
+    for (Consumer<String> listener : listeners) {
+      listener.accept(key);
+    }
+  }
+
+  /**
+   * Transmet les écritures en attente et détache le cache du stockage.
+   */
+  void close() {
+    flush();
+    synchronized (this) {
+      closed = true;
+    }
+    backend.removeChangeListener(changeListener);
+    listeners.clear();
+  }
+
+  /**
+   * Méthode privée qui retourne l'unique thread d'arrière-plan (démon)
+   * chargé des écritures différées.
+   *
+   * @return le service d'exécution des écritures différées
+   */
+  private static synchronized ScheduledExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "JfxSettings-flusher");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Retourne le stockage permanent utilisé.
+   *
+   * @return le stockage permanent
+   */
+  JfxSettingsBackend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Retourne le niveau de durabilité actuel.
+   *
+   * @return le niveau de durabilité
+   */
+  JfxDurabilityEnum getDurability() {
+    return durability;
+  }
+
+  /**
+   * Définit le niveau de durabilité. En repassant au mode SYNC,
+   * les écritures encore en attente sont immédiatement transmises.
+   *
+   * @param durability le niveau de durabilité souhaité
+   */
+  void setDurability(JfxDurabilityEnum durability) {
+    this.durability = durability;
+    if (durability.isBuffered()) {
+      scheduleFlush();
+    } else {
+      flush();
+    }
+  }
+
+  /**
+   * Retourne l'intervalle d'écriture du mode ASYNC.
+   *
+   * @return l'intervalle en millisecondes
+   */
+  long getFlushInterval() {
+    return flushInterval;
+  }
+
+  /**
+   * Définit l'intervalle d'écriture du mode ASYNC.
+   *
+   * @param flushInterval l'intervalle en millisecondes
+   */
+  void setFlushInterval(long flushInterval) {
+    this.flushInterval = Math.max(0, flushInterval);
+  }
+
+  /**
+   * Récupère une valeur, en tenant compte des écritures encore en attente.
+   *
+   * @param key la clé de la préférence
+   * @return la valeur trouvée ou "" si la clé n'existe pas
+   */
+  String get(String key) {
+    String value = lookup(key);
+    return (value != null) ? value : "";
+  }
+
+  /**
+   * Recherche une valeur, en tenant compte des écritures encore en attente.
+   * Contrairement à get, une clé absente (ou supprimée) est signalée par null.
+   *
+   * @param key la clé de la préférence
+   * @return la valeur trouvée ou null si la clé n'existe pas
+   */
+  String lookup(String key) {
+    String value = pending.get(key);
+    if (value == REMOVED) {
+      return null;
+    }
+    if (value == null) {
+      value = cache.get(key);
+    }
+    if (value == null && !cacheComplete) {
+      value = backend.get(key);
+      if (value != null) {
+        cache.put(key, value);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Récupère plusieurs valeurs d'un seul coup. Les valeurs retournées
+   * ne contiennent jamais qu'une partie d'un groupe d'écritures (putAll).
+   *
+   * @param keys les clés des préférences
+   * @return un tableau avec les valeurs trouvées (null si une clé n'existe pas)
+   */
+  String[] getAll(String... keys) {
+    String[] values = new String[keys.length];
+    long stamp = lock.readLock();
+    try {
+      for (int i = 0; i < keys.length; i++) {
+        values[i] = lookup(keys[i]);
+      }
+    } finally {
+      lock.unlockRead(stamp);
+    }
+    return values;
+  }
+
+  /**
+   * Mémorise une valeur. Suivant la durabilité, la valeur est transmise
+   * directement au stockage permanent ou retenue en mémoire.
+   *
+   * @param key la clé de la préférence
+   * @param value la valeur à mémoriser
+   */
+  void put(String key, String value) {
+    if (value.equals(lookup(key))) {
+      return;
+    }
+    if (durability.isBuffered()) {
+      pending.put(key, value);
+      scheduleFlush();
+    } else {
+      synchronized (backend) {
+        try {
+          backend.put(key, value);
+        } catch (RuntimeException ex) {
+          ex.printStackTrace();
+          return;
+        }
+        cache.put(key, value);
+      }
+    }
+    fireChanged(key);
+  }
+
+  /**
+   * Mémorise une valeur et la transmet tout de suite au stockage permanent, quelle que
+   * soit la durabilité. Contrairement à put, une valeur refusée par le stockage (valeur
+   * ou clé trop longue, stockage plein...) est signalée à l'appelant. Utilisé pour les
+   * morceaux des blobs, dont le descripteur ne doit être publié que si tous les morceaux
+   * ont été acceptés.
+   *
+   * @param key la clé de la préférence
+   * @param value la valeur à mémoriser
+   * @throws IOException si le stockage permanent refuse la valeur
+   */
+  void putNow(String key, String value) throws IOException {
+    synchronized (flushLock) {
+      long stamp = lock.writeLock();
+      try {
+        synchronized (backend) {
+          try {
+            backend.put(key, value);
+          } catch (RuntimeException ex) {
+            throw new IOException("Settings value rejected for key " + key, ex);
+          }
+          cache.put(key, value);
+          pending.remove(key);
+        }
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+    fireChanged(key);
+  }
+
+  /**
+   * Supprime une valeur. Suivant la durabilité, la suppression est transmise
+   * directement au stockage permanent ou retenue en mémoire.
+   *
+   * @param key la clé de la préférence
+   */
+  void remove(String key) {
+    if (lookup(key) == null) {
+      return;
+    }
+    if (durability.isBuffered()) {
+      pending.put(key, REMOVED);
+      scheduleFlush();
+    } else {
+      synchronized (backend) {
+        backend.remove(key);
+        cache.remove(key);
+      }
+    }
+    fireChanged(key);
+  }
+
+  /**
+   * Mémorise un groupe de valeurs d'un seul coup. Les lectures groupées (getAll) voient
+   * soit toutes ces valeurs, soit aucune. En mode SYNC, le groupe est transmis au stockage
+   * permanent en un seul appel, sans synchronisation (comme une écriture isolée). Dans les
+   * autres modes, il est retenu en mémoire et sera transmis dans un même lot.
+   *
+   * @param values une map avec les clés et les valeurs (null pour supprimer une clé)
+   */
+  void putAll(Map<String, String> values) {
+    long stamp = lock.writeLock();
+    try {
+      if (durability.isBuffered()) {
+        for (Map.Entry<String, String> e : values.entrySet()) {
+          pending.put(e.getKey(), (e.getValue() != null) ? e.getValue() : REMOVED);
+        }
+      } else {
+        Map<String, String> puts = new HashMap<>();
+        synchronized (backend) {
+          for (Map.Entry<String, String> e : values.entrySet()) {
+            if (e.getValue() != null) {
+              if (!e.getValue().equals(lookup(e.getKey()))) {
+                puts.put(e.getKey(), e.getValue());
+              }
+            } else if (lookup(e.getKey()) != null) {
+              puts.put(e.getKey(), null);
+            }
+          }
+          writeAll(puts);
+        }
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+    scheduleFlush();
+    for (String key : values.keySet()) {
+      fireChanged(key);
+    }
+  }
+
+  /**
+   * Exécute une action sans qu'un autre processus ne puisse modifier le stockage permanent
+   * pendant ce temps (voir JfxSettingsBackend.runExclusive). Dans les modes avec tampon,
+   * les écritures de l'action sont transmises avant la fin de cette exclusion.
+   *
+   * @param action l'action à exécuter
+   */
+  void runExclusive(Runnable action) {
+    synchronized (flushLock) {
+      synchronized (backend) {
+        backend.runExclusive(() -> {
+          action.run();
+          if (durability.isBuffered()) {
+            flush();
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Méthode privée qui planifie une écriture différée (mode ASYNC) s'il
+   * y a des écritures en attente et qu'aucune écriture n'est déjà prévue.
+   */
+  private void scheduleFlush() {
+    if (durability == JfxDurabilityEnum.ASYNC && !pending.isEmpty()
+        && flushScheduled.compareAndSet(false, true)) {
+      getExecutor().schedule(() -> {
+        flushScheduled.set(false);
+        flush();
+      }, flushInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Transmet en un seul lot toutes les écritures en attente au stockage
+   * permanent, puis force la synchronisation de celui-ci.
+   */
+  void flush() {
+    Set<String> rejected = null;
+    synchronized (flushLock) {
+      Map<String, String> batch = null;
+      if (!pending.isEmpty()) {
+
+        // la copie ne doit pas couper en deux un groupe d'écritures (putAll)
+        long stamp = lock.writeLock();
+        try {
+          batch = new HashMap<>(pending);
+        } finally {
+          lock.unlockWrite(stamp);
+        }
+      }
+      synchronized (backend) {
+        if (batch != null) {
+          Map<String, String> puts = new HashMap<>();
+          for (Map.Entry<String, String> e : batch.entrySet()) {
+            puts.put(e.getKey(), (e.getValue() != REMOVED) ? e.getValue() : null);
+          }
+          rejected = writeAll(puts);
+
+          // une nouvelle écriture d'une clé reste en attente pour le prochain lot
+          for (Map.Entry<String, String> e : batch.entrySet()) {
+            pending.remove(e.getKey(), e.getValue());
+          }
+        }
+        try {
+          backend.flush();
+        } catch (IOException ex) {
+        }
+      }
+    }
+
+    // une valeur refusée est abandonnée : on signale que la clé a repris son ancienne valeur
+    if (rejected != null) {
+      for (String key : rejected) {
+        fireChanged(key);
+      }
+    }
+  }
+
+  /**
+   * Méthode privée qui transmet un lot de valeurs au stockage permanent en un seul appel
+   * (une valeur null supprime la clé), puis met le cache à jour. Si le stockage refuse
+   * le lot (valeur trop longue, stockage plein...), les valeurs sont transmises une à une :
+   * les clés refusées sont signalées et retirées du lot, les autres sont écrites.
+   *
+   * @param puts les valeurs à écrire, null pour supprimer (les clés refusées en sont retirées)
+   * @return les clés refusées (vide si tout le lot a été écrit)
+   */
+  private Set<String> writeAll(Map<String, String> puts) {
+    Set<String> rejected = new HashSet<>();
+    try {
+      backend.putAll(puts);
+    } catch (RuntimeException ex) {
+      Iterator<Map.Entry<String, String>> it = puts.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, String> e = it.next();
+        try {
+          if (e.getValue() != null) {
+            backend.put(e.getKey(), e.getValue());
+          } else {
+            backend.remove(e.getKey());
+          }
+        } catch (RuntimeException ex2) {
+          ex2.printStackTrace();
+          rejected.add(e.getKey());
+          it.remove();
+        }
+      }
+    }
+    for (Map.Entry<String, String> e : puts.entrySet()) {
+      if (e.getValue() != null) {
+        cache.put(e.getKey(), e.getValue());
+      } else {
+        cache.remove(e.getKey());
+      }
+    }
+    return rejected;
+  }
+
+}
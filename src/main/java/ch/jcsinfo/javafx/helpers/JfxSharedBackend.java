@@ -0,0 +1,584 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Stockage partagé par plusieurs processus (par exemple plusieurs instances de la même
+ * application pour le même utilisateur), placé devant un autre stockage permanent,
+ * en général JfxPrefsBackend.<br>
+ * <br>
+ * Chaque écriture est faite sous un verrou du système d'exploitation (fichier ".lock"),
+ * puis inscrite dans un fichier de séquence (".seq") : numéro de séquence, processus
+ * auteur et clé modifiée. Le numéro de séquence de la dernière écriture d'une clé est
+ * sa version (voir getVersion). Un thread d'arrière-plan surveille la taille du fichier
+ * de séquence ; lorsqu'elle change, seules les nouvelles inscriptions sont lues et seules
+ * les clés modifiées par les autres processus sont signalées aux écouteurs (et donc
+ * relues), sans jamais recharger tout le stockage.<br>
+ * <br>
+ * Une inscription incomplète (processus interrompu pendant l'écriture) est reconnue
+ * à son numéro de séquence ou à sa longueur : la lecture s'arrête devant elle et
+ * le prochain écrivain l'efface avant d'inscrire ses propres changements.<br>
+ * <br>
+ * Si une clé a été modifiée par un autre processus depuis la dernière synchronisation,
+ * c'est la règle de fusion qui décide quelle valeur est gardée (voir JfxMergePolicyEnum).
+ * Les objets mémorisés en blobs (JfxSettings.setObject) sont écrits entièrement sous le
+ * verrou, leurs morceaux ne peuvent donc pas être mélangés avec ceux d'un autre processus.<br>
+ * <br>
+ * Exemple : JfxSettings.setBackend(new JfxSharedBackend(new JfxPrefsBackend("app"), dir));
+ *
+ * @author jcstritt
+ */
+public class JfxSharedBackend implements JfxSettingsBackend {
+  private static final int MAGIC = 0x4A465851; // "JFXQ"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 24;
+  private static final int RECORD_HEADER_SIZE = 20;
+  private static final Map<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+  private static ScheduledExecutorService executor;
+
+  /** intervalle par défaut (en millisecondes) de surveillance du fichier de séquence */
+  public static final long DEF_POLL_INTERVAL = 500;
+
+  /** taille (en octets) au-delà de laquelle le fichier de séquence est vidé */
+  public static final long MAX_SEQ_SIZE = 256 * 1024;
+
+  private final JfxSettingsBackend delegate;
+  private final Path lockFile;
+  private final Path seqFile;
+  private final FileChannel lockChannel;
+  private final FileChannel seqChannel;
+  private final ReentrantLock localLock;
+  private final long writerId;
+  private final Map<String, Long> versions;
+  private final Set<String> redeliver;
+  private final List<Consumer<String>> listeners;
+  private final ScheduledFuture<?> watcher;
+  private FileLock fileLock;
+  private volatile long epoch;
+  private volatile long readPos;
+  private volatile long readSize;
+  private long lastSeq;
+  private volatile JfxMergePolicyEnum mergePolicy;
+  private volatile boolean closed;
+
+  /**
+   * Constructeur avec l'intervalle de surveillance par défaut.
+   *
+   * @param delegate le stockage permanent partagé (par exemple un JfxPrefsBackend)
+   * @param dir le dossier commun aux processus pour les fichiers ".lock" et ".seq"
+   * @throws IOException si les fichiers ne peuvent pas être ouverts ou ne sont pas valides
+   */
+  public JfxSharedBackend(JfxSettingsBackend delegate, Path dir) throws IOException {
+    this(delegate, dir, DEF_POLL_INTERVAL);
+  }
+
+  /**
+   * Constructeur.
+   *
+   * @param delegate le stockage permanent partagé (par exemple un JfxPrefsBackend)
+   * @param dir le dossier commun aux processus pour les fichiers ".lock" et ".seq"
+   * @param pollInterval l'intervalle de surveillance du fichier de séquence (en millisecondes)
+   * @throws IOException si les fichiers ne peuvent pas être ouverts ou ne sont pas valides
+   */
+  public JfxSharedBackend(JfxSettingsBackend delegate, Path dir, long pollInterval) throws IOException {
+    this.delegate = delegate;
+    this.lockFile = dir.resolve(delegate.getName() + ".lock").toAbsolutePath().normalize();
+    this.seqFile = dir.resolve(delegate.getName() + ".seq");
+    this.localLock = LOCAL_LOCKS.computeIfAbsent(lockFile, p -> new ReentrantLock());
+    this.writerId = System.nanoTime() ^ Double.doubleToLongBits(Math.random());
+    this.versions = new ConcurrentHashMap<>();
+    this.redeliver = ConcurrentHashMap.newKeySet();
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.mergePolicy = JfxMergePolicyEnum.LAST_WRITER_WINS;
+    Files.createDirectories(dir);
+    this.lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      this.seqChannel = FileChannel.open(seqFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (IOException ex) {
+      lockChannel.close();
+      throw ex;
+    }
+    try {
+      open();
+    } catch (IOException | RuntimeException ex) {
+      seqChannel.close();
+      lockChannel.close();
+      throw ex;
+    }
+    this.watcher = getExecutor().scheduleWithFixedDelay(this::watch, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Méthode privée qui crée le fichier de séquence si nécessaire, puis le lit une
+   * première fois pour connaître la version de chaque clé (sans rien signaler).
+   *
+   * @throws IOException si le fichier de séquence ne peut pas être lu ou n'est pas valide
+   */
+  private void open() throws IOException {
+    lock(false);
+    try {
+      if (seqChannel.size() < HEADER_SIZE) {
+        writeHeader(0, 0);
+      }
+      ByteBuffer header = read(0, HEADER_SIZE);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+        throw new IOException("Invalid settings sequence file: " + seqFile);
+      }
+      epoch = header.getLong(8);
+      lastSeq = header.getLong(16);
+      readPos = HEADER_SIZE;
+      readChanges(new HashSet<>());
+    } finally {
+      unlock();
+    }
+  }
+
+  /**
+   * Méthode privée qui (ré)écrit l'entête du fichier de séquence et supprime les inscriptions.
+   *
+   * @param newEpoch le numéro de version du fichier (incrémenté à chaque vidage)
+   * @param baseSeq le numéro de séquence qui précède la première inscription
+   * @throws IOException si le fichier ne peut pas être écrit
+   */
+  private void writeHeader(long newEpoch, long baseSeq) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).putLong(newEpoch).putLong(baseSeq).flip();
+    while (header.hasRemaining()) {
+      seqChannel.write(header, header.position());
+    }
+    seqChannel.truncate(HEADER_SIZE);
+    seqChannel.force(true);
+  }
+
+  /**
+   * Méthode privée qui lit des octets du fichier de séquence.
+   *
+   * @param pos la position du premier octet
+   * @param len le nombre d'octets à lire
+   * @return un tampon prêt à être lu
+   * @throws IOException si le fichier se termine avant
+   */
+  private ByteBuffer read(long pos, int len) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(len);
+    while (buf.hasRemaining()) {
+      if (seqChannel.read(buf, pos + buf.position()) < 0) {
+        throw new IOException("Unexpected end of settings sequence file: " + seqFile);
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Méthode privée qui prend le verrou de ce processus, puis celui du système d'exploitation.
+   * Dans une même JVM, les instances qui partagent le même fichier ".lock" se coordonnent
+   * par un verrou commun (un verrou du système ne peut être pris qu'une fois par JVM).
+   *
+   * @param shared true pour un verrou partagé (lecture), false pour un verrou exclusif
+   * @throws IOException si le verrou ne peut pas être pris
+   */
+  private void lock(boolean shared) throws IOException {
+    localLock.lock();
+    if (localLock.getHoldCount() == 1) {
+      try {
+        fileLock = lockChannel.lock(0, Long.MAX_VALUE, shared);
+      } catch (IOException | RuntimeException ex) {
+        localLock.unlock();
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * Méthode privée qui rend les verrous pris avec lock.
+   */
+  private void unlock() {
+    try {
+      if (localLock.getHoldCount() == 1 && fileLock != null) {
+        fileLock.release();
+        fileLock = null;
+      }
+    } catch (IOException ex) {
+    } finally {
+      localLock.unlock();
+    }
+  }
+
+  /**
+   * Méthode privée (sous verrou) qui lit les nouvelles inscriptions du fichier de séquence
+   * et met à jour la version des clés. La lecture s'arrête à la première inscription
+   * incomplète ou dont le numéro de séquence ne suit pas le précédent.<br>
+   * Si le fichier a été vidé par un autre processus, les inscriptions faites avant le
+   * vidage et pas encore lues sont perdues : la méthode retourne alors false.
+   *
+   * @param keys reçoit les clés modifiées par les autres processus (inscriptions lues)
+   * @return false si des inscriptions ont été perdues lors d'un vidage du fichier
+   * @throws IOException si le fichier de séquence ne peut pas être lu
+   */
+  private boolean readChanges(Set<String> keys) throws IOException {
+    ByteBuffer header = read(0, HEADER_SIZE);
+    boolean complete = true;
+    if (header.getLong(8) != epoch) {
+      complete = lastSeq == header.getLong(16);
+      epoch = header.getLong(8);
+      lastSeq = header.getLong(16);
+      readPos = HEADER_SIZE;
+    }
+    long size = seqChannel.size();
+    long pos = readPos;
+    while (pos + RECORD_HEADER_SIZE <= size) {
+      ByteBuffer rec = read(pos, RECORD_HEADER_SIZE);
+      int keyLen = rec.getInt(16);
+      if (rec.getLong(0) != lastSeq + 1 || keyLen < 0 || pos + RECORD_HEADER_SIZE + keyLen > size) {
+        break;
+      }
+      String key = new String(read(pos + RECORD_HEADER_SIZE, keyLen).array(), StandardCharsets.UTF_8);
+      lastSeq = rec.getLong(0);
+      versions.put(key, lastSeq);
+      if (rec.getLong(8) != writerId) {
+        keys.add(key);
+      }
+      pos += RECORD_HEADER_SIZE + keyLen;
+    }
+    readPos = pos;
+    readSize = size;
+    return complete;
+  }
+
+  /**
+   * Méthode privée (sous verrou) qui lit les changements des autres processus, relit
+   * le stockage permanent si nécessaire et note les clés à signaler aux écouteurs.
+   * Si des inscriptions ont été perdues lors d'un vidage du fichier de séquence, toutes
+   * les clés sont signalées, mais seules les clés réellement lues sont retournées :
+   * un vidage n'est pas un conflit d'écriture (voir JfxMergePolicyEnum.FIRST_WRITER_WINS).
+   *
+   * @return les clés dont une modification par un autre processus a été lue
+   * @throws IOException si le fichier de séquence ou le stockage ne peut pas être lu
+   */
+  private Set<String> syncChanges() throws IOException {
+    Set<String> keys = new HashSet<>();
+    Set<String> notified = keys;
+    if (!readChanges(keys)) {
+      notified = new HashSet<>(keys);
+      notified.addAll(versions.keySet());
+      notified.addAll(Arrays.asList(delegate.keys()));
+    }
+    if (!notified.isEmpty()) {
+      delegate.sync();
+      redeliver.addAll(notified);
+    }
+    return keys;
+  }
+
+  /**
+   * Méthode privée (sous verrou exclusif, après readChanges) qui inscrit des clés
+   * modifiées à la suite de la dernière inscription complète du fichier de séquence.
+   * Une inscription incomplète laissée par un processus interrompu est d'abord effacée.
+   *
+   * @param keys les clés modifiées par ce processus
+   * @throws IOException si le fichier ne peut pas être écrit
+   */
+  private void appendChanges(Set<String> keys) throws IOException {
+    long pos = readPos;
+    if (seqChannel.size() > pos) {
+      seqChannel.truncate(pos);
+    }
+    if (pos > MAX_SEQ_SIZE) {
+      epoch++;
+      writeHeader(epoch, lastSeq);
+      pos = HEADER_SIZE;
+    }
+    long seq = lastSeq;
+    long end = pos;
+    try {
+      for (String key : keys) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_HEADER_SIZE + bytes.length);
+        rec.putLong(seq + 1).putLong(writerId).putInt(bytes.length).put(bytes).flip();
+        while (rec.hasRemaining()) {
+          pos += seqChannel.write(rec, pos);
+        }
+        versions.put(key, ++seq);
+        end = pos;
+      }
+    } finally {
+      // en cas d'échec, la suite est relue depuis la dernière inscription complète
+      lastSeq = seq;
+      readPos = end;
+      readSize = end;
+    }
+  }
+
+  /**
+   * Méthode privée qui écrit un groupe de valeurs sous le verrou exclusif, en appliquant
+   * la règle de fusion aux clés modifiées entre-temps par un autre processus.
+   *
+   * @param values une map avec les clés et les valeurs (null pour supprimer une clé)
+   */
+  private void write(Map<String, String> values) {
+    try {
+      lock(false);
+      try {
+        Set<String> changed = syncChanges();
+        Map<String, String> puts = new HashMap<>();
+        Set<String> written = new HashSet<>();
+        for (Map.Entry<String, String> e : values.entrySet()) {
+          if (mergePolicy == JfxMergePolicyEnum.FIRST_WRITER_WINS && changed.contains(e.getKey())) {
+            continue;
+          }
+          puts.put(e.getKey(), e.getValue());
+          written.add(e.getKey());
+        }
+        delegate.putAll(puts);
+
+        // les valeurs doivent être sur le stockage avant d'être annoncées aux autres processus
+        delegate.flush();
+        appendChanges(written);
+        seqChannel.force(false);
+      } finally {
+        unlock();
+      }
+    } catch (IOException ex) {
+      throw new IllegalStateException("Shared settings cannot be written: " + seqFile, ex);
+    }
+
+    // signalé plus tard : l'appelant met encore son cache à jour avec les valeurs écrites
+    if (!redeliver.isEmpty()) {
+      getExecutor().execute(this::deliver);
+    }
+  }
+
+  /**
+   * Méthode privée (en arrière-plan) qui détecte les changements des autres processus.
+   * Tant que la taille et la version du fichier de séquence ne changent pas, aucun
+   * verrou n'est pris et rien n'est relu (même si le fichier se termine par une
+   * inscription incomplète, qui ne sera effacée qu'à la prochaine écriture).
+   */
+  private void watch() {
+    if (closed) {
+      return;
+    }
+    try {
+      if (seqChannel.size() != readSize || read(8, 8).getLong() != epoch) {
+        lock(true);
+        try {
+          syncChanges();
+        } finally {
+          unlock();
+        }
+      }
+      deliver();
+    } catch (IOException | RuntimeException ex) {
+      if (!closed) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Méthode privée qui signale aux écouteurs les clés modifiées par les autres processus.
+   */
+  private void deliver() {
+    for (Iterator<String> it = redeliver.iterator(); it.hasNext();) {
+      String key = it.next();
+      it.remove();
+      for (Consumer<String> listener : listeners) {
+        listener.accept(key);
+      }
+    }
+  }
+
+  /**
+   * Méthode privée qui retourne l'unique thread d'arrière-plan (démon) chargé
+   * de surveiller les fichiers de séquence.
+   *
+   * @return le service d'exécution de la surveillance
+   */
+  private static synchronized ScheduledExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "JfxShared-watcher");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Retourne le stockage permanent partagé.
+   *
+   * @return le stockage permanent
+   */
+  public JfxSettingsBackend getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * Retourne la version d'une clé, c'est-à-dire le numéro de séquence de sa dernière
+   * écriture connue par ce processus.
+   *
+   * @param key la clé recherchée
+   * @return la version de la clé ou 0 si elle n'a encore jamais été écrite
+   */
+  public long getVersion(String key) {
+    Long version = versions.get(key);
+    return (version != null) ? version : 0;
+  }
+
+  /**
+   * Retourne la règle de fusion des écritures en conflit.
+   *
+   * @return la règle de fusion (LAST_WRITER_WINS par défaut)
+   */
+  public JfxMergePolicyEnum getMergePolicy() {
+    return mergePolicy;
+  }
+
+  /**
+   * Définit la règle de fusion des écritures en conflit.
+   *
+   * @param mergePolicy la règle de fusion
+   */
+  public void setMergePolicy(JfxMergePolicyEnum mergePolicy) {
+    this.mergePolicy = mergePolicy;
+  }
+
+  @Override
+  public String getName() {
+    return delegate.getName();
+  }
+
+  @Override
+  public int getMaxValueLength() {
+    return delegate.getMaxValueLength();
+  }
+
+  @Override
+  public int getMaxKeyLength() {
+    return delegate.getMaxKeyLength();
+  }
+
+  @Override
+  public String get(String key) {
+    return delegate.get(key);
+  }
+
+  @Override
+  public void put(String key, String value) {
+    write(Collections.singletonMap(key, value));
+  }
+
+  @Override
+  public void putAll(Map<String, String> values) {
+    if (!values.isEmpty()) {
+      write(values);
+    }
+  }
+
+  @Override
+  public void remove(String key) {
+    write(Collections.singletonMap(key, null));
+  }
+
+  @Override
+  public String[] keys() throws IOException {
+    return delegate.keys();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    delegate.flush();
+  }
+
+  @Override
+  public void sync() throws IOException {
+    lock(true);
+    try {
+      syncChanges();
+    } finally {
+      unlock();
+    }
+    deliver();
+  }
+
+  /**
+   * Exécute une action sous le verrou exclusif : aucun autre processus ne peut modifier
+   * le stockage pendant ce temps. Les changements des autres processus sont d'abord lus
+   * et signalés, l'action travaille donc sur des valeurs à jour.
+   *
+   * @param action l'action à exécuter
+   */
+  @Override
+  public void runExclusive(Runnable action) {
+    try {
+      lock(false);
+    } catch (IOException ex) {
+      throw new IllegalStateException("Shared settings cannot be locked: " + lockFile, ex);
+    }
+    try {
+      syncChanges();
+      deliver();
+      action.run();
+    } catch (IOException ex) {
+      throw new IllegalStateException("Shared settings cannot be read: " + seqFile, ex);
+    } finally {
+      unlock();
+    }
+  }
+
+  @Override
+  public void addChangeListener(Consumer<String> listener) {
+    listeners.add(listener);
+    delegate.addChangeListener(listener);
+  }
+
+  @Override
+  public void removeChangeListener(Consumer<String> listener) {
+    listeners.remove(listener);
+    delegate.removeChangeListener(listener);
+  }
+
+  /**
+   * Arrête la surveillance, ferme les fichiers ".lock" et ".seq", puis le stockage permanent.
+   *
+   * @throws IOException si un fichier ne peut pas être fermé
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    watcher.cancel(false);
+    localLock.lock();
+    try {
+      seqChannel.close();
+      lockChannel.close();
+    } finally {
+      localLock.unlock();
+    }
+    delegate.close();
+  }
+
+}
@@ -0,0 +1,235 @@
+package ch.jcsinfo.javafx.helpers;
+
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontPosture;
+import javafx.scene.text.FontWeight;
+
+/**
+ * Décodage des descriptions String des préférences (police, couleur, position,
+ * entier et booléen) en un seul passage sur les caractères. Le décodage travaille
+ * avec des index dans la chaîne d'origine : hormis l'objet retourné (et le nom
+ * de la police), aucun objet n'est créé (pas de split, de trim ni de substring).<br>
+ * <br>
+ * Une valeur mal formée ne lève pas d'exception : la valeur par défaut est retournée,
+ * comme pour JfxConverter.getInt.
+ *
+ * @author jcstritt
+ */
+final class JfxSpecParser {
+  private static final JfxLabelPosEnum[] POSITIONS = JfxLabelPosEnum.values();
+  private static final String DEF_FONT_NAME = "Arial";
+  private static final int DEF_FONT_SIZE = 10;
+  private static final char FONT_SEP = '-';
+
+  private JfxSpecParser() {
+  }
+
+  /**
+   * Décode une police de caractères (ex: "Comic Sans MS-ITALIC-20").
+   * Le style (BOLD ou ITALIC) et la taille sont facultatifs ;
+   * une taille invalide est remplacée par la taille par défaut.
+   *
+   * @param spec la description de la police
+   * @return un nouvel objet de type Font
+   */
+  static Font parseFont(String spec) {
+    int end = skipBackward(spec, 0, spec.length());
+    if (end == 0) {
+      return new Font(DEF_FONT_NAME, 12);
+    }
+
+    // nom
+    int sep1 = indexOf(spec, FONT_SEP, 0, end);
+    int nameEnd = skipBackward(spec, 0, sep1);
+    String name = spec.substring(skipForward(spec, 0, nameEnd), nameEnd);
+
+    // style
+    FontPosture posture = FontPosture.REGULAR;
+    FontWeight weight = FontWeight.NORMAL;
+    int size = DEF_FONT_SIZE;
+    if (sep1 < end) {
+      int sep2 = indexOf(spec, FONT_SEP, sep1 + 1, end);
+      int from = skipForward(spec, sep1 + 1, sep2);
+      int to = skipBackward(spec, from, sep2);
+      if (matches(spec, from, to, "italic")) {
+        posture = FontPosture.ITALIC;
+      } else if (matches(spec, from, to, "bold")) {
+        weight = FontWeight.BOLD;
+      }
+
+      // taille
+      if (sep2 < end) {
+        int sep3 = indexOf(spec, FONT_SEP, sep2 + 1, end);
+        size = (int) parseInteger(spec, sep2 + 1, sep3, DEF_FONT_SIZE);
+      }
+    }
+    return Font.font(name, weight, posture, size);
+  }
+
+  /**
+   * Décode une couleur. Les notations hexadécimales "#rgb", "#rrggbb" et "#rrggbbaa"
+   * (ou avec le préfixe "0x") sont décodées directement ; les autres notations
+   * (noms de couleurs, "rgb(...)", etc.) sont confiées à Color.web.
+   *
+   * @param spec la description de la couleur (ex: "#fafad2")
+   * @return un objet de type Color
+   * @throws IllegalArgumentException si Color.web ne reconnaît pas la couleur
+   */
+  static Color parseColor(String spec) {
+    int from = skipForward(spec, 0, spec.length());
+    int to = skipBackward(spec, from, spec.length());
+    if (from == to) {
+      return Color.AQUAMARINE;
+    }
+
+    int start = -1;
+    if (spec.charAt(from) == '#') {
+      start = from + 1;
+    } else if (to - from > 2 && spec.charAt(from) == '0' && (spec.charAt(from + 1) | 0x20) == 'x') {
+      start = from + 2;
+    }
+    if (start >= 0) {
+      int len = to - start;
+      if (len == 3) {
+        int r = hex(spec.charAt(start));
+        int g = hex(spec.charAt(start + 1));
+        int b = hex(spec.charAt(start + 2));
+        if ((r | g | b) >= 0) {
+          return Color.rgb(r * 17, g * 17, b * 17);
+        }
+      } else if (len == 6 || len == 8) {
+        int r = hex2(spec, start);
+        int g = hex2(spec, start + 2);
+        int b = hex2(spec, start + 4);
+        int a = (len == 8) ? hex2(spec, start + 6) : 255;
+        if ((r | g | b | a) >= 0) {
+          return Color.rgb(r, g, b, a / 255.0);
+        }
+      }
+    }
+    return Color.web(spec);
+  }
+
+  /**
+   * Décode une position de label (ex: "bottom_left"), sans tenir compte de la casse.
+   *
+   * @param spec la description de la position
+   * @return la position, MIDDLE_CENTER si la description est vide, ou null si elle est inconnue
+   */
+  static JfxLabelPosEnum parsePosition(String spec) {
+    int from = skipForward(spec, 0, spec.length());
+    int to = skipBackward(spec, from, spec.length());
+    if (from == to) {
+      return JfxLabelPosEnum.MIDDLE_CENTER;
+    }
+    for (JfxLabelPosEnum pos : POSITIONS) {
+      if (matches(spec, from, to, pos.name())) {
+        return pos;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Décode un entier de type "int".
+   *
+   * @param spec la description de l'entier (ex: "-10")
+   * @param def la valeur retournée si la description n'est pas un entier valide
+   * @return l'entier décodé
+   */
+  static int parseInt(String spec, int def) {
+    long result = parseInteger(spec, 0, spec.length(), Long.MIN_VALUE);
+    return (result >= Integer.MIN_VALUE && result <= Integer.MAX_VALUE) ? (int) result : def;
+  }
+
+  /**
+   * Décode un booléen : seul "true" (quelle que soit la casse) donne TRUE.
+   *
+   * @param spec la description du booléen
+   * @return true ou false
+   */
+  static boolean parseBoolean(String spec) {
+    int from = skipForward(spec, 0, spec.length());
+    return matches(spec, from, skipBackward(spec, from, spec.length()), "true");
+  }
+
+
+
+  /**
+   * Méthode privée qui décode un entier ([+|-]chiffres) entre deux index,
+   * les espaces autour étant ignorés.
+   *
+   * @param s la chaîne à décoder
+   * @param from l'index de début
+   * @param to l'index de fin (exclu)
+   * @param def la valeur retournée si l'entier n'est pas valide ou dépasse le type "int"
+   * @return l'entier décodé ou la valeur par défaut
+   */
+  private static long parseInteger(String s, int from, int to, long def) {
+    from = skipForward(s, from, to);
+    to = skipBackward(s, from, to);
+    if (from == to) {
+      return def;
+    }
+    boolean negative = s.charAt(from) == '-';
+    if (negative || s.charAt(from) == '+') {
+      from++;
+    }
+    if (from == to || to - from > 10) {
+      return def;
+    }
+    long result = 0;
+    for (int i = from; i < to; i++) {
+      int digit = s.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return def;
+      }
+      result = result * 10 + digit;
+    }
+    result = negative ? -result : result;
+    return (result >= Integer.MIN_VALUE && result <= Integer.MAX_VALUE) ? result : def;
+  }
+
+  private static int indexOf(String s, char c, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (s.charAt(i) == c) {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  private static int skipForward(String s, int from, int to) {
+    while (from < to && s.charAt(from) <= ' ') {
+      from++;
+    }
+    return from;
+  }
+
+  private static int skipBackward(String s, int from, int to) {
+    while (to > from && s.charAt(to - 1) <= ' ') {
+      to--;
+    }
+    return to;
+  }
+
+  private static boolean matches(String s, int from, int to, String word) {
+    return to - from == word.length() && s.regionMatches(true, from, word, 0, word.length());
+  }
+
+  private static int hex(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    c |= 0x20;
+    return (c >= 'a' && c <= 'f') ? c - 'a' + 10 : -1;
+  }
+
+  private static int hex2(String s, int i) {
+    int high = hex(s.charAt(i));
+    int low = hex(s.charAt(i + 1));
+    return (high < 0 || low < 0) ? -1 : (high << 4) | low;
+  }
+
+}
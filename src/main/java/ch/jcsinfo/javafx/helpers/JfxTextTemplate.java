@@ -0,0 +1,90 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Texte d'un ResourceBundle compilé une seule fois en un modèle : une suite
+ * de morceaux de texte fixes séparés par des références "${clé}" vers d'autres
+ * propriétés (voir JfxExtResourceBundle.getTextProperty).<br>
+ * <br>
+ * Une référence se termine à la première accolade "}" qui suit son "${".
+ * Un "${" sans accolade fermante est gardé tel quel dans le texte.
+ *
+ * @author jcstritt
+ */
+final class JfxTextTemplate {
+  private static final String START = "${";
+  private static final char END = '}';
+
+  private final String[] parts;
+  private final String[] keys;
+  private final int fixedLength;
+
+  private JfxTextTemplate(String[] parts, String[] keys) {
+    this.parts = parts;
+    this.keys = keys;
+    int len = 0;
+    for (String part : parts) {
+      len += part.length();
+    }
+    this.fixedLength = len;
+  }
+
+  /**
+   * Compile un texte en un modèle.
+   *
+   * @param text le texte d'une propriété (ex: "Version ${app.version}")
+   * @return le modèle compilé
+   */
+  static JfxTextTemplate compile(String text) {
+    int p1 = text.indexOf(START);
+    if (p1 < 0) {
+      return new JfxTextTemplate(new String[]{text}, new String[0]);
+    }
+
+    List<String> parts = new ArrayList<>();
+    List<String> keys = new ArrayList<>();
+    int from = 0;
+    while (p1 >= 0) {
+      int p2 = text.indexOf(END, p1 + START.length());
+      if (p2 < 0) {
+        break;
+      }
+      parts.add(text.substring(from, p1));
+      keys.add(text.substring(p1 + START.length(), p2));
+      from = p2 + 1;
+      p1 = text.indexOf(START, from);
+    }
+    parts.add(text.substring(from));
+    return new JfxTextTemplate(parts.toArray(new String[parts.size()]), keys.toArray(new String[keys.size()]));
+  }
+
+  /**
+   * Construit le texte final en remplaçant chaque référence par sa valeur.
+   *
+   * @param resolver la fonction qui retourne la valeur d'une clé référencée (ou null)
+   * @return le texte final ou null si une des références n'a pas pu être résolue
+   */
+  String render(Function<String, String> resolver) {
+    if (keys.length == 0) {
+      return parts[0];
+    }
+    String[] values = new String[keys.length];
+    int len = fixedLength;
+    for (int i = 0; i < keys.length; i++) {
+      values[i] = resolver.apply(keys[i]);
+      if (values[i] == null) {
+        return null;
+      }
+      len += values[i].length();
+    }
+    StringBuilder sb = new StringBuilder(len);
+    for (int i = 0; i < keys.length; i++) {
+      sb.append(parts[i]).append(values[i]);
+    }
+    return sb.append(parts[keys.length]).toString();
+  }
+
+}
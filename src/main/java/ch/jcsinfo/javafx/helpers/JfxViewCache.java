@@ -0,0 +1,214 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.layout.StackPane;
+
+/**
+ * Réserve (pool) de vues déjà chargées, pour les dialogues ouverts souvent. Au lieu de
+ * relire le fichier FXML et de reconstruire la vue et son contrôleur à chaque ouverture,
+ * une vue refermée est gardée et réutilisée à la prochaine demande de la même vue dans
+ * la même langue. Le contrôleur peut implémenter JfxResettable pour remettre la vue
+ * dans son état initial avant sa réutilisation.<br>
+ * <br>
+ * La réserve est désactivée par défaut (voir setMaxViews). Les vues les moins récemment
+ * utilisées sont oubliées lorsque le nombre de vues ou la mémoire estimée (d'après le
+ * nombre de noeuds de chaque vue, voir setMemoryBudget) dépasse la limite.<br>
+ * <br>
+ * Exemple : <code>JfxViewCache.acquire("aboutView").displayView(owner, true, func);</code>
+ * la vue retourne automatiquement dans la réserve lorsque sa fenêtre est cachée.
+ *
+ * @author jcstritt
+ */
+public class JfxViewCache {
+  private static final long BYTES_PER_NODE = 2048;
+  private static final Deque<Entry> entries = new ArrayDeque<>();
+  private static int maxViews = 0;
+  private static long memoryBudget = 16L * 1024 * 1024;
+  private static long memoryUsage = 0;
+
+  private JfxViewCache() {
+  }
+
+  /**
+   * Retourne une vue chargée : une vue de la réserve (après l'appel de reset sur son
+   * contrôleur) ou, si aucune n'est disponible, une vue nouvellement chargée.
+   * Une vue retournée n'est plus dans la réserve jusqu'à son retour (voir release).
+   *
+   * @param <T> le type du contrôleur
+   * @param viewName le nom de la vue (sans l'extension .fxml ou autre)
+   * @return le chargeur de la vue
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> JfxExtLoader<T> acquire(String viewName) {
+    String key = cacheKey(viewName, Locale.getDefault());
+    JfxExtLoader<T> loader = null;
+    synchronized (JfxViewCache.class) {
+      Iterator<Entry> it = entries.descendingIterator();
+      while (it.hasNext()) {
+        Entry entry = it.next();
+        if (entry.key.equals(key)) {
+          it.remove();
+          memoryUsage -= entry.bytes;
+          loader = (JfxExtLoader<T>) entry.loader;
+          break;
+        }
+      }
+    }
+    if (loader != null) {
+      Object ctrl = loader.getCtrl();
+      if (ctrl instanceof JfxResettable) {
+        ((JfxResettable) ctrl).reset();
+      }
+    } else {
+      loader = new JfxExtLoader<>(viewName);
+    }
+    loader.setPooled(getMaxViews() > 0 && !loader.hasError());
+    return loader;
+  }
+
+  /**
+   * Remet une vue dans la réserve (appelé automatiquement lorsque la fenêtre d'une vue
+   * obtenue avec acquire est cachée). La vue est d'abord détachée de sa scène, puis
+   * rangée sous la langue dans laquelle elle a été chargée (et non la langue actuelle).
+   * Si la réserve est désactivée ou si la vue a une erreur, la vue est simplement oubliée.
+   *
+   * @param loader le chargeur de la vue
+   */
+  public static void release(JfxExtLoader<?> loader) {
+    loader.setPooled(false);
+    Parent view = loader.getView();
+    if (view == null || loader.hasError() || loader.getLocale() == null) {
+      return;
+    }
+    Scene scene = view.getScene();
+    if (scene != null && scene.getRoot() == view) {
+      scene.setRoot(new StackPane());
+    }
+
+    synchronized (JfxViewCache.class) {
+      if (maxViews <= 0) {
+        return;
+      }
+      Entry entry = new Entry(cacheKey(loader.getViewName(), loader.getLocale()), loader, estimateBytes(view));
+      entries.addLast(entry);
+      memoryUsage += entry.bytes;
+      evict();
+    }
+  }
+
+  /**
+   * Définit le nombre maximum de vues gardées dans la réserve (0 pour désactiver la réserve).
+   *
+   * @param maxViews le nombre maximum de vues
+   */
+  public static synchronized void setMaxViews(int maxViews) {
+    JfxViewCache.maxViews = Math.max(0, maxViews);
+    evict();
+  }
+
+  /**
+   * Retourne le nombre maximum de vues gardées dans la réserve.
+   *
+   * @return le nombre maximum de vues (0 si la réserve est désactivée)
+   */
+  public static synchronized int getMaxViews() {
+    return maxViews;
+  }
+
+  /**
+   * Définit la mémoire maximum (estimée) occupée par les vues de la réserve.
+   *
+   * @param bytes la mémoire maximum en octets (16 Mo par défaut)
+   */
+  public static synchronized void setMemoryBudget(long bytes) {
+    JfxViewCache.memoryBudget = bytes;
+    evict();
+  }
+
+  /**
+   * Retourne la mémoire estimée occupée par les vues de la réserve.
+   *
+   * @return une estimation en octets
+   */
+  public static synchronized long getMemoryUsage() {
+    return memoryUsage;
+  }
+
+  /**
+   * Retourne le nombre de vues actuellement dans la réserve.
+   *
+   * @return le nombre de vues
+   */
+  public static synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Vide la réserve.
+   */
+  public static synchronized void clear() {
+    entries.clear();
+    memoryUsage = 0;
+  }
+
+
+
+  /**
+   * Méthode privée qui oublie les vues les moins récemment utilisées
+   * tant que les limites de la réserve sont dépassées.
+   */
+  private static void evict() {
+    while (!entries.isEmpty() && (entries.size() > maxViews || memoryUsage > memoryBudget)) {
+      memoryUsage -= entries.removeFirst().bytes;
+    }
+  }
+
+  /**
+   * Méthode privée qui construit la clé de la réserve pour une vue et une langue.
+   */
+  private static String cacheKey(String viewName, Locale locale) {
+    return viewName + "_" + locale.getLanguage();
+  }
+
+  /**
+   * Méthode privée qui estime la mémoire occupée par une vue d'après son nombre de noeuds.
+   *
+   * @param node la racine de la vue
+   * @return une estimation en octets
+   */
+  private static long estimateBytes(Node node) {
+    long bytes = BYTES_PER_NODE;
+    if (node instanceof Parent) {
+      for (Node child : ((Parent) node).getChildrenUnmodifiable()) {
+        bytes += estimateBytes(child);
+      }
+    }
+    return bytes;
+  }
+
+
+
+  /**
+   * Une vue gardée dans la réserve.
+   */
+  private static final class Entry {
+
+    private final String key;
+    private final JfxExtLoader<?> loader;
+    private final long bytes;
+
+    private Entry(String key, JfxExtLoader<?> loader, long bytes) {
+      this.key = key;
+      this.loader = loader;
+      this.bytes = bytes;
+    }
+
+  }
+
+}
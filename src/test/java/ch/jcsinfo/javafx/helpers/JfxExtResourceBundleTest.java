@@ -0,0 +1,103 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.util.Arrays;
+import java.util.ListResourceBundle;
+import java.util.ResourceBundle;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests de la classe JfxExtResourceBundle (références "${clé}" et cache des textes).
+ *
+ * @author jcstritt
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class JfxExtResourceBundleTest {
+
+  /**
+   * Crée un paquet de ressources en mémoire (aussi utilisé par JfxObservableResourceFactoryTest).
+   *
+   * @param contents les paires clé-valeur du paquet
+   * @return le paquet de ressources
+   */
+  static ResourceBundle bundle(Object[][] contents) {
+    return new ListResourceBundle() {
+      @Override
+      protected Object[][] getContents() {
+        return contents;
+      }
+    };
+  }
+
+  @Test
+  public void test01_interpolation() {
+    System.out.println("test01_interpolation");
+    JfxExtResourceBundle rb = new JfxExtResourceBundle(bundle(new Object[][]{
+      {"app", "MyApp"},
+      {"version", "1.2"},
+      {"title", "${app} ${version} (${app})"},
+      {"about", "{${title}} ${open"},
+      {"cycle1", "a ${cycle2}"},
+      {"cycle2", "b ${cycle1}"},
+      {"self", "${self}"},
+      {"broken", "x ${unknown}"}
+    }));
+    assertEquals("MyApp 1.2 (MyApp)", rb.getTextProperty("title"));
+    assertEquals("{MyApp 1.2 (MyApp)} ${open", rb.getTextProperty("about"));
+    assertSame(rb.getTextProperty("title"), rb.getTextProperty("title"));
+    assertEquals("def", rb.getTextProperty("cycle1", "def"));
+    assertEquals("def", rb.getTextProperty("cycle2", "def"));
+    assertEquals("", rb.getTextProperty("self"));
+    assertEquals("def", rb.getTextProperty("broken", "def"));
+    assertEquals("def", rb.getTextProperty("nothing", "def"));
+  }
+
+  @Test
+  public void test02_bundleSwitch() {
+    System.out.println("test02_bundleSwitch");
+    JfxExtResourceBundle rb = new JfxExtResourceBundle(bundle(new Object[][]{
+      {"hello", "Bonjour ${name}"}, {"name", "Jean"}
+    }));
+    assertEquals("Bonjour Jean", rb.getTextProperty("hello"));
+    rb.setResourceBundle(bundle(new Object[][]{
+      {"hello", "Hallo ${name}"}, {"name", "Hans"}
+    }));
+    assertEquals("Hallo Hans", rb.getTextProperty("hello"));
+  }
+
+  @Test
+  public void test03_prefixIndex() {
+    System.out.println("test03_prefixIndex");
+    JfxExtResourceBundle rb = new JfxExtResourceBundle(bundle(new Object[][]{
+      {"help.line1", "un"}, {"help.line2", "deux ${help.title}"}, {"help.line10", "dix"},
+      {"help.title", "Aide"}, {"label01", "L1"}, {"label1", "X1"}, {"label3", "L3"}, {"label12", "L12"}
+    }));
+    assertArrayEquals(new String[]{"un", "deux Aide", "dix"}, rb.getTextProperties("help.line"));
+    String[] labels = rb.getTextProperties("label", 1, 12);
+    assertEquals(12, labels.length);
+    assertArrayEquals(new String[]{"L1", "", "L3"}, Arrays.copyOf(labels, 3));
+    assertEquals("L12", labels[11]);
+    assertArrayEquals(new String[]{"X1", "", "L3"}, rb.getTextProperties("label", 1, 3));
+    assertEquals(Arrays.asList("help.line1", "help.line10", "help.line2", "help.title"), rb.getKeys("help."));
+    assertEquals(0, rb.getTextProperties("nothing").length);
+  }
+
+  @Test
+  public void test04_sharedTexts() {
+    System.out.println("test04_sharedTexts");
+    JfxExtResourceBundle shared = new JfxExtResourceBundle(bundle(new Object[][]{
+      {"title", "${app} 2"}, {"app", "MyApp"}
+    }));
+    shared.preload();
+    JfxExtResourceBundle copy = new JfxExtResourceBundle(shared);
+    assertSame(shared.getTextProperty("title"), copy.getTextProperty("title"));
+    copy.setResourceBundle(bundle(new Object[][]{{"title", "Other"}}));
+    assertEquals("Other", copy.getTextProperty("title"));
+    assertEquals("MyApp 2", shared.getTextProperty("title"));
+  }
+
+}
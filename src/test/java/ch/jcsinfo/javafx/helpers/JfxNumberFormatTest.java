@@ -0,0 +1,117 @@
+package ch.jcsinfo.javafx.helpers;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests de la classe JfxNumberFormat : les résultats doivent être identiques
+ * à ceux de DecimalFormat et des méthodes parseXxx standard de Java.
+ *
+ * @author jcstritt
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class JfxNumberFormatTest {
+  private static final double[] SPECIAL_VALUES = {
+    0.0, -0.0, -0.001, 0.125, 1.005, 2.675, 99.995, -0.005, 0.5, 1.5, 2.5, -2.5,
+    123456.789, 1e-10, 1e14, 1e20, -1e20, Double.MAX_VALUE, Double.MIN_VALUE,
+    Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+  };
+
+  private static String formatJdk(double value, int nbOfDecs) {
+    DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.getDefault());
+    symbols.setDecimalSeparator('.');
+    char[] zeros = new char[nbOfDecs];
+    Arrays.fill(zeros, '0');
+    String fmt = (nbOfDecs > 0) ? "0." + new String(zeros) : "0";
+    return new DecimalFormat(fmt, symbols).format(value);
+  }
+
+  @Test
+  public void test01_formatSpecialValues() {
+    System.out.println("test01_formatSpecialValues");
+    for (double value : SPECIAL_VALUES) {
+      for (int n = 0; n <= 6; n++) {
+        Assert.assertEquals(value + " (" + n + ")", formatJdk(value, n), JfxNumberFormat.format(value, n));
+      }
+    }
+  }
+
+  @Test
+  public void test02_formatRandomValues() {
+    System.out.println("test02_formatRandomValues");
+    Random rnd = new Random(20240517);
+    for (int i = 0; i < 200000; i++) {
+      int n = rnd.nextInt(7);
+      double value;
+      switch (i % 4) {
+        case 0:
+          value = (rnd.nextDouble() - 0.5) * 2000;
+          break;
+        case 1:
+          value = rnd.nextInt(2000000) / 1000.0 - 1000; // beaucoup de valeurs à mi-chemin
+          break;
+        case 2:
+          value = (rnd.nextDouble() - 0.5) * Math.pow(10, rnd.nextInt(16));
+          break;
+        default:
+          value = rnd.nextInt(100000) / 8.0; // valeurs exactes en binaire
+          break;
+      }
+      Assert.assertEquals(value + " (" + n + ")", formatJdk(value, n), JfxNumberFormat.format(value, n));
+    }
+  }
+
+  @Test
+  public void test03_parseRoundTrip() {
+    System.out.println("test03_parseRoundTrip");
+    Random rnd = new Random(20240518);
+    for (int i = 0; i < 200000; i++) {
+      double value = (rnd.nextDouble() - 0.5) * Math.pow(10, rnd.nextInt(12));
+      String s = JfxNumberFormat.format(value, rnd.nextInt(7));
+      Assert.assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)),
+          Double.doubleToLongBits(JfxNumberFormat.parseDouble(s)));
+      Assert.assertEquals(s, Float.floatToIntBits(Float.parseFloat(s)),
+          Float.floatToIntBits(JfxNumberFormat.parseFloat(s)));
+      Assert.assertEquals(s, JfxNumberFormat.format(JfxNumberFormat.parseDouble(s), 6),
+          JfxNumberFormat.format(Double.parseDouble(s), 6));
+
+      int n = rnd.nextInt();
+      Assert.assertEquals(n, JfxNumberFormat.parseInt(Integer.toString(n)));
+      long l = rnd.nextLong() >> rnd.nextInt(64);
+      Assert.assertEquals(l, JfxNumberFormat.parseLong(Long.toString(l)));
+    }
+  }
+
+  @Test
+  public void test04_parseSpecialValues() {
+    System.out.println("test04_parseSpecialValues");
+    String[] values = {"0", "-0", "-0.0", " 3.1416 ", "5.", ".5", "+2.5", "1e3", "0.30000000000000004",
+      "123456789012345678901", "9007199254740993", "NaN", "-Infinity", "16777217", "0.1"};
+    for (String s : values) {
+      Assert.assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)),
+          Double.doubleToLongBits(JfxNumberFormat.parseDouble(s)));
+      Assert.assertEquals(s, Float.floatToIntBits(Float.parseFloat(s)),
+          Float.floatToIntBits(JfxNumberFormat.parseFloat(s)));
+    }
+    Assert.assertEquals(Integer.MIN_VALUE, JfxNumberFormat.parseInt("-2147483648"));
+    Assert.assertEquals(Long.MAX_VALUE, JfxNumberFormat.parseLong("9223372036854775807"));
+    Assert.assertEquals(42, JfxNumberFormat.parseInt("+42"));
+    for (String s : new String[]{"", "-", ".", "1.2.3", "abc", "2147483648"}) {
+      try {
+        JfxNumberFormat.parseInt(s);
+        Assert.fail(s);
+      } catch (NumberFormatException ex) {
+      }
+    }
+    Assert.assertEquals(0, JfxConverter.getInt("abc"));
+    Assert.assertEquals(0d, JfxConverter.getDouble("1.2.3"), 0d);
+  }
+
+}
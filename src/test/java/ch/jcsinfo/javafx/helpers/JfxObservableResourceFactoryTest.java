@@ -0,0 +1,69 @@
+package ch.jcsinfo.javafx.helpers;
+
+import static ch.jcsinfo.javafx.helpers.JfxExtResourceBundleTest.bundle;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import javafx.beans.binding.StringBinding;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests de la classe JfxObservableResourceFactory (liaisons partagées et changement de langue).
+ *
+ * @author jcstritt
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class JfxObservableResourceFactoryTest {
+
+  @Test
+  public void test01_sharedBindings() throws Exception {
+    System.out.println("test01_sharedBindings");
+    JfxObservableResourceFactory factory = new JfxObservableResourceFactory();
+    factory.switchResourcesBundle(bundle(new Object[][]{{"ok", "D'accord"}, {"cancel", "Annuler"}}))
+        .get(5, TimeUnit.SECONDS);
+    StringBinding ok = factory.getStringBinding("ok");
+    assertSame(ok, factory.getStringBinding("ok"));
+    assertEquals("D'accord", ok.get());
+    assertEquals("unknown", factory.getStringBinding("unknown").get());
+    assertEquals(2, factory.getBindingCount());
+
+    factory.switchResourcesBundle(bundle(new Object[][]{{"ok", "OK"}})).get(5, TimeUnit.SECONDS);
+    assertEquals("OK", ok.get());
+    assertEquals("cancel", factory.getStringBinding("cancel").get());
+  }
+
+  @Test
+  public void test02_preloadMissingViews() throws Exception {
+    System.out.println("test02_preloadMissingViews");
+    JfxBundleCache.preload("noSuchView").get(5, TimeUnit.SECONDS);
+    assertFalse(JfxBundleCache.contains("noSuchView", Locale.FRENCH));
+    assertEquals(4, JfxBundleCache.getLocales().length);
+  }
+
+  @Test
+  public void test03_preloadAndSwitchLocale() throws Exception {
+    System.out.println("test03_preloadAndSwitchLocale");
+    JfxBundleCache.evict("testView");
+    JfxBundleCache.preload("testView").get(5, TimeUnit.SECONDS);
+    assertTrue(JfxBundleCache.contains("testView", Locale.FRENCH));
+    assertTrue(JfxBundleCache.contains("testView", Locale.GERMAN));
+    assertFalse(JfxBundleCache.contains("testView", Locale.ITALIAN));
+
+    // le changement de langue utilise le paquet du cache, sans rien charger
+    int size = JfxBundleCache.size();
+    JfxObservableResourceFactory factory = new JfxObservableResourceFactory();
+    StringBinding title = factory.getStringBinding("title");
+    factory.switchLocale("testView", Locale.FRENCH).get(5, TimeUnit.SECONDS);
+    assertEquals("Bienvenue", title.get());
+    factory.switchLocale("testView", Locale.GERMAN).get(5, TimeUnit.SECONDS);
+    assertEquals("Willkommen", title.get());
+    assertSame(JfxBundleCache.get("testView", Locale.GERMAN).getResourceBundle(), factory.getResourcesBundle());
+    assertEquals(size, JfxBundleCache.size());
+  }
+
+}
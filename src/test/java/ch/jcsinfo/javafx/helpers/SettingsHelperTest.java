@@ -1,7 +1,39 @@
 package ch.jcsinfo.javafx.helpers;
 
 import ch.jcsinfo.javafx.helpers.JfxSettings;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.StringProperty;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
@@ -96,4 +128,734 @@ public class SettingsHelperTest {
     assertEquals(expResult.toString(), result.toString());
   }
 
+  @Test
+  public void test09_setDurability() {
+    System.out.println("setDurability");
+    Object pref = "BUFFERED_VALUE";
+    JfxSettings.setDurability(JfxDurabilityEnum.NONE);
+    JfxSettings.setInt(pref, 1);
+    JfxSettings.setInt(pref, 2);
+    assertEquals(2, JfxSettings.getInt(pref));
+    JfxSettings.flush();
+    JfxSettings.setDurability(JfxDurabilityEnum.SYNC);
+    assertEquals(2, JfxSettings.getInt(pref));
+  }
+
+  @Test
+  public void test10_setBackend() throws IOException {
+    System.out.println("setBackend");
+    Path file = Files.createTempFile("javafx-test", ".jfxs");
+    Files.delete(file);
+    JfxMappedBackend backend = new JfxMappedBackend(file);
+    JfxSettings.setBackend(backend);
+    JfxSettings.setRectangle("WINDOW", 10, 20, 640, 480);
+    JfxSettings.setUserNodeName("JAVAFX-TEST");
+    backend.close();
+
+    backend = new JfxMappedBackend(file);
+    JfxSettings.setBackend(backend);
+    Rectangle2D result = JfxSettings.getRectangle("WINDOW");
+    JfxSettings.setUserNodeName("JAVAFX-TEST");
+    backend.close();
+    Files.delete(file);
+    assertEquals(new Rectangle2D(10, 20, 640, 480), result);
+  }
+
+  @Test
+  public void test11_setObjectCodec() {
+    System.out.println("setObjectCodec");
+    Object pref = "LAYOUT_VALUE";
+    Map<String, Object> expResult = new LinkedHashMap<>();
+    expResult.put("window", new Rectangle2D(10, 20, 640, 480));
+    expResult.put("color", Color.web("#fafad2"));
+    expResult.put("columns", new ArrayList<>(Arrays.asList("nom", "section", 120, 80.5d, true)));
+    JfxSettings.setObject(pref, expResult);
+    assertEquals(expResult, JfxSettings.getObject(pref));
+
+    // une map triée n'a pas d'encodeur compact : elle est relue avec sa classe d'origine
+    Map<String, Integer> sorted = new TreeMap<>(Collections.reverseOrder());
+    sorted.put("a", 1);
+    sorted.put("b", 2);
+    JfxSettings.setObject(pref, sorted);
+    Object result = JfxSettings.getObject(pref);
+    assertEquals(TreeMap.class, result.getClass());
+    assertEquals("b", ((TreeMap<?, ?>) result).firstKey());
+
+    int[] widths = {120, -1, 80};
+    JfxSettings.setObject(pref, widths);
+    assertArrayEquals(widths, (int[]) JfxSettings.getObject(pref));
+  }
+
+  @Test
+  public void test12_setBlob() throws IOException {
+    System.out.println("setBlob");
+    Object pref = "BLOB_VALUE";
+    List<String> expResult = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      expResult.add("recherche " + i);
+    }
+    JfxSettings.setObject(pref, expResult);
+    assertEquals(expResult, JfxSettings.getObject(pref));
+
+    byte[] bytes = new byte[100000];
+    new Random(1).nextBytes(bytes);
+    try (OutputStream out = JfxSettings.openBlobOutput(pref)) {
+      out.write(bytes);
+    }
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (InputStream in = JfxSettings.openBlobInput(pref)) {
+      int b;
+      while ((b = in.read()) >= 0) {
+        result.write(b);
+      }
+    }
+    assertArrayEquals(bytes, result.toByteArray());
+    JfxSettings.removeValue(pref);
+    assertEquals("", JfxSettings.getValue(pref));
+  }
+
+  @Test
+  public void test13_batch() {
+    System.out.println("batch");
+    JfxSettings.batch(tx -> tx
+        .setRectangle("DIALOG", 1, 2, 300, 200)
+        .setBoolean("DIALOG_MAXIMIZED", true)
+        .removeValue("STRING_VALUE"));
+    String[] result = JfxSettings.getValues("DIALOG_WIDTH", "DIALOG_MAXIMIZED", "STRING_VALUE");
+    assertArrayEquals(new String[]{"300.00", "true", ""}, result);
+    assertEquals(new Rectangle2D(1, 2, 300, 200), JfxSettings.getRectangle("DIALOG"));
+  }
+
+  @Test
+  public void test14_properties() {
+    System.out.println("properties");
+    JfxSettings.setInt("PROP_INT", 1);
+    IntegerProperty intProp = JfxSettings.intProperty("PROP_INT");
+    StringProperty strProp = JfxSettings.property("PROP_INT");
+    assertEquals(1, intProp.get());
+    assertSame(intProp, JfxSettings.intProperty("PROP_INT"));
+
+    // JavaFX n'étant pas démarré ici, la mise à jour est immédiate
+    JfxSettings.setInt("PROP_INT", 42);
+    assertEquals(42, intProp.get());
+    assertEquals("42", strProp.get());
+
+    DoubleProperty dblProp = JfxSettings.doubleProperty("PROP_DOUBLE", 2);
+    dblProp.set(3.14159);
+    assertEquals("3.14", JfxSettings.getValue("PROP_DOUBLE"));
+    assertEquals(3.14, dblProp.get(), 0d);
+
+    JfxSettings.batch(tx -> tx.setInt("PROP_INT", 7).setDouble("PROP_DOUBLE", 1.5, 2));
+    assertEquals(7, intProp.get());
+    assertEquals(1.5, dblProp.get(), 0d);
+
+    JfxSettings.removeValue("PROP_INT");
+    JfxSettings.removeValue("PROP_DOUBLE");
+    assertEquals(0, intProp.get());
+    assertEquals("", strProp.get());
+  }
+
+  @Test
+  public void test15_snapshot() throws IOException, InterruptedException {
+    System.out.println("snapshot");
+    Path file = Files.createTempFile("jfxsettings", ".snapshot");
+    try {
+      JfxSettings.setSnapshotFile(file);
+      JfxSettings.setValue("SNAP_A", "1");
+      JfxSettings.setValue("SNAP_B", "été");
+      JfxSettings.writeSnapshot();
+      Map<String, String> snapshot = JfxSettingsSnapshot.read(file, JfxSettings.getUserNodeName());
+      assertEquals("1", snapshot.get("SNAP_A"));
+      assertEquals("été", snapshot.get("SNAP_B"));
+      assertNull(JfxSettingsSnapshot.read(file, "OTHER-NODE"));
+
+      // la photo n'est plus à jour : elle doit être corrigée en arrière-plan
+      JfxSettings.setValue("SNAP_A", "2");
+      JfxSettings.removeValue("SNAP_B");
+      JfxSettings.setUserNodeName(JfxSettings.getUserNodeName());
+      for (int i = 0; i < 100 && !JfxSettings.getValue("SNAP_A").equals("2"); i++) {
+        Thread.sleep(50);
+      }
+      assertEquals("2", JfxSettings.getValue("SNAP_A"));
+      for (int i = 0; i < 100 && !JfxSettings.getValue("SNAP_B").isEmpty(); i++) {
+        Thread.sleep(50);
+      }
+      assertEquals("", JfxSettings.getValue("SNAP_B"));
+
+      // un fichier endommagé est ignoré
+      byte[] bytes = Files.readAllBytes(file);
+      bytes[bytes.length / 2] ^= 1;
+      Files.write(file, bytes);
+      assertNull(JfxSettingsSnapshot.read(file, JfxSettings.getUserNodeName()));
+    } finally {
+      JfxSettings.setSnapshotFile(null);
+      JfxSettings.removeValue("SNAP_A");
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private enum TestPref {
+    ENUM_WIDTH, ENUM_RATIO, ENUM_VISIBLE, ENUM_TITLE
+  }
+
+  @Test
+  public void test16_enumSettings() {
+    System.out.println("enumSettings");
+    JfxSettings.setInt(TestPref.ENUM_WIDTH, 800);
+    JfxEnumSettings<TestPref> prefs = new JfxEnumSettings<>(TestPref.class);
+    try {
+      assertEquals(800, prefs.getInt(TestPref.ENUM_WIDTH));
+      assertEquals(800L, prefs.getLong(TestPref.ENUM_WIDTH));
+
+      prefs.setDouble(TestPref.ENUM_RATIO, 1.23456, 3);
+      prefs.setBoolean(TestPref.ENUM_VISIBLE, true);
+      prefs.setValue(TestPref.ENUM_TITLE, "Titre");
+      assertEquals(1.235, prefs.getDouble(TestPref.ENUM_RATIO), 0d);
+      assertEquals(1.235f, prefs.getFloat(TestPref.ENUM_RATIO), 0f);
+      assertTrue(prefs.getBoolean(TestPref.ENUM_VISIBLE));
+      assertEquals("Titre", prefs.getValue(TestPref.ENUM_TITLE));
+      assertEquals("1.235", JfxSettings.getValue(TestPref.ENUM_RATIO));
+
+      // une écriture directe dans JfxSettings met aussi à jour les valeurs typées
+      JfxSettings.setInt(TestPref.ENUM_WIDTH, 1024);
+      assertEquals(1024, prefs.getInt(TestPref.ENUM_WIDTH));
+      JfxSettings.removeValue(TestPref.ENUM_TITLE);
+      assertEquals("", prefs.getValue(TestPref.ENUM_TITLE));
+    } finally {
+      prefs.close();
+      for (TestPref p : TestPref.values()) {
+        JfxSettings.removeValue(p);
+      }
+    }
+  }
+
+  @Test
+  public void test17_contexts() throws IOException {
+    System.out.println("contexts");
+    Path file1 = Files.createTempFile("javafx-test", ".jfxs");
+    Path file2 = Files.createTempFile("javafx-test", ".jfxs");
+    Files.delete(file1);
+    Files.delete(file2);
+    JfxMappedBackend backend1 = new JfxMappedBackend(file1);
+    JfxMappedBackend backend2 = new JfxMappedBackend(file2);
+    JfxSettingsContext tool1 = new JfxSettingsContext(backend1);
+    JfxSettingsContext tool2 = new JfxSettingsContext(backend2);
+    try {
+      tool1.setInt("WIDTH", 640);
+      tool2.setInt("WIDTH", 800);
+      IntegerProperty width1 = tool1.intProperty("WIDTH");
+      assertEquals(640, tool1.getInt("WIDTH"));
+      assertEquals(800, tool2.getInt("WIDTH"));
+      assertEquals("", JfxSettings.getValue("WIDTH"));
+
+      // une écriture dans un contexte ne touche pas les autres
+      tool2.setInt("WIDTH", 1024);
+      assertEquals(640, width1.get());
+      tool1.setInt("WIDTH", 320);
+      assertEquals(320, width1.get());
+      assertSame(JfxSettings.getDefault(), JfxSettings.getDefault());
+    } finally {
+      tool1.close();
+      tool2.close();
+      backend1.close();
+      backend2.close();
+      Files.deleteIfExists(file1);
+      Files.deleteIfExists(file2);
+    }
+  }
+
+  @Test
+  public void test18_journal() throws IOException {
+    System.out.println("journal");
+    Path file = Files.createTempFile("javafx-test", ".jfxj");
+    Files.delete(file);
+    JfxJournalBackend backend = new JfxJournalBackend(file);
+    try {
+      JfxSettingsContext context = new JfxSettingsContext(backend);
+      context.setRectangle("WINDOW", 10, 20, 640, 480);
+      context.setValue("TITLE", "Journal");
+      backend.compact();
+      context.setRectangle("WINDOW", 30, 40, 800, 600);
+      context.close();
+      backend.close();
+
+      // arrêt brutal simulé : le dernier groupe d'écritures est coupé en deux
+      long size = Files.size(file);
+      backend = new JfxJournalBackend(file);
+      new JfxSettingsContext(backend).setRectangle("WINDOW", 50, 60, 1024, 768);
+      backend.close();
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+        channel.truncate(size + (Files.size(file) - size) / 2);
+      }
+
+      backend = new JfxJournalBackend(file);
+      JfxSettingsContext context2 = new JfxSettingsContext(backend);
+      assertEquals(new Rectangle2D(30, 40, 800, 600), context2.getRectangle("WINDOW"));
+      assertEquals("Journal", context2.getValue("TITLE"));
+      assertEquals(size, Files.size(file));
+      context2.close();
+      backend.close();
+
+      // un point de reprise endommagé ne doit pas être ignoré en silence
+      try (FileChannel channel = FileChannel.open(backend.getCheckpointFile(), StandardOpenOption.WRITE)) {
+        channel.truncate(channel.size() / 2);
+      }
+      try {
+        new JfxJournalBackend(file).close();
+        assertTrue("checkpoint must be validated", false);
+      } catch (IOException ex) {
+      }
+    } finally {
+      backend.close();
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(backend.getCheckpointFile());
+    }
+  }
+
+  @Test
+  public void test19_layers() throws IOException {
+    System.out.println("layers");
+    Path site = Files.createTempFile("javafx-test", ".properties");
+    Path file = Files.createTempFile("javafx-test", ".jfxs");
+    Files.delete(file);
+    JfxMappedBackend backend = new JfxMappedBackend(file);
+    JfxSettingsContext context = new JfxSettingsContext(backend);
+    try {
+      Map<String, String> defaults = new LinkedHashMap<>();
+      defaults.put("LOGO", "/images/logo.png");
+      defaults.put("BG_MSG1_COLOR", "#000000");
+      context.setDefaults(defaults);
+      Files.write(site, Arrays.asList("BG_MSG1_COLOR=#336699"));
+      assertTrue(context.loadSiteFile(site));
+      StringProperty color = context.property("BG_MSG1_COLOR");
+
+      assertEquals("/images/logo.png", context.getValue("LOGO"));
+      assertEquals("#336699", color.get());
+      context.setValue("BG_MSG1_COLOR", "#FF0000");
+      assertEquals("#FF0000", context.getValues("LOGO", "BG_MSG1_COLOR")[1]);
+
+      // un changement du site ne touche pas une valeur de l'utilisateur
+      Files.write(site, Arrays.asList("BG_MSG1_COLOR=#00FF00", "LOGO=/site/logo.png"));
+      assertTrue(context.loadSiteFile(site));
+      assertEquals("#FF0000", color.get());
+      assertEquals("/site/logo.png", context.getValue("LOGO"));
+
+      // une valeur vide de l'utilisateur masque la valeur du site
+      context.setValue("LOGO", "");
+      assertEquals("", context.getValue("LOGO"));
+      context.removeValue("LOGO");
+      assertEquals("/site/logo.png", context.getValue("LOGO"));
+      context.removeValue("BG_MSG1_COLOR");
+      assertEquals("#00FF00", color.get());
+      assertEquals("", context.getValue("UNKNOWN"));
+    } finally {
+      context.close();
+      backend.close();
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(site);
+    }
+  }
+
+  @Test
+  public void test20_sharedBackend() throws IOException, InterruptedException {
+    System.out.println("sharedBackend");
+    Path dir = Files.createTempDirectory("javafx-test");
+    JfxSharedBackend a = new JfxSharedBackend(new JfxPrefsBackend("JAVAFX-TEST"), dir, 20);
+    JfxSharedBackend b = new JfxSharedBackend(new JfxPrefsBackend("JAVAFX-TEST"), dir, 20);
+    List<String> seen = new CopyOnWriteArrayList<>();
+    b.addChangeListener(seen::add);
+    try {
+      // l'écriture de b est en conflit avec celle de a, qu'il n'a pas encore vue
+      b.setMergePolicy(JfxMergePolicyEnum.FIRST_WRITER_WINS);
+      a.put("SHARED_KEY", "a");
+      b.put("SHARED_KEY", "b");
+      assertEquals("a", b.get("SHARED_KEY"));
+      assertEquals(a.getVersion("SHARED_KEY"), b.getVersion("SHARED_KEY"));
+
+      b.setMergePolicy(JfxMergePolicyEnum.LAST_WRITER_WINS);
+      a.put("SHARED_KEY", "a2");
+      b.put("SHARED_KEY", "b2");
+      assertEquals("b2", a.get("SHARED_KEY"));
+
+      // la clé modifiée par l'autre processus est signalée
+      seen.clear();
+      a.putAll(Collections.singletonMap("SHARED_OTHER", "x"));
+      for (int i = 0; i < 100 && !seen.contains("SHARED_OTHER"); i++) {
+        Thread.sleep(10);
+      }
+      assertTrue(seen.contains("SHARED_OTHER"));
+      b.sync();
+      assertTrue(b.getVersion("SHARED_OTHER") > b.getVersion("SHARED_KEY"));
+
+      // une inscription incomplète (processus interrompu) est effacée par le prochain écrivain
+      try (FileChannel seq = FileChannel.open(dir.resolve("JAVAFX-TEST.seq"), StandardOpenOption.APPEND)) {
+        seq.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 0, 0, 0, 0, 99, 1, 2}));
+      }
+      a.put("SHARED_OTHER", "y");
+      for (int i = 0; i < 100 && b.getVersion("SHARED_OTHER") != a.getVersion("SHARED_OTHER"); i++) {
+        Thread.sleep(10);
+      }
+      assertEquals(a.getVersion("SHARED_OTHER"), b.getVersion("SHARED_OTHER"));
+    } finally {
+      a.remove("SHARED_KEY");
+      a.remove("SHARED_OTHER");
+      a.close();
+      b.close();
+      Files.deleteIfExists(dir.resolve("JAVAFX-TEST.lock"));
+      Files.deleteIfExists(dir.resolve("JAVAFX-TEST.seq"));
+      Files.deleteIfExists(dir);
+    }
+  }
+
+  @Test
+  public void test21_internCache() {
+    System.out.println("internCache");
+    JfxSettings.setValue("BG_MSG1_COLOR", "#336699");
+    long hits = JfxConverter.getColorCache().getHits();
+    Color color = JfxSettings.getColor(1);
+    assertSame(color, JfxSettings.getColor(1));
+    assertSame(JfxConverter.getFont("Arial-BOLD-12"), JfxConverter.getFont("Arial-BOLD-12"));
+    assertTrue(JfxConverter.getColorCache().getHits() > hits);
+    JfxSettings.removeValue("BG_MSG1_COLOR");
+
+    // des descriptions toujours nouvelles ne font jamais grandir le cache sans limite
+    JfxInternCache<String> cache = new JfxInternCache<>(16, String::toUpperCase);
+    for (int i = 0; i < 1000; i++) {
+      cache.get("spec" + i);
+    }
+    assertTrue(cache.size() <= 2 * (cache.getMaxSize() + 1));
+    assertEquals(1000, cache.getMisses());
+  }
+
+  @Test
+  public void test22_typedGet() {
+    System.out.println("typedGet");
+    JfxSettings.setValue("BG_MSG2_FONT", "Arial-BOLD-abc");
+    JfxSettings.setValue("BG_MSG2_COLOR", "#369");
+    JfxSettings.setValue("BG_MSG2_POS", " bottom_left ");
+    Font font = JfxSettings.get("BG_MSG2_FONT", Font.class);
+    assertSame(font, JfxSettings.getFont(2));
+    assertEquals(10, font.getSize(), 0);
+    assertEquals(Color.web("#336699"), JfxSettings.get("BG_MSG2_COLOR", Color.class));
+    assertEquals(JfxLabelPosEnum.BOTTOM_LEFT, JfxSettings.get("BG_MSG2_POS", JfxLabelPosEnum.class));
+    assertEquals(0, JfxConverter.getInt(" 12x "));
+    assertEquals(-42, (int) JfxConverter.convert(" -42 ", int.class));
+    assertEquals(0, JfxConverter.getInt("99999999999"));
+    assertTrue(JfxConverter.convert(" TRUE", Boolean.class));
+    JfxSettings.removeValue("BG_MSG2_FONT");
+    JfxSettings.removeValue("BG_MSG2_COLOR");
+    JfxSettings.removeValue("BG_MSG2_POS");
+  }
+
+  @Test
+  public void test23_rejectedValue() throws IOException {
+    System.out.println("rejectedValue");
+    Path file = Files.createTempFile("javafx-test", ".jfxs");
+    Files.delete(file);
+    JfxMappedBackend backend = new JfxMappedBackend(file);
+    JfxSettingsContext context = new JfxSettingsContext(backend);
+    char[] chars = new char[backend.getMaxValueLength() + 1];
+    Arrays.fill(chars, 'x');
+    String tooLong = new String(chars);
+    try {
+      // SYNC : la valeur refusée n'est pas mémorisée et ne lève pas d'exception
+      context.setValue("TOO_LONG", tooLong);
+      assertEquals("", context.getValue("TOO_LONG"));
+
+      // ASYNC : la clé refusée est retirée du lot, les autres valeurs sont écrites
+      context.setDurability(JfxDurabilityEnum.ASYNC);
+      context.setValue("TOO_LONG", tooLong);
+      context.setValue("TITLE", "Mapped");
+      context.flush();
+      assertEquals("", context.getValue("TOO_LONG"));
+      assertEquals("Mapped", backend.get("TITLE"));
+      context.setValue("WIDTH", "640");
+      context.flush();
+      assertEquals("640", backend.get("WIDTH"));
+    } finally {
+      context.close();
+      backend.close();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Stockage en mémoire. Si ses clés ne peuvent pas être listées, le cache reste incomplet.
+   */
+  private static class MemoryBackend implements JfxSettingsBackend {
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    private final String name;
+    private final boolean listable;
+
+    MemoryBackend(String name, boolean listable) {
+      this.name = name;
+      this.listable = listable;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String get(String key) {
+      return values.get(key);
+    }
+
+    @Override
+    public void put(String key, String value) {
+      values.put(key, value);
+    }
+
+    @Override
+    public void remove(String key) {
+      values.remove(key);
+    }
+
+    @Override
+    public String[] keys() throws IOException {
+      if (!listable) {
+        throw new IOException("keys");
+      }
+      return values.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void addChangeListener(Consumer<String> listener) {
+    }
+
+    @Override
+    public void removeChangeListener(Consumer<String> listener) {
+    }
+  }
+
+  @Test
+  public void test24_uncachedRemove() {
+    System.out.println("uncachedRemove");
+    MemoryBackend backend = new MemoryBackend("unlisted", false);
+    backend.put("HEIGHT", "600");
+    backend.put("WIDTH", "800");
+    JfxSettingsContext context = new JfxSettingsContext(backend);
+    try {
+      context.batch(tx -> tx.removeValue("HEIGHT"));
+      context.removeValue("WIDTH");
+      assertEquals("", context.getValue("HEIGHT"));
+      assertEquals("", context.getValue("WIDTH"));
+      assertNull(backend.get("HEIGHT"));
+      assertNull(backend.get("WIDTH"));
+    } finally {
+      context.close();
+    }
+  }
+
+  private static byte[] readBlob(JfxSettingsContext context, Object pref) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (InputStream in = context.openBlobInput(pref)) {
+      int b;
+      while ((b = in.read()) >= 0) {
+        result.write(b);
+      }
+    }
+    return result.toByteArray();
+  }
+
+  @Test
+  public void test25_rejectedBlob() throws IOException {
+    System.out.println("rejectedBlob");
+    Path file = Files.createTempFile("javafx-test", ".jfxs");
+    Files.delete(file);
+    JfxMappedBackend backend = new JfxMappedBackend(file, 16, 32, 64);
+    JfxSettingsContext context = new JfxSettingsContext(backend);
+    try {
+      byte[] small = new byte[40];
+      new Random(1).nextBytes(small);
+      try (OutputStream out = context.openBlobOutput("BLOB")) {
+        out.write(small);
+      }
+
+      // stockage plein : l'ancien blob reste lisible
+      byte[] large = new byte[10000];
+      new Random(2).nextBytes(large);
+      boolean rejected = false;
+      try (OutputStream out = context.openBlobOutput("BLOB")) {
+        out.write(large);
+      } catch (IOException ex) {
+        rejected = true;
+      }
+      assertTrue(rejected);
+      assertArrayEquals(small, readBlob(context, "BLOB"));
+
+      // clé d'un morceau trop longue
+      String longKey = "BLOB_WITH_A_VERY_LONG_NAME_1234";
+      rejected = false;
+      try (OutputStream out = context.openBlobOutput(longKey)) {
+        out.write(small);
+      } catch (IOException ex) {
+        rejected = true;
+      }
+      assertTrue(rejected);
+      assertEquals("", context.getValue(longKey));
+      assertArrayEquals(small, readBlob(context, "BLOB"));
+    } finally {
+      context.close();
+      backend.close();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void test26_sharedReset() throws IOException {
+    System.out.println("sharedReset");
+    Path dir = Files.createTempDirectory("javafx-test");
+    MemoryBackend storage = new MemoryBackend("JAVAFX-RESET", true);
+    JfxSharedBackend a = new JfxSharedBackend(storage, dir, 60000);
+    JfxSharedBackend b = new JfxSharedBackend(storage, dir, 60000);
+    try {
+      b.put("RESET_B", "b0");
+
+      // a remplit le fichier de séquence, qui est vidé lors de son écriture suivante
+      Map<String, String> values = new LinkedHashMap<>();
+      char[] pad = new char[60];
+      Arrays.fill(pad, 'x');
+      for (int i = 0; JfxSharedBackend.MAX_SEQ_SIZE / 80 >= i; i++) {
+        values.put(new String(pad) + i, "v");
+      }
+      a.putAll(values);
+      a.put("RESET_A", "a");
+
+      // le vidage n'est pas un conflit, seule la clé écrite par a depuis le vidage en est un
+      b.setMergePolicy(JfxMergePolicyEnum.FIRST_WRITER_WINS);
+      Map<String, String> writes = new LinkedHashMap<>();
+      writes.put("RESET_A", "b");
+      writes.put("RESET_B", "b");
+      b.putAll(writes);
+      assertEquals("a", storage.get("RESET_A"));
+      assertEquals("b", storage.get("RESET_B"));
+      assertTrue(b.getVersion("RESET_B") > a.getVersion("RESET_A"));
+    } finally {
+      a.close();
+      b.close();
+      Files.deleteIfExists(dir.resolve("JAVAFX-RESET.lock"));
+      Files.deleteIfExists(dir.resolve("JAVAFX-RESET.seq"));
+      Files.deleteIfExists(dir);
+    }
+  }
+
+
+  @Test
+  public void test27_groupedRemove() {
+    System.out.println("groupedRemove");
+    List<Map<String, String>> groups = new ArrayList<>();
+    MemoryBackend backend = new MemoryBackend("grouped", true) {
+      @Override
+      public void putAll(Map<String, String> values) {
+        groups.add(new HashMap<>(values));
+        for (Map.Entry<String, String> e : values.entrySet()) {
+          if (e.getValue() != null) {
+            super.put(e.getKey(), e.getValue());
+          } else {
+            super.remove(e.getKey());
+          }
+        }
+      }
+
+      @Override
+      public void remove(String key) {
+        groups.add(Collections.singletonMap(key, null));
+        super.remove(key);
+      }
+    };
+    backend.put("HEIGHT", "600");
+    JfxSettingsContext context = new JfxSettingsContext(backend);
+    try {
+      context.batch(tx -> tx.setInt("WIDTH", 800).removeValue("HEIGHT"));
+      context.flush();
+      Map<String, String> expected = new HashMap<>();
+      expected.put("WIDTH", "800");
+      expected.put("HEIGHT", null);
+      assertEquals(Collections.singletonList(expected), groups);
+      assertEquals("", context.getValue("HEIGHT"));
+      assertNull(backend.get("HEIGHT"));
+    } finally {
+      context.close();
+    }
+  }
+
+
+  private static int indexOf(byte[] data, byte[] pattern) {
+    for (int i = 0; i + pattern.length <= data.length; i++) {
+      int j = 0;
+      while (j < pattern.length && data[i + j] == pattern[j]) {
+        j++;
+      }
+      if (j == pattern.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Test
+  public void test28_mappedCrash() throws IOException {
+    System.out.println("mappedCrash");
+    Path file = Files.createTempFile("javafx-test", ".jfxs");
+    Path copy = Files.createTempFile("javafx-test", ".jfxs");
+    Files.delete(file);
+    JfxMappedBackend backend = new JfxMappedBackend(file, 16, 32, 64);
+    byte[] image;
+    try {
+      backend.put("TITLE", "old-title");
+      backend.flush();
+      backend.put("TITLE", "new-title");
+
+      // image du fichier au moment d'un arrêt brutal, avant la synchronisation suivante
+      image = Files.readAllBytes(file);
+    } finally {
+      backend.close();
+      Files.deleteIfExists(file);
+    }
+    try {
+      Files.write(copy, image);
+      backend = new JfxMappedBackend(copy);
+      assertEquals("new-title", backend.get("TITLE"));
+      backend.close();
+
+      // la nouvelle valeur n'a été écrite qu'en partie : l'ancienne est retrouvée
+      int pos = indexOf(image, "new-title".getBytes(StandardCharsets.UTF_8));
+      assertTrue(pos > 0);
+      image[pos + 4] = 'x';
+      Files.write(copy, image);
+      backend = new JfxMappedBackend(copy);
+      assertEquals("old-title", backend.get("TITLE"));
+      assertArrayEquals(new String[]{"TITLE"}, backend.keys());
+      backend.close();
+    } finally {
+      Files.deleteIfExists(copy);
+    }
+  }
+
+
+  @Test
+  public void test29_corruptLength() throws IOException, ClassNotFoundException {
+    System.out.println("corruptLength");
+    byte[] bytes = JfxCodecRegistry.encode(new int[]{1, 2, 3});
+
+    // la longueur du tableau (3) est remplacée par environ un milliard
+    byte[] corrupt = Arrays.copyOf(bytes, bytes.length + 4);
+    System.arraycopy(new byte[]{(byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, 0, corrupt, 3, 5);
+    System.arraycopy(bytes, 4, corrupt, 8, bytes.length - 4);
+    boolean rejected = false;
+    try {
+      JfxCodecRegistry.decode(corrupt);
+    } catch (StreamCorruptedException ex) {
+      rejected = true;
+    }
+    assertTrue(rejected);
+    assertArrayEquals(new int[]{1, 2, 3}, (int[]) JfxCodecRegistry.decode(bytes));
+  }
+
 }